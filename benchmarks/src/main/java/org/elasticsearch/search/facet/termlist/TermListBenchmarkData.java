@@ -0,0 +1,196 @@
+/* Copyright 2013 Endgame, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.search.facet.termlist;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.search.facet.Facet;
+
+/**
+ * TermListBenchmarkData
+ *
+ * Synthetic terms, indexes and shard facets shared by the benchmarks. Everything is
+ * drawn from a seeded Random so runs with the same parameters see the same data.
+ */
+final class TermListBenchmarkData {
+
+	static final String INDEX = "termlist_benchmark";
+	static final String TYPE = "doc";
+	static final String FIELD = "term";
+
+	/** Only a-z and A-Z. */
+	static final String ASCII = "ascii";
+	/** Adds the accented letters of Latin-1. */
+	static final String LATIN = "latin";
+	/** Adds Greek, Cyrillic, CJK ideographs and letters outside the BMP (surrogate pairs in Java). */
+	static final String MIXED = "mixed";
+
+	private TermListBenchmarkData() {
+	}
+
+	/**
+	 * @param random the source of the terms
+	 * @param count the number of distinct terms
+	 * @param length the code points of each term
+	 * @param unicode one of {@link #ASCII}, {@link #LATIN} or {@link #MIXED}
+	 * @return count distinct terms of mixed case, in no particular order
+	 */
+	static String[] terms(final Random random, final int count, final int length, final String unicode) {
+		final int scripts = ASCII.equals(unicode) ? 1 : LATIN.equals(unicode) ? 2 : 5;
+		final Set<String> terms = new LinkedHashSet<String>();
+		final StringBuilder sb = new StringBuilder();
+		while (terms.size() < count) {
+			sb.setLength(0);
+			for (int i = 0; i < length; i++) {
+				sb.appendCodePoint(codePoint(random, random.nextInt(scripts)));
+			}
+			terms.add(sb.toString());
+		}
+		return terms.toArray(new String[terms.size()]);
+	}
+
+	private static int codePoint(final Random random, final int script) {
+		switch (script) {
+		case 0:
+			return (random.nextBoolean() ? 'a' : 'A') + random.nextInt(26);
+		case 1:
+			final int latin = 0xC0 + random.nextInt(64);
+			return latin == 0xD7 || latin == 0xF7 ? 'x' : latin;		// multiplication and division signs
+		case 2:
+			if (random.nextBoolean()) {
+				return 0x410 + random.nextInt(64);		// Cyrillic
+			}
+			final int greek = 0x3B1 + random.nextInt(25) - (random.nextBoolean() ? 0x20 : 0);
+			return greek == 0x3A2 ? 0x3A3 : greek;		// there is no capital final sigma
+		case 3:
+			return 0x4E00 + random.nextInt(0x5000);
+		default:
+			return 0x1D400 + random.nextInt(52);		// mathematical bold letters
+		}
+	}
+
+	/**
+	 * @return the first two code points of term, or two starting in its middle
+	 */
+	static String fragment(final String term, final boolean prefix) {
+		final int codePoints = term.codePointCount(0, term.length());
+		final int from = prefix ? 0 : term.offsetByCodePoints(0, Math.max(0, codePoints / 2 - 1));
+		return term.substring(from, term.offsetByCodePoints(from, Math.min(2, term.codePointCount(from, term.length()))));
+	}
+
+	/**
+	 * Creates the benchmark index with a single not analyzed field, one shard, and
+	 * indexes every term once spread over the given number of segments.
+	 */
+	static void index(final Client client, final String[] terms, final int segments, final Random random) throws Exception {
+		client.admin().indices().prepareCreate(INDEX)
+				.setSettings(ImmutableSettings.settingsBuilder()
+						.put("index.number_of_shards", 1)
+						.put("index.number_of_replicas", 0)
+						.put("index.store.type", "memory")
+						.put("index.refresh_interval", -1)
+						// merges would undo the segment count
+						.put("index.merge.policy.type", "log_doc")
+						.put("index.merge.policy.merge_factor", 1000))
+				.addMapping(TYPE, XContentFactory.jsonBuilder().startObject().startObject(TYPE).startObject("properties")
+						.startObject(FIELD).field("type", "string").field("index", "not_analyzed").endObject()
+						.endObject().endObject().endObject())
+				.execute().actionGet();
+		client.admin().cluster().prepareHealth(INDEX).setWaitForGreenStatus().execute().actionGet();
+
+		final List<String> shuffled = new ArrayList<String>(Arrays.asList(terms));
+		Collections.shuffle(shuffled, random);
+		final int perSegment = (shuffled.size() + segments - 1) / segments;
+		for (int from = 0; from < shuffled.size(); from += perSegment) {
+			final int to = Math.min(shuffled.size(), from + perSegment);
+			for (int start = from; start < to; start += 1000) {
+				final BulkRequestBuilder bulk = client.prepareBulk();
+				for (int i = start; i < Math.min(to, start + 1000); i++) {
+					bulk.add(client.prepareIndex(INDEX, TYPE, Integer.toString(i))
+							.setSource(XContentFactory.jsonBuilder().startObject().field(FIELD, shuffled.get(i)).endObject()));
+				}
+				bulk.execute().actionGet();
+			}
+			// each flush writes the batch as its own segment
+			client.admin().indices().prepareFlush(INDEX).execute().actionGet();
+		}
+		client.admin().indices().prepareRefresh(INDEX).execute().actionGet();
+	}
+
+	/**
+	 * Builds the facets the shards would send, each listing a random part of vocabulary.
+	 *
+	 * @param order term or count, anything else sends unsorted lists
+	 */
+	static List<Facet> shardFacets(final Random random, final String[] vocabulary, final int shards, final int termsPerShard, final String order,
+			final int size) {
+		final boolean sort = "term".equals(order) || "count".equals(order);
+		final boolean orderByCount = "count".equals(order);
+		final List<Facet> facets = new ArrayList<Facet>(shards);
+		for (int s = 0; s < shards; s++) {
+			final Set<String> picked = new LinkedHashSet<String>();
+			while (picked.size() < Math.min(termsPerShard, vocabulary.length)) {
+				picked.add(vocabulary[random.nextInt(vocabulary.length)]);
+			}
+			final String[] entries = picked.toArray(new String[picked.size()]);
+			final long[] counts = new long[entries.length];
+			for (int i = 0; i < counts.length; i++) {
+				counts[i] = 1 + random.nextInt(1000);
+			}
+			if (orderByCount) {
+				sortByCount(entries, counts);
+			} else if (sort) {
+				Arrays.sort(entries);
+			}
+			facets.add(new InternalTermListFacet("bench", entries, counts,
+					new TermListOptions.Builder().sort(sort).orderByCount(orderByCount).size(size).compactStream(true).build(), false, false, null));
+		}
+		return facets;
+	}
+
+	private static void sortByCount(final String[] entries, final long[] counts) {
+		final Integer[] order = new Integer[entries.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				final int cmp = Long.compare(counts[b], counts[a]);
+				return cmp != 0 ? cmp : entries[a].compareTo(entries[b]);
+			}
+		});
+		final String[] sortedEntries = new String[entries.length];
+		final long[] sortedCounts = new long[counts.length];
+		for (int i = 0; i < order.length; i++) {
+			sortedEntries[i] = entries[order[i]];
+			sortedCounts[i] = counts[order[i]];
+		}
+		System.arraycopy(sortedEntries, 0, entries, 0, entries.length);
+		System.arraycopy(sortedCounts, 0, counts, 0, counts.length);
+	}
+}
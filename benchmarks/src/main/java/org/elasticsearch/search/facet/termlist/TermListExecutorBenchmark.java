@@ -0,0 +1,130 @@
+/* Copyright 2013 Endgame, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.search.facet.termlist;
+
+import static org.elasticsearch.node.NodeBuilder.nodeBuilder;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.io.FileSystemUtils;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.node.Node;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * TermListExecutorBenchmark
+ *
+ * Times a term list facet over a single shard index held in memory, for prefix and
+ * substring searches with and without case. The executor needs a search context,
+ * so each operation is a search through a local node's client, with no hits
+ * returned and the term list cache off so every search enumerates the segments.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class TermListExecutorBenchmark {
+
+	private static final int SEARCHES = 16;
+
+	@Param({ "10000", "100000" })
+	public int terms;
+
+	@Param({ "8", "32" })
+	public int termLength;
+
+	@Param({ TermListBenchmarkData.ASCII, TermListBenchmarkData.MIXED })
+	public String unicode;
+
+	@Param({ "1", "10" })
+	public int segments;
+
+	@Param({ "prefix", "substring" })
+	public String mode;
+
+	@Param({ "true", "false" })
+	public boolean caseInsensitive;
+
+	private File data;
+	private Node node;
+	private Client client;
+	private String[] searches;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		data = File.createTempFile("termlist-benchmark", "");
+		data.delete();
+		node = nodeBuilder().local(true).clusterName("termlist-benchmark").settings(ImmutableSettings.settingsBuilder()
+				.put("path.data", data.getAbsolutePath())
+				.put("gateway.type", "none")
+				.put("http.enabled", false)
+				.put(TermListCache.CACHE_SIZE, 0)
+				.put(TermListSidecarCache.CACHE_SIZE, 0))
+				.node();
+		client = node.client();
+
+		final Random random = new Random(terms * 31L + termLength);
+		final String[] vocabulary = TermListBenchmarkData.terms(random, terms, termLength, unicode);
+		TermListBenchmarkData.index(client, vocabulary, segments, random);
+
+		// the searches come from indexed terms, so each one matches at least a term
+		searches = new String[SEARCHES];
+		for (int i = 0; i < SEARCHES; i++) {
+			searches[i] = TermListBenchmarkData.fragment(vocabulary[random.nextInt(vocabulary.length)], "prefix".equals(mode));
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		node.close();
+		FileSystemUtils.deleteRecursively(data);
+	}
+
+	@Benchmark
+	public SearchResponse termList() {
+		final String search = searches[next++ & (SEARCHES - 1)];
+		return client.prepareSearch(TermListBenchmarkData.INDEX)
+				.setSearchType(SearchType.COUNT)
+				.addFacet(new TermListFacetBuilder("bench")
+						.fields(Collections.singletonList(TermListBenchmarkData.FIELD))
+						.search(search)
+						.prefix("prefix".equals(mode))
+						.caseInsensitive(caseInsensitive)
+						.maxPerShard(terms))
+				.execute().actionGet();
+	}
+}
@@ -0,0 +1,82 @@
+/* Copyright 2013 Endgame, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.search.facet.termlist;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.search.facet.Facet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * TermListReduceBenchmark
+ *
+ * Times {@link InternalTermListFacet#myReduce} over the lists of a number of shards
+ * drawing their terms from a shared vocabulary twice the size of a list, for the
+ * sorted merge, the count order and the hashing of unsorted lists.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class TermListReduceBenchmark {
+
+	@Param({ "2", "5", "20", "100" })
+	public int shards;
+
+	@Param({ "1000", "10000" })
+	public int termsPerShard;
+
+	@Param({ "16" })
+	public int termLength;
+
+	@Param({ TermListBenchmarkData.ASCII, TermListBenchmarkData.MIXED })
+	public String unicode;
+
+	@Param({ "term", "count", "unsorted" })
+	public String order;
+
+	@Param({ "0", "100" })
+	public int size;
+
+	private List<Facet> facets;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		final Random random = new Random(shards * 31L + termsPerShard);
+		final String[] vocabulary = TermListBenchmarkData.terms(random, 2 * termsPerShard, termLength, unicode);
+		facets = TermListBenchmarkData.shardFacets(random, vocabulary, shards, termsPerShard, order, size);
+	}
+
+	@Benchmark
+	public Facet reduce() {
+		return ((InternalTermListFacet) facets.get(0)).myReduce("bench", facets);
+	}
+}
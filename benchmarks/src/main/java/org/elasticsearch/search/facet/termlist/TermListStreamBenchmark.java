@@ -0,0 +1,91 @@
+/* Copyright 2013 Endgame, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.search.facet.termlist;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.common.io.stream.BytesStreamInput;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * TermListStreamBenchmark
+ *
+ * Times sending a shard's term list: {@link InternalTermListFacet#writeTo},
+ * {@link InternalTermListFacet#readFrom} and both in a row. Sorted lists are front
+ * coded, so they are measured apart from unsorted ones.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class TermListStreamBenchmark {
+
+	@Param({ "1000", "100000" })
+	public int terms;
+
+	@Param({ "8", "32" })
+	public int termLength;
+
+	@Param({ TermListBenchmarkData.ASCII, TermListBenchmarkData.MIXED })
+	public String unicode;
+
+	@Param({ "term", "unsorted" })
+	public String order;
+
+	private InternalTermListFacet facet;
+	private byte[] bytes;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		final Random random = new Random(terms * 31L + termLength);
+		final String[] vocabulary = TermListBenchmarkData.terms(random, terms, termLength, unicode);
+		facet = (InternalTermListFacet) TermListBenchmarkData.shardFacets(random, vocabulary, 1, terms, order, 0).get(0);
+		bytes = write().bytes().toBytes();
+	}
+
+	@Benchmark
+	public BytesStreamOutput write() throws IOException {
+		final BytesStreamOutput out = new BytesStreamOutput();
+		facet.writeTo(out);
+		return out;
+	}
+
+	@Benchmark
+	public InternalTermListFacet read() throws IOException {
+		return InternalTermListFacet.readTermListFacet(new BytesStreamInput(bytes, false));
+	}
+
+	@Benchmark
+	public InternalTermListFacet roundTrip() throws IOException {
+		return InternalTermListFacet.readTermListFacet(new BytesStreamInput(write().bytes()));
+	}
+}
@@ -0,0 +1,52 @@
+/* Copyright 2013 Endgame, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.action.termlist;
+
+import java.io.IOException;
+
+import org.elasticsearch.action.support.broadcast.BroadcastShardOperationRequest;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+
+class ShardTermListRequest extends BroadcastShardOperationRequest {
+
+	private BytesReference source;
+
+	ShardTermListRequest() {
+	}
+
+	ShardTermListRequest(final String index, final int shardId, final TermListRequest request) {
+		super(index, shardId, request);
+		this.source = request.source();
+	}
+
+	public BytesReference source() {
+		return source;
+	}
+
+	@Override
+	public void readFrom(final StreamInput in) throws IOException {
+		super.readFrom(in);
+		source = in.readBytesReference();
+	}
+
+	@Override
+	public void writeTo(final StreamOutput out) throws IOException {
+		super.writeTo(out);
+		out.writeBytesReference(source);
+	}
+}
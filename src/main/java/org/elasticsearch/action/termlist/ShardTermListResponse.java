@@ -0,0 +1,52 @@
+/* Copyright 2013 Endgame, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.action.termlist;
+
+import java.io.IOException;
+
+import org.elasticsearch.action.support.broadcast.BroadcastShardOperationResponse;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.search.facet.termlist.InternalTermListFacet;
+
+class ShardTermListResponse extends BroadcastShardOperationResponse {
+
+	private InternalTermListFacet facet;
+
+	ShardTermListResponse() {
+	}
+
+	ShardTermListResponse(final String index, final int shardId, final InternalTermListFacet facet) {
+		super(index, shardId);
+		this.facet = facet;
+	}
+
+	public InternalTermListFacet facet() {
+		return facet;
+	}
+
+	@Override
+	public void readFrom(final StreamInput in) throws IOException {
+		super.readFrom(in);
+		facet = InternalTermListFacet.readTermListFacet(in);
+	}
+
+	@Override
+	public void writeTo(final StreamOutput out) throws IOException {
+		super.writeTo(out);
+		facet.writeCompactTo(out);		// only nodes running this version know the action
+	}
+}
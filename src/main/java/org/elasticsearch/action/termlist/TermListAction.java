@@ -0,0 +1,42 @@
+/* Copyright 2013 Endgame, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.action.termlist;
+
+import org.elasticsearch.action.Action;
+import org.elasticsearch.client.Client;
+
+/**
+ * Lists the terms of the shards of some indices without going through a search.
+ */
+public class TermListAction extends Action<TermListRequest, TermListResponse, TermListRequestBuilder> {
+
+	public static final TermListAction INSTANCE = new TermListAction();
+	public static final String NAME = "termlist";
+
+	private TermListAction() {
+		super(NAME);
+	}
+
+	@Override
+	public TermListResponse newResponse() {
+		return new TermListResponse();
+	}
+
+	@Override
+	public TermListRequestBuilder newRequestBuilder(final Client client) {
+		return new TermListRequestBuilder(client);
+	}
+}
@@ -0,0 +1,98 @@
+/* Copyright 2013 Endgame, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.action.termlist;
+
+import static org.elasticsearch.action.ValidateActions.addValidationError;
+
+import java.io.IOException;
+
+import org.elasticsearch.ElasticSearchGenerationException;
+import org.elasticsearch.action.ActionRequestValidationException;
+import org.elasticsearch.action.support.broadcast.BroadcastOperationRequest;
+import org.elasticsearch.client.Requests;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.search.facet.termlist.TermListFacetBuilder;
+
+/**
+ * Lists the terms of the given indices, all of them by default. The source holds
+ * the same parameters as the body of a term_list facet.
+ */
+public class TermListRequest extends BroadcastOperationRequest<TermListRequest> {
+
+	private BytesReference source;
+
+	TermListRequest() {
+	}
+
+	/**
+	 * @param indices the indices to list, none for all of them
+	 */
+	public TermListRequest(final String... indices) {
+		super(indices);
+	}
+
+	public BytesReference source() {
+		return source;
+	}
+
+	/**
+	 * @param facet the parameters of the list, its name and facet filter play no part
+	 */
+	public TermListRequest source(final TermListFacetBuilder facet) {
+		try {
+			final XContentBuilder builder = XContentFactory.contentBuilder(Requests.CONTENT_TYPE);
+			facet.paramsToXContent(builder);
+			return source(builder.bytes());
+		} catch (IOException e) {
+			throw new ElasticSearchGenerationException("failed to generate the term list source", e);
+		}
+	}
+
+	public TermListRequest source(final String source) {
+		return source(new BytesArray(source));
+	}
+
+	public TermListRequest source(final BytesReference source) {
+		this.source = source;
+		return this;
+	}
+
+	@Override
+	public ActionRequestValidationException validate() {
+		ActionRequestValidationException validationException = super.validate();
+		if (source == null) {
+			validationException = addValidationError("term list source is missing", validationException);
+		}
+		return validationException;
+	}
+
+	@Override
+	public void readFrom(final StreamInput in) throws IOException {
+		super.readFrom(in);
+		source = in.readBytesReference();
+	}
+
+	@Override
+	public void writeTo(final StreamOutput out) throws IOException {
+		super.writeTo(out);
+		out.writeBytesReference(source);
+	}
+}
@@ -0,0 +1,44 @@
+/* Copyright 2013 Endgame, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.action.termlist;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.support.broadcast.BroadcastOperationRequestBuilder;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.client.internal.InternalGenericClient;
+import org.elasticsearch.search.facet.termlist.TermListFacetBuilder;
+
+public class TermListRequestBuilder extends BroadcastOperationRequestBuilder<TermListRequest, TermListResponse, TermListRequestBuilder> {
+
+	public TermListRequestBuilder(final Client client) {
+		super((InternalGenericClient) client, new TermListRequest());
+	}
+
+	public TermListRequestBuilder setTermList(final TermListFacetBuilder facet) {
+		request.source(facet);
+		return this;
+	}
+
+	public TermListRequestBuilder setSource(final String source) {
+		request.source(source);
+		return this;
+	}
+
+	@Override
+	protected void doExecute(final ActionListener<TermListResponse> listener) {
+		((Client) client).execute(TermListAction.INSTANCE, request, listener);
+	}
+}
@@ -0,0 +1,69 @@
+/* Copyright 2013 Endgame, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.action.termlist;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.elasticsearch.action.ShardOperationFailedException;
+import org.elasticsearch.action.support.broadcast.BroadcastOperationResponse;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.search.facet.termlist.InternalTermListFacet;
+import org.elasticsearch.search.facet.termlist.TermListFacet;
+
+/**
+ * The terms of all the shards listed, reduced as the term_list facet would be.
+ */
+public class TermListResponse extends BroadcastOperationResponse implements ToXContent {
+
+	private InternalTermListFacet termList;
+
+	TermListResponse() {
+	}
+
+	TermListResponse(final InternalTermListFacet termList, final int totalShards, final int successfulShards, final int failedShards,
+			final List<ShardOperationFailedException> shardFailures) {
+		super(totalShards, successfulShards, failedShards, shardFailures);
+		this.termList = termList;
+	}
+
+	public TermListFacet getTermList() {
+		return termList;
+	}
+
+	@Override
+	public void readFrom(final StreamInput in) throws IOException {
+		super.readFrom(in);
+		termList = InternalTermListFacet.readTermListFacet(in);
+	}
+
+	@Override
+	public void writeTo(final StreamOutput out) throws IOException {
+		super.writeTo(out);
+		termList.writeCompactTo(out);		// only nodes running this version know the action
+	}
+
+	/**
+	 * Writes the list as a facet named term_list, the caller opens and closes the object.
+	 */
+	@Override
+	public XContentBuilder toXContent(final XContentBuilder builder, final Params params) throws IOException {
+		return termList.toXContent(builder, params);
+	}
+}
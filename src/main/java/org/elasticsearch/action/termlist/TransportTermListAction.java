@@ -0,0 +1,189 @@
+/* Copyright 2013 Endgame, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.action.termlist;
+
+import static org.elasticsearch.common.collect.Lists.newArrayList;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.elasticsearch.ElasticSearchException;
+import org.elasticsearch.action.ShardOperationFailedException;
+import org.elasticsearch.action.support.DefaultShardOperationFailedException;
+import org.elasticsearch.action.support.broadcast.BroadcastShardOperationFailedException;
+import org.elasticsearch.action.support.broadcast.TransportBroadcastOperationAction;
+import org.elasticsearch.cache.recycler.CacheRecycler;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.block.ClusterBlockException;
+import org.elasticsearch.cluster.block.ClusterBlockLevel;
+import org.elasticsearch.cluster.routing.GroupShardsIterator;
+import org.elasticsearch.cluster.routing.ShardRouting;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.service.IndexService;
+import org.elasticsearch.index.shard.service.IndexShard;
+import org.elasticsearch.indices.IndicesService;
+import org.elasticsearch.script.ScriptService;
+import org.elasticsearch.search.SearchShardTarget;
+import org.elasticsearch.search.facet.Facet;
+import org.elasticsearch.search.facet.FacetParsers;
+import org.elasticsearch.search.facet.termlist.InternalTermListFacet;
+import org.elasticsearch.search.facet.termlist.TermListFacet;
+import org.elasticsearch.search.facet.termlist.TermListFacetExecutor;
+import org.elasticsearch.search.facet.termlist.TermListFacetParser;
+import org.elasticsearch.search.facet.termlist.TermListOptions;
+import org.elasticsearch.search.internal.SearchContext;
+import org.elasticsearch.search.internal.ShardSearchRequest;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportService;
+
+/**
+ * Lists the terms of each shard on its search pool and reduces the lists as the
+ * facet would. There is no query to parse and no doc to collect or fetch, each
+ * segment of the shard goes straight to the facet's collector.
+ */
+public class TransportTermListAction extends TransportBroadcastOperationAction<TermListRequest, TermListResponse, ShardTermListRequest, ShardTermListResponse> {
+
+	private final IndicesService indicesService;
+	private final ScriptService scriptService;
+	private final CacheRecycler cacheRecycler;
+	private final FacetParsers facetParsers;
+
+	@Inject
+	public TransportTermListAction(final Settings settings, final ThreadPool threadPool, final ClusterService clusterService, final TransportService transportService,
+			final IndicesService indicesService, final ScriptService scriptService, final CacheRecycler cacheRecycler, final FacetParsers facetParsers) {
+		super(settings, threadPool, clusterService, transportService);
+		this.indicesService = indicesService;
+		this.scriptService = scriptService;
+		this.cacheRecycler = cacheRecycler;
+		this.facetParsers = facetParsers;
+	}
+
+	@Override
+	protected String transportAction() {
+		return TermListAction.NAME;
+	}
+
+	@Override
+	protected String executor() {
+		return ThreadPool.Names.SEARCH;
+	}
+
+	@Override
+	protected TermListRequest newRequest() {
+		return new TermListRequest();
+	}
+
+	@Override
+	protected ShardTermListRequest newShardRequest() {
+		return new ShardTermListRequest();
+	}
+
+	@Override
+	protected ShardTermListRequest newShardRequest(final ShardRouting shard, final TermListRequest request) {
+		return new ShardTermListRequest(shard.index(), shard.id(), request);
+	}
+
+	@Override
+	protected ShardTermListResponse newShardResponse() {
+		return new ShardTermListResponse();
+	}
+
+	@Override
+	protected GroupShardsIterator shards(final ClusterState clusterState, final TermListRequest request, final String[] concreteIndices) {
+		// one copy of each shard, picked as a search would
+		return clusterService.operationRouting().searchShards(clusterState, request.indices(), concreteIndices, null, null);
+	}
+
+	@Override
+	protected ClusterBlockException checkGlobalBlock(final ClusterState state, final TermListRequest request) {
+		return state.blocks().globalBlockedException(ClusterBlockLevel.READ);
+	}
+
+	@Override
+	protected ClusterBlockException checkRequestBlock(final ClusterState state, final TermListRequest request, final String[] concreteIndices) {
+		return state.blocks().indicesBlockedException(ClusterBlockLevel.READ, concreteIndices);
+	}
+
+	@Override
+	@SuppressWarnings("rawtypes")		// the action declares the raw type, an override cannot take AtomicReferenceArray<?>
+	protected TermListResponse newResponse(final TermListRequest request, final AtomicReferenceArray shardsResponses, final ClusterState clusterState) {
+		int successfulShards = 0;
+		int failedShards = 0;
+		List<ShardOperationFailedException> shardFailures = null;
+		final List<Facet> facets = new ArrayList<Facet>();
+		for (int i = 0; i < shardsResponses.length(); i++) {
+			final Object shardResponse = shardsResponses.get(i);
+			if (shardResponse == null) {
+				// simply ignore non active shards
+			} else if (shardResponse instanceof BroadcastShardOperationFailedException) {
+				failedShards++;
+				if (shardFailures == null) {
+					shardFailures = newArrayList();
+				}
+				shardFailures.add(new DefaultShardOperationFailedException((BroadcastShardOperationFailedException) shardResponse));
+			} else {
+				facets.add(((ShardTermListResponse) shardResponse).facet());
+				successfulShards++;
+			}
+		}
+		
+		final InternalTermListFacet termList;
+		if (facets.isEmpty()) {
+			termList = new InternalTermListFacet(TermListFacet.TYPE, new Object[0], null, new TermListOptions.Builder().build(), false, false, null);
+		} else {
+			termList = (InternalTermListFacet) ((InternalTermListFacet) facets.get(0)).myReduce(TermListFacet.TYPE, facets);
+		}
+		return new TermListResponse(termList, shardsResponses.length(), successfulShards, failedShards, shardFailures);
+	}
+
+	@Override
+	protected ShardTermListResponse shardOperation(final ShardTermListRequest request) throws ElasticSearchException {
+		final IndexService indexService = indicesService.indexServiceSafe(request.index());
+		final IndexShard indexShard = indexService.shardSafe(request.shardId());
+
+		final SearchShardTarget shardTarget = new SearchShardTarget(clusterService.localNode().id(), request.index(), request.shardId());
+		final SearchContext context = new SearchContext(0, new ShardSearchRequest(), shardTarget, indexShard.acquireSearcher("termlist"), indexService, indexShard,
+				scriptService, cacheRecycler);
+		SearchContext.setCurrent(context);
+
+		XContentParser parser = null;
+		try {
+			parser = XContentFactory.xContent(request.source()).createParser(request.source());
+			parser.nextToken();		// the parser reads the fields of the object
+			final TermListFacetParser termListParser = (TermListFacetParser) facetParsers.processor(TermListFacet.TYPE);
+			final TermListOptions options = termListParser.parseOptions(TermListFacet.TYPE, parser, context);
+			final TermListFacetExecutor executor = termListParser.executor(TermListFacet.TYPE, options, context);
+			final InternalTermListFacet facet = (InternalTermListFacet) executor.listShard(TermListFacet.TYPE, context.searcher().getIndexReader());
+			return new ShardTermListResponse(request.index(), request.shardId(), facet);
+		} catch (ElasticSearchException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new ElasticSearchException("failed to list the terms of shard [" + shardTarget + "]", e);
+		} finally {
+			if (parser != null) {
+				parser.close();
+			}
+			// this also releases the searcher
+			context.release();
+			SearchContext.removeCurrent();
+		}
+	}
+}
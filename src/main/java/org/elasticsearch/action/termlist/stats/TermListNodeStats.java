@@ -0,0 +1,196 @@
+/* Copyright 2013 Endgame, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.action.termlist.stats;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.elasticsearch.action.support.nodes.NodeOperationResponse;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentBuilderString;
+import org.elasticsearch.search.facet.termlist.TermListCircuitBreaker;
+import org.elasticsearch.search.facet.termlist.TermListFieldStats;
+import org.elasticsearch.search.facet.termlist.TermListSidecarCache;
+
+/**
+ * The term list statistics of a node, per index and facet fields, the memory of its
+ * sidecar structures and the state of its breaker.
+ */
+public class TermListNodeStats extends NodeOperationResponse implements ToXContent {
+
+	private List<TermListFieldStats> stats;
+	private long sidecarUsedBytes;
+	private long sidecarSizeInBytes;
+	private long breakerUsedBytes;
+	private long breakerLimitBytes;
+	private long breakerTrippedCount;
+
+	TermListNodeStats() {
+	}
+
+	public TermListNodeStats(final DiscoveryNode node, final List<TermListFieldStats> stats, final TermListSidecarCache sidecars,
+			final TermListCircuitBreaker breaker) {
+		super(node);
+		this.stats = stats;
+		this.sidecarUsedBytes = sidecars.usedBytes();
+		this.sidecarSizeInBytes = sidecars.sizeInBytes();
+		this.breakerUsedBytes = breaker.used();
+		this.breakerLimitBytes = breaker.limit();
+		this.breakerTrippedCount = breaker.trippedCount();
+	}
+
+	public List<TermListFieldStats> stats() {
+		return stats;
+	}
+
+	/**
+	 * @return the heap held by the suffix, lowercase and popularity indexes and global ordinals
+	 */
+	public long sidecarUsedBytes() {
+		return sidecarUsedBytes;
+	}
+
+	/**
+	 * @return the memory the sidecar structures may use, 0 when they are disabled
+	 */
+	public long sidecarSizeInBytes() {
+		return sidecarSizeInBytes;
+	}
+
+	/**
+	 * @return the bytes reserved by the term lists being collected
+	 */
+	public long breakerUsedBytes() {
+		return breakerUsedBytes;
+	}
+
+	/**
+	 * @return the bytes the term lists being collected may reserve together, 0 for no limit
+	 */
+	public long breakerLimitBytes() {
+		return breakerLimitBytes;
+	}
+
+	/**
+	 * @return the number of requests which failed on the breaker limit
+	 */
+	public long breakerTrippedCount() {
+		return breakerTrippedCount;
+	}
+
+	/**
+	 * @return the statistics of every index and fields added up
+	 */
+	public TermListFieldStats total() {
+		final TermListFieldStats total = new TermListFieldStats(null, null);
+		for (TermListFieldStats fieldStats : stats) {
+			total.add(fieldStats);
+		}
+		return total;
+	}
+
+	@Override
+	public void readFrom(final StreamInput in) throws IOException {
+		super.readFrom(in);
+		final int size = in.readVInt();
+		stats = new ArrayList<TermListFieldStats>(size);
+		for (int i = 0; i < size; i++) {
+			stats.add(TermListFieldStats.readFieldStats(in));
+		}
+		sidecarUsedBytes = in.readVLong();
+		sidecarSizeInBytes = in.readVLong();
+		breakerUsedBytes = in.readVLong();
+		breakerLimitBytes = in.readVLong();
+		breakerTrippedCount = in.readVLong();
+	}
+
+	@Override
+	public void writeTo(final StreamOutput out) throws IOException {
+		super.writeTo(out);
+		out.writeVInt(stats.size());
+		for (TermListFieldStats fieldStats : stats) {
+			fieldStats.writeTo(out);
+		}
+		out.writeVLong(sidecarUsedBytes);
+		out.writeVLong(sidecarSizeInBytes);
+		out.writeVLong(breakerUsedBytes);
+		out.writeVLong(breakerLimitBytes);
+		out.writeVLong(breakerTrippedCount);
+	}
+
+	static final class Fields {
+		static final XContentBuilderString NAME = new XContentBuilderString("name");
+		static final XContentBuilderString TOTAL = new XContentBuilderString("total");
+		static final XContentBuilderString INDICES = new XContentBuilderString("indices");
+		static final XContentBuilderString SIDECAR = new XContentBuilderString("sidecar");
+		static final XContentBuilderString USED = new XContentBuilderString("used");
+		static final XContentBuilderString USED_IN_BYTES = new XContentBuilderString("used_in_bytes");
+		static final XContentBuilderString LIMIT = new XContentBuilderString("limit");
+		static final XContentBuilderString LIMIT_IN_BYTES = new XContentBuilderString("limit_in_bytes");
+		static final XContentBuilderString BREAKER = new XContentBuilderString("breaker");
+		static final XContentBuilderString TRIPPED = new XContentBuilderString("tripped");
+	}
+
+	@Override
+	public XContentBuilder toXContent(final XContentBuilder builder, final Params params) throws IOException {
+		builder.startObject(getNode().id());
+		builder.field(Fields.NAME, getNode().name());
+		builder.startObject(Fields.SIDECAR);
+		builder.byteSizeField(Fields.USED_IN_BYTES, Fields.USED, sidecarUsedBytes);
+		builder.byteSizeField(Fields.LIMIT_IN_BYTES, Fields.LIMIT, sidecarSizeInBytes);
+		builder.endObject();
+		builder.startObject(Fields.BREAKER);
+		builder.byteSizeField(Fields.USED_IN_BYTES, Fields.USED, breakerUsedBytes);
+		builder.byteSizeField(Fields.LIMIT_IN_BYTES, Fields.LIMIT, breakerLimitBytes);
+		builder.field(Fields.TRIPPED, breakerTrippedCount);
+		builder.endObject();
+		builder.startObject(Fields.TOTAL);
+		total().toXContent(builder, params);
+		builder.endObject();
+
+		// sorted by index then fields so the output is stable
+		final Map<String, Map<String, TermListFieldStats>> byIndex = new TreeMap<String, Map<String, TermListFieldStats>>();
+		for (TermListFieldStats fieldStats : stats) {
+			Map<String, TermListFieldStats> byFields = byIndex.get(fieldStats.index());
+			if (byFields == null) {
+				byFields = new TreeMap<String, TermListFieldStats>();
+				byIndex.put(fieldStats.index(), byFields);
+			}
+			byFields.put(fieldStats.fields(), fieldStats);
+		}
+		builder.startObject(Fields.INDICES);
+		for (Map.Entry<String, Map<String, TermListFieldStats>> index : byIndex.entrySet()) {
+			builder.startObject(index.getKey());
+			for (Map.Entry<String, TermListFieldStats> fields : index.getValue().entrySet()) {
+				builder.startObject(fields.getKey());
+				fields.getValue().toXContent(builder, params);
+				builder.endObject();
+			}
+			builder.endObject();
+		}
+		builder.endObject();
+
+		builder.endObject();
+		return builder;
+	}
+}
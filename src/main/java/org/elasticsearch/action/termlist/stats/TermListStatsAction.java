@@ -0,0 +1,42 @@
+/* Copyright 2013 Endgame, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.action.termlist.stats;
+
+import org.elasticsearch.action.Action;
+import org.elasticsearch.client.Client;
+
+/**
+ * Collects the term list statistics of the nodes.
+ */
+public class TermListStatsAction extends Action<TermListStatsRequest, TermListStatsResponse, TermListStatsRequestBuilder> {
+
+	public static final TermListStatsAction INSTANCE = new TermListStatsAction();
+	public static final String NAME = "termlist/stats";
+
+	private TermListStatsAction() {
+		super(NAME);
+	}
+
+	@Override
+	public TermListStatsResponse newResponse() {
+		return new TermListStatsResponse();
+	}
+
+	@Override
+	public TermListStatsRequestBuilder newRequestBuilder(final Client client) {
+		return new TermListStatsRequestBuilder(client);
+	}
+}
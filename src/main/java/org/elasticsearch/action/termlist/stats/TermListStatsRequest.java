@@ -0,0 +1,34 @@
+/* Copyright 2013 Endgame, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.action.termlist.stats;
+
+import org.elasticsearch.action.support.nodes.NodesOperationRequest;
+
+/**
+ * Asks the given nodes, all of them by default, for their term list statistics.
+ */
+public class TermListStatsRequest extends NodesOperationRequest<TermListStatsRequest> {
+
+	public TermListStatsRequest() {
+	}
+
+	/**
+	 * @param nodesIds the nodes to ask, none for all of them
+	 */
+	public TermListStatsRequest(final String... nodesIds) {
+		super(nodesIds);
+	}
+}
@@ -0,0 +1,33 @@
+/* Copyright 2013 Endgame, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.action.termlist.stats;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.support.nodes.NodesOperationRequestBuilder;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.client.internal.InternalGenericClient;
+
+public class TermListStatsRequestBuilder extends NodesOperationRequestBuilder<TermListStatsRequest, TermListStatsResponse, TermListStatsRequestBuilder> {
+
+	public TermListStatsRequestBuilder(final Client client) {
+		super((InternalGenericClient) client, new TermListStatsRequest());
+	}
+
+	@Override
+	protected void doExecute(final ActionListener<TermListStatsResponse> listener) {
+		((Client) client).execute(TermListStatsAction.INSTANCE, request, listener);
+	}
+}
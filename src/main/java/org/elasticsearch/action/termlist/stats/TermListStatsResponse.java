@@ -0,0 +1,77 @@
+/* Copyright 2013 Endgame, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.action.termlist.stats;
+
+import java.io.IOException;
+
+import org.elasticsearch.action.support.nodes.NodesOperationResponse;
+import org.elasticsearch.cluster.ClusterName;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentBuilderString;
+
+/**
+ * The term list statistics of each node asked.
+ */
+public class TermListStatsResponse extends NodesOperationResponse<TermListNodeStats> implements ToXContent {
+
+	TermListStatsResponse() {
+	}
+
+	public TermListStatsResponse(final ClusterName clusterName, final TermListNodeStats[] nodes) {
+		super(clusterName, nodes);
+	}
+
+	@Override
+	public void readFrom(final StreamInput in) throws IOException {
+		super.readFrom(in);
+		nodes = new TermListNodeStats[in.readVInt()];
+		for (int i = 0; i < nodes.length; i++) {
+			nodes[i] = new TermListNodeStats();
+			nodes[i].readFrom(in);
+		}
+	}
+
+	@Override
+	public void writeTo(final StreamOutput out) throws IOException {
+		super.writeTo(out);
+		out.writeVInt(nodes.length);
+		for (TermListNodeStats node : nodes) {
+			node.writeTo(out);
+		}
+	}
+
+	static final class Fields {
+		static final XContentBuilderString CLUSTER_NAME = new XContentBuilderString("cluster_name");
+		static final XContentBuilderString NODES = new XContentBuilderString("nodes");
+	}
+
+	/**
+	 * Writes the fields of the response, the caller opens and closes its object.
+	 */
+	@Override
+	public XContentBuilder toXContent(final XContentBuilder builder, final Params params) throws IOException {
+		builder.field(Fields.CLUSTER_NAME, getClusterName().value());
+		builder.startObject(Fields.NODES);
+		for (TermListNodeStats node : nodes) {
+			node.toXContent(builder, params);
+		}
+		builder.endObject();
+		return builder;
+	}
+}
@@ -0,0 +1,117 @@
+/* Copyright 2013 Endgame, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.action.termlist.stats;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.elasticsearch.ElasticSearchException;
+import org.elasticsearch.action.support.nodes.NodeOperationRequest;
+import org.elasticsearch.action.support.nodes.TransportNodesOperationAction;
+import org.elasticsearch.cluster.ClusterName;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.search.facet.termlist.TermListCircuitBreaker;
+import org.elasticsearch.search.facet.termlist.TermListSidecarCache;
+import org.elasticsearch.search.facet.termlist.TermListStats;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportService;
+
+/**
+ * Reads the term list statistics, sidecar memory and breaker of each node on its management pool.
+ */
+public class TransportTermListStatsAction extends TransportNodesOperationAction<TermListStatsRequest, TermListStatsResponse,
+		TransportTermListStatsAction.NodeRequest, TermListNodeStats> {
+
+	private final TermListStats stats;
+	private final TermListSidecarCache sidecars;
+	private final TermListCircuitBreaker breaker;
+
+	@Inject
+	public TransportTermListStatsAction(final Settings settings, final ClusterName clusterName, final ThreadPool threadPool,
+			final ClusterService clusterService, final TransportService transportService, final TermListStats stats,
+			final TermListSidecarCache sidecars, final TermListCircuitBreaker breaker) {
+		super(settings, clusterName, threadPool, clusterService, transportService);
+		this.stats = stats;
+		this.sidecars = sidecars;
+		this.breaker = breaker;
+	}
+
+	@Override
+	protected String transportAction() {
+		return TermListStatsAction.NAME;
+	}
+
+	@Override
+	protected String executor() {
+		return ThreadPool.Names.MANAGEMENT;
+	}
+
+	@Override
+	protected TermListStatsRequest newRequest() {
+		return new TermListStatsRequest();
+	}
+
+	@Override
+	@SuppressWarnings("rawtypes")		// the action declares the raw type, an override cannot take AtomicReferenceArray<?>
+	protected TermListStatsResponse newResponse(final TermListStatsRequest request, final AtomicReferenceArray responses) {
+		final List<TermListNodeStats> nodes = new ArrayList<TermListNodeStats>();
+		for (int i = 0; i < responses.length(); i++) {
+			final Object response = responses.get(i);
+			if (response instanceof TermListNodeStats) {
+				nodes.add((TermListNodeStats) response);
+			}
+		}
+		return new TermListStatsResponse(clusterName, nodes.toArray(new TermListNodeStats[nodes.size()]));
+	}
+
+	@Override
+	protected NodeRequest newNodeRequest() {
+		return new NodeRequest();
+	}
+
+	@Override
+	protected NodeRequest newNodeRequest(final String nodeId, final TermListStatsRequest request) {
+		return new NodeRequest(request, nodeId);
+	}
+
+	@Override
+	protected TermListNodeStats newNodeResponse() {
+		return new TermListNodeStats();
+	}
+
+	@Override
+	protected TermListNodeStats nodeOperation(final NodeRequest request) throws ElasticSearchException {
+		return new TermListNodeStats(clusterService.localNode(), stats.stats(), sidecars, breaker);
+	}
+
+	@Override
+	protected boolean accumulateExceptions() {
+		return false;
+	}
+
+	static class NodeRequest extends NodeOperationRequest {
+
+		NodeRequest() {
+		}
+
+		NodeRequest(final TermListStatsRequest request, final String nodeId) {
+			super(request, nodeId);
+		}
+	}
+}
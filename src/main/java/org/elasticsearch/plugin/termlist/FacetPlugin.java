@@ -15,11 +15,24 @@
  */
 package org.elasticsearch.plugin.termlist;
 
+import java.util.Collection;
+
+import org.elasticsearch.action.ActionModule;
+import org.elasticsearch.action.termlist.TermListAction;
+import org.elasticsearch.action.termlist.TransportTermListAction;
+import org.elasticsearch.action.termlist.stats.TermListStatsAction;
+import org.elasticsearch.action.termlist.stats.TransportTermListStatsAction;
+import org.elasticsearch.common.collect.ImmutableList;
+import org.elasticsearch.common.component.LifecycleComponent;
 import org.elasticsearch.common.inject.Module;
 import org.elasticsearch.plugins.AbstractPlugin;
+import org.elasticsearch.rest.RestModule;
+import org.elasticsearch.rest.action.termlist.RestTermListAction;
+import org.elasticsearch.rest.action.termlist.RestTermListStatsAction;
 import org.elasticsearch.search.facet.FacetModule;
 import org.elasticsearch.search.facet.termlist.InternalTermListFacet;
 import org.elasticsearch.search.facet.termlist.TermListFacetParser;
+import org.elasticsearch.search.facet.termlist.TermListThreadPool;
 
 
 
@@ -39,6 +52,17 @@ public class FacetPlugin extends AbstractPlugin {
         return "an ES plugin with similar functionality to Lucene/Solr's TermsComponent";
     }
 
+    @Override
+    public Collection<Class<? extends Module>> modules() {
+        return ImmutableList.<Class<? extends Module>>of(TermListModule.class);
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")       // Plugin declares the raw type, an override cannot narrow it to LifecycleComponent<?>
+    public Collection<Class<? extends LifecycleComponent>> services() {
+        return ImmutableList.<Class<? extends LifecycleComponent>>of(TermListThreadPool.class);
+    }
+
     @Override
     public void processModule(final Module module) {
         
@@ -47,5 +71,15 @@ public class FacetPlugin extends AbstractPlugin {
     		((FacetModule) module).addFacetProcessor(TermListFacetParser.class);			// our processor goes here
     		InternalTermListFacet.registerStream();
     	}
+    	else if(module instanceof ActionModule)
+    	{
+    		((ActionModule) module).registerAction(TermListAction.INSTANCE, TransportTermListAction.class);
+    		((ActionModule) module).registerAction(TermListStatsAction.INSTANCE, TransportTermListStatsAction.class);
+    	}
+    	else if(module instanceof RestModule)
+    	{
+    		((RestModule) module).addRestAction(RestTermListAction.class);			// GET /{index}/_termlist
+    		((RestModule) module).addRestAction(RestTermListStatsAction.class);		// GET /_termlist/stats
+    	}
     }
 }
@@ -0,0 +1,40 @@
+/* Copyright 2013 Endgame, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.plugin.termlist;
+
+import org.elasticsearch.common.inject.AbstractModule;
+import org.elasticsearch.search.facet.termlist.TermListAutomatonCache;
+import org.elasticsearch.search.facet.termlist.TermListCache;
+import org.elasticsearch.search.facet.termlist.TermListCircuitBreaker;
+import org.elasticsearch.search.facet.termlist.TermListSidecarCache;
+import org.elasticsearch.search.facet.termlist.TermListStats;
+import org.elasticsearch.search.facet.termlist.TermListThreadPool;
+
+/**
+ * Binds the node level components shared by every term list facet.
+ */
+public class TermListModule extends AbstractModule {
+
+    @Override
+    protected void configure() {
+        bind(TermListCache.class).asEagerSingleton();
+        bind(TermListSidecarCache.class).asEagerSingleton();
+        bind(TermListAutomatonCache.class).asEagerSingleton();
+        bind(TermListThreadPool.class).asEagerSingleton();
+        bind(TermListCircuitBreaker.class).asEagerSingleton();
+        bind(TermListStats.class).asEagerSingleton();
+    }
+}
@@ -0,0 +1,147 @@
+/* Copyright 2013 Endgame, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.rest.action.termlist;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+import static org.elasticsearch.rest.RestRequest.Method.POST;
+import static org.elasticsearch.rest.action.support.RestActions.buildBroadcastShardsHeader;
+import static org.elasticsearch.rest.action.support.RestXContentBuilder.restContentBuilder;
+
+import java.io.IOException;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.support.IgnoreIndices;
+import org.elasticsearch.action.support.broadcast.BroadcastOperationThreading;
+import org.elasticsearch.action.termlist.TermListAction;
+import org.elasticsearch.action.termlist.TermListRequest;
+import org.elasticsearch.action.termlist.TermListResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.rest.XContentRestResponse;
+import org.elasticsearch.rest.XContentThrowableRestResponse;
+
+/**
+ * GET or POST /{index}/_termlist lists the terms of the given comma separated indices,
+ * /_termlist those of all of them. The body takes the parameters of the term_list facet,
+ * without one they are read from the URL: fields=name,child.name&search=jo&prefix=true
+ */
+public class RestTermListAction extends BaseRestHandler {
+
+	/** The facet parameters which can be given in the URL, fields aside. */
+	private static final String[] PARAMS = { "search", "prefix", "sort", "query_scoped", "suffix_index", "lowercase_index", "doc_count", "order", "rank", "after",
+			"parallel", "fuzzy", "fuzzy_transpositions", "fuzzy_prefix_length", "regex", "wildcard", "max_time_per_shard", "profile", "global_ordinals",
+			"max_per_shard", "shard_size", "size" };
+
+	@Inject
+	public RestTermListAction(final Settings settings, final Client client, final RestController controller) {
+		super(settings, client);
+		controller.registerHandler(GET, "/_termlist", this);
+		controller.registerHandler(POST, "/_termlist", this);
+		controller.registerHandler(GET, "/{index}/_termlist", this);
+		controller.registerHandler(POST, "/{index}/_termlist", this);
+	}
+
+	@Override
+	public void handleRequest(final RestRequest request, final RestChannel channel) {
+		final TermListRequest termListRequest = new TermListRequest(Strings.splitStringByCommaToArray(request.param("index")));
+		termListRequest.listenerThreaded(false);
+		try {
+			BroadcastOperationThreading operationThreading = BroadcastOperationThreading.fromString(request.param("operation_threading"), BroadcastOperationThreading.SINGLE_THREAD);
+			if (operationThreading == BroadcastOperationThreading.NO_THREADS) {
+				// since we don't spawn, don't allow no_threads, but change it to a single thread
+				operationThreading = BroadcastOperationThreading.SINGLE_THREAD;
+			}
+			termListRequest.operationThreading(operationThreading);
+			if (request.hasParam("ignore_indices")) {
+				termListRequest.ignoreIndices(IgnoreIndices.fromString(request.param("ignore_indices")));
+			}
+			termListRequest.source(source(request));
+		} catch (Throwable e) {
+			try {
+				channel.sendResponse(new XContentThrowableRestResponse(request, e));
+			} catch (IOException e1) {
+				logger.error("failed to send failure response", e1);
+			}
+			return;
+		}
+		
+		client.execute(TermListAction.INSTANCE, termListRequest, new ActionListener<TermListResponse>() {
+			@Override
+			public void onResponse(TermListResponse response) {
+				try {
+					final XContentBuilder builder = restContentBuilder(request);
+					builder.startObject();
+					buildBroadcastShardsHeader(builder, response);
+					response.toXContent(builder, request);
+					builder.endObject();
+					channel.sendResponse(new XContentRestResponse(request, RestStatus.OK, builder));
+				} catch (Throwable e) {
+					onFailure(e);
+				}
+			}
+
+			@Override
+			public void onFailure(Throwable e) {
+				try {
+					channel.sendResponse(new XContentThrowableRestResponse(request, e));
+				} catch (IOException e1) {
+					logger.error("failed to send failure response", e1);
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return the body, else the source parameter, else the facet parameters of the URL
+	 */
+	static BytesReference source(final RestRequest request) throws IOException {
+		if (request.hasContent()) {
+			return request.content();
+		}
+		if (request.hasParam("source")) {
+			return new BytesArray(request.param("source"));
+		}
+		
+		// the parser reads booleans and numbers out of strings too
+		final XContentBuilder builder = XContentFactory.jsonBuilder().startObject();
+		final String[] fields = Strings.splitStringByCommaToArray(request.param("fields"));
+		if (fields.length > 0) {
+			builder.array("fields", fields);
+		}
+		final String caseInsensitive = request.param("case_insensitive", request.param("case_insenstive"));
+		if (caseInsensitive != null) {
+			builder.field("case_insenstive", caseInsensitive);
+		}
+		for (String param : PARAMS) {
+			final String value = request.param(param);
+			if (value != null) {
+				builder.field(param, value);
+			}
+		}
+		return builder.endObject().bytes();
+	}
+}
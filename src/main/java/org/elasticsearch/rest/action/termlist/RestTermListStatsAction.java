@@ -0,0 +1,81 @@
+/* Copyright 2013 Endgame, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.rest.action.termlist;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+import static org.elasticsearch.rest.action.support.RestXContentBuilder.restContentBuilder;
+
+import java.io.IOException;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.termlist.stats.TermListStatsAction;
+import org.elasticsearch.action.termlist.stats.TermListStatsRequest;
+import org.elasticsearch.action.termlist.stats.TermListStatsResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.rest.XContentRestResponse;
+import org.elasticsearch.rest.XContentThrowableRestResponse;
+
+/**
+ * GET /_termlist/stats returns the term list statistics of every node,
+ * GET /_termlist/stats/{nodeId} those of the given comma separated nodes.
+ */
+public class RestTermListStatsAction extends BaseRestHandler {
+
+	@Inject
+	public RestTermListStatsAction(final Settings settings, final Client client, final RestController controller) {
+		super(settings, client);
+		controller.registerHandler(GET, "/_termlist/stats", this);
+		controller.registerHandler(GET, "/_termlist/stats/{nodeId}", this);
+	}
+
+	@Override
+	public void handleRequest(final RestRequest request, final RestChannel channel) {
+		final TermListStatsRequest statsRequest = new TermListStatsRequest(Strings.splitStringByCommaToArray(request.param("nodeId")));
+		statsRequest.listenerThreaded(false);
+		client.execute(TermListStatsAction.INSTANCE, statsRequest, new ActionListener<TermListStatsResponse>() {
+			@Override
+			public void onResponse(TermListStatsResponse response) {
+				try {
+					final XContentBuilder builder = restContentBuilder(request);
+					builder.startObject();
+					response.toXContent(builder, request);
+					builder.endObject();
+					channel.sendResponse(new XContentRestResponse(request, RestStatus.OK, builder));
+				} catch (Throwable e) {
+					onFailure(e);
+				}
+			}
+
+			@Override
+			public void onFailure(Throwable e) {
+				try {
+					channel.sendResponse(new XContentThrowableRestResponse(request, e));
+				} catch (IOException e1) {
+					logger.error("failed to send failure response", e1);
+				}
+			}
+		});
+	}
+}
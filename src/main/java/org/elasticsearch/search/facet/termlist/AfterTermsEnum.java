@@ -0,0 +1,66 @@
+/* Copyright 2013 Endgame, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.search.facet.termlist;
+
+import org.apache.lucene.index.FilteredTermsEnum;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.StringHelper;
+
+/**
+ * AfterTermsEnum
+ *
+ * Enumerates the terms sorting after a cursor, optionally only those starting
+ * with a prefix. The dictionary is seeked straight to the cursor (or to the
+ * prefix when it sorts later), so a page deep into the dictionary costs no more
+ * than the first one.
+ */
+class AfterTermsEnum extends FilteredTermsEnum {
+
+	private final BytesRef prefix;
+	private final BytesRef after;
+
+	/**
+	 * @param tenum the terms of one field of a segment
+	 * @param prefix the prefix the terms start with, null for every term
+	 * @param after the cursor, only the terms sorting after it are returned
+	 */
+	public AfterTermsEnum(final TermsEnum tenum, final BytesRef prefix, final BytesRef after) {
+		this(tenum, prefix, after, true);
+	}
+
+	/**
+	 * @param seek can tenum be seeked to the cursor, enums already filtering their terms
+	 *            (like automaton intersections) cannot be, their terms are skipped up to it
+	 */
+	AfterTermsEnum(final TermsEnum tenum, final BytesRef prefix, final BytesRef after, final boolean seek) {
+		super(tenum, seek);
+		this.prefix = prefix;
+		this.after = after;
+
+		if (seek) {
+			setInitialSeekTerm(prefix != null && prefix.compareTo(after) > 0 ? prefix : after);
+		}
+	}
+
+	@Override
+	protected AcceptStatus accept(final BytesRef term) {
+		if (prefix != null && !StringHelper.startsWith(term, prefix)) {
+			return AcceptStatus.END;		// we were seeked into the prefix, or past it
+		}
+		return term.compareTo(after) > 0 ? AcceptStatus.YES : AcceptStatus.NO;
+	}
+}
@@ -0,0 +1,233 @@
+/* Copyright 2013 Endgame, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.search.facet.termlist;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.automaton.Automaton;
+import org.apache.lucene.util.automaton.MinimizationOperations;
+import org.apache.lucene.util.automaton.State;
+import org.apache.lucene.util.automaton.Transition;
+
+/**
+ * BoundedAutomata
+ *
+ * Builds automata without ever holding more than a given number of states. Lucene's
+ * {@link org.apache.lucene.util.automaton.RegExp#toAutomaton()} determinizes and minimizes
+ * every sub-expression, so a limit checked on its result comes after the exponential work
+ * of a pathological pattern is done. The patterns of a request are parsed by
+ * {@link TermListPattern} and built as nondeterministic automata, whose size is bounded by
+ * the pattern, then determinized once by a subset construction which gives up as soon as
+ * it passes the limit.
+ */
+final class BoundedAutomata {
+
+	/**
+	 * Transitions spanning more code points than this are not case folded, they are
+	 * wildcards (like the any char of .*) which already accept every case.
+	 */
+	private static final int MAX_FOLDED_RANGE = 1024;
+
+	private BoundedAutomata() {
+	}
+
+	/**
+	 * Returns a copy of automaton which also accepts every upper, lower and title case
+	 * variant of the code points it accepts. Folding the transitions of an automaton with
+	 * a complement in it would fold what the complement let through, patterns fold their
+	 * leaves instead (see {@link TermListPattern#toAutomaton}).
+	 *
+	 * @param automaton the automaton to fold, it is not modified
+	 * @return a nondeterministic, case insensitive automaton
+	 */
+	static Automaton foldCase(final Automaton automaton) {
+		final Automaton folded = automaton.clone();
+		folded.expandSingleton();
+
+		for (State state : folded.getNumberedStates()) {
+			final List<Transition> variants = new ArrayList<Transition>();
+
+			for (Transition t : state.getTransitions()) {
+				if (t.getMax() - t.getMin() > MAX_FOLDED_RANGE) {
+					continue;
+				}
+				for (int codePoint = t.getMin(); codePoint <= t.getMax(); codePoint++) {
+					addVariant(variants, codePoint, Character.toLowerCase(codePoint), t.getDest());
+					addVariant(variants, codePoint, Character.toUpperCase(codePoint), t.getDest());
+					addVariant(variants, codePoint, Character.toTitleCase(codePoint), t.getDest());
+					addVariant(variants, codePoint, Character.toUpperCase(Character.toLowerCase(codePoint)), t.getDest());
+				}
+			}
+
+			for (Transition t : variants) {
+				state.addTransition(t);
+			}
+		}
+
+		// the added transitions may overlap existing ones
+		folded.setDeterministic(false);
+		folded.reduce();
+		return folded;
+	}
+
+	private static void addVariant(final List<Transition> variants, final int codePoint, final int variant, final State dest) {
+		if (variant != codePoint) {
+			variants.add(new Transition(variant, dest));
+		}
+	}
+
+	/**
+	 * Subset construction which gives up once the deterministic automaton passes maxStates states.
+	 *
+	 * @param a the automaton, it is not modified
+	 * @param maxStates the most states of the deterministic automaton
+	 * @return a deterministic automaton accepting the language of a, a itself when already deterministic
+	 * @throws IllegalArgumentException when more than maxStates states would be needed
+	 */
+	static Automaton determinize(final Automaton a, final int maxStates) {
+		if (a.isDeterministic()) {
+			checkStates(a.getNumberOfStates(), maxStates);
+			return a;
+		}
+
+		final State[] nfa = a.getNumberedStates();
+		final Map<StateSet, State> dfa = new HashMap<StateSet, State>();
+		final LinkedList<StateSet> worklist = new LinkedList<StateSet>();
+		final StateSet initialSet = new StateSet(new int[] { a.getInitialState().getNumber() });
+		final State initial = new State();
+		initial.setAccept(a.getInitialState().isAccept());
+		dfa.put(initialSet, initial);
+		worklist.add(initialSet);
+
+		final int[] covering = new int[nfa.length];			// per state of a, its transitions covering the current point
+		final TreeSet<Integer> current = new TreeSet<Integer>();	// the states of a reached on the current point
+		long[] events = new long[16];
+		while (!worklist.isEmpty()) {
+			final StateSet set = worklist.removeFirst();
+			final State from = dfa.get(set);
+
+			// each transition of the set starts covering its destination at its min and stops after its max
+			int numEvents = 0;
+			for (int s : set.states) {
+				for (Transition t : nfa[s].getTransitions()) {
+					events = ArrayUtil.grow(events, numEvents + 2);
+					events[numEvents++] = ((long) t.getMin() << 32) | (1L << 31) | t.getDest().getNumber();
+					events[numEvents++] = ((long) (t.getMax() + 1) << 32) | t.getDest().getNumber();
+				}
+			}
+			Arrays.sort(events, 0, numEvents);
+
+			int lastPoint = -1;
+			for (int i = 0; i < numEvents;) {
+				final int point = (int) (events[i] >>> 32);
+				if (!current.isEmpty()) {
+					// the points since the last event all lead to the same states
+					final StateSet key = new StateSet(current);
+					State to = dfa.get(key);
+					if (to == null) {
+						checkStates(dfa.size() + 1, maxStates);
+						to = new State();
+						to.setAccept(key.accepts(nfa));
+						dfa.put(key, to);
+						worklist.add(key);
+					}
+					from.addTransition(new Transition(lastPoint, point - 1, to));
+				}
+				for (; i < numEvents && (int) (events[i] >>> 32) == point; i++) {
+					final int dest = (int) (events[i] & 0x7fffffff);
+					if ((events[i] & (1L << 31)) != 0) {
+						if (covering[dest]++ == 0) {
+							current.add(dest);
+						}
+					} else if (--covering[dest] == 0) {
+						current.remove(dest);
+					}
+				}
+				lastPoint = point;
+			}
+		}
+
+		final Automaton result = new Automaton(initial);
+		result.setDeterministic(true);
+		return result;
+	}
+
+	static Automaton minimize(final Automaton a) {
+		MinimizationOperations.minimize(a);
+		return a;
+	}
+
+	/**
+	 * @throws IllegalArgumentException when states is more than maxStates
+	 */
+	static void checkStates(final long states, final int maxStates) {
+		if (states > maxStates) {
+			throw new IllegalArgumentException("the automaton needs more than the [" + maxStates + "] states allowed");
+		}
+	}
+
+	/**
+	 * A set of states of the nondeterministic automaton, a state of the deterministic one.
+	 */
+	private static final class StateSet {
+		private final int[] states;		// sorted
+		private final int hash;
+
+		StateSet(final int[] states) {
+			this.states = states;
+			this.hash = Arrays.hashCode(states);
+		}
+
+		StateSet(final TreeSet<Integer> states) {
+			this(toArray(states));
+		}
+
+		private static int[] toArray(final TreeSet<Integer> states) {
+			final int[] array = new int[states.size()];
+			int i = 0;
+			for (Integer state : states) {
+				array[i++] = state;
+			}
+			return array;
+		}
+
+		boolean accepts(final State[] nfa) {
+			for (int state : states) {
+				if (nfa[state].isAccept()) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			return o instanceof StateSet && Arrays.equals(states, ((StateSet) o).states);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+}
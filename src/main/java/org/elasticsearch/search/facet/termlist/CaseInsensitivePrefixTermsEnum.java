@@ -0,0 +1,149 @@
+/* Copyright 2013 Endgame, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.search.facet.termlist;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.lucene.index.FilteredTermsEnum;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.StringHelper;
+
+/**
+ * CaseInsensitivePrefixTermsEnum
+ *
+ * Enumerates the terms starting with a prefix, disregarding case. Rather than
+ * scanning the whole term dictionary, every case variant of the prefix is
+ * seeked to in turn (they are visited in term order) and enumeration of a
+ * variant stops as soon as a term no longer shares it.
+ *
+ * The number of variants doubles with each cased character, so only the
+ * leading characters of a long prefix are expanded into variants, the rest is
+ * checked against each candidate term.
+ */
+class CaseInsensitivePrefixTermsEnum extends FilteredTermsEnum {
+
+	/** Upper bound on the number of prefix variants we seek to. */
+	static final int MAX_VARIANTS = 256;
+
+	private final BytesRef[] variants;
+	private final TermBytesMatcher tailMatcher;
+	private final BytesRef after;
+	private int upto = 0;
+
+	/**
+	 * @param tenum the terms of one field of a segment
+	 * @param prefix the prefix, in any case
+	 */
+	public CaseInsensitivePrefixTermsEnum(final TermsEnum tenum, final String prefix) {
+		this(tenum, prefix, null);
+	}
+
+	/**
+	 * @param tenum the terms of one field of a segment
+	 * @param prefix the prefix, in any case
+	 * @param after only the terms sorting after this cursor are returned, null for all of them
+	 */
+	public CaseInsensitivePrefixTermsEnum(final TermsEnum tenum, final String prefix, final BytesRef after) {
+		super(tenum);
+		this.after = after;
+
+		final Set<String> expanded = new TreeSet<String>();
+		final int expandedLength = expand(prefix, expanded);
+		this.tailMatcher = expandedLength < prefix.length() ? new TermBytesMatcher(prefix, true, true) : null;
+
+		// utf-8 byte order of the variants is the order we will meet them in the dictionary
+		final Set<BytesRef> sorted = new TreeSet<BytesRef>();
+		for (String variant : expanded) {
+			sorted.add(new BytesRef(variant));
+		}
+		this.variants = sorted.toArray(new BytesRef[sorted.size()]);
+	}
+
+	/**
+	 * Fill variants with every case combination of the leading characters of prefix,
+	 * stopping before the number of variants would exceed {@link #MAX_VARIANTS}.
+	 *
+	 * @return the number of chars of prefix covered by the variants
+	 */
+	static int expand(final String prefix, final Set<String> variants) {
+		Set<String> current = new TreeSet<String>();
+		current.add("");
+		int i = 0;
+
+		while (i < prefix.length()) {
+			final int codePoint = prefix.codePointAt(i);
+			final Set<String> cases = new TreeSet<String>();
+			cases.add(new String(Character.toChars(codePoint)));
+			cases.add(new String(Character.toChars(Character.toLowerCase(codePoint))));
+			cases.add(new String(Character.toChars(Character.toUpperCase(codePoint))));
+			cases.add(new String(Character.toChars(Character.toTitleCase(codePoint))));
+
+			if (current.size() * cases.size() > MAX_VARIANTS) {
+				break;
+			}
+
+			final Set<String> next = new TreeSet<String>();
+			for (String head : current) {
+				for (String c : cases) {
+					next.add(head + c);
+				}
+			}
+			current = next;
+			i += Character.charCount(codePoint);
+		}
+
+		variants.addAll(current);
+		return i;
+	}
+
+	@Override
+	protected BytesRef nextSeekTerm(final BytesRef currentTerm) {
+		// accept() has already moved upto past every variant behind currentTerm
+		if (upto >= variants.length) {
+			return null;
+		}
+		// a page deep into the variant goes straight to the cursor
+		return after != null && variants[upto].compareTo(after) < 0 ? after : variants[upto];
+	}
+
+	@Override
+	protected AcceptStatus accept(final BytesRef term) {
+		if (after != null && term.compareTo(after) <= 0) {
+			return AcceptStatus.NO;
+		}
+
+		while (upto < variants.length) {
+			final BytesRef variant = variants[upto];
+
+			if (StringHelper.startsWith(term, variant)) {
+				if (tailMatcher != null && !tailMatcher.matches(term)) {
+					return AcceptStatus.NO;
+				}
+				return AcceptStatus.YES;
+			}
+
+			if (term.compareTo(variant) < 0) {
+				return AcceptStatus.NO_AND_SEEK;
+			}
+
+			upto++;		// we are past every term sharing this variant
+		}
+
+		return AcceptStatus.END;
+	}
+}
@@ -0,0 +1,100 @@
+/* Copyright 2013 Endgame, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.search.facet.termlist;
+
+import java.io.IOException;
+import java.util.Comparator;
+
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefIterator;
+
+/**
+ * DocFreqIterator
+ *
+ * The matching terms of a segment's field, in term order, along with the number
+ * of docs of the segment holding each one. The terms may come straight from the
+ * term dictionary, from the term list cache or from a suffix or lowercase index.
+ * A popularity index returns them by descending doc frequency instead.
+ */
+abstract class DocFreqIterator implements BytesRefIterator {
+
+	/**
+	 * @return the doc frequency of the term last returned by {@link #next}
+	 */
+	abstract int docFreq() throws IOException;
+
+	@Override
+	public Comparator<BytesRef> getComparator() {
+		return BytesRef.getUTF8SortedAsUnicodeComparator();
+	}
+
+	/**
+	 * @param te positioned on the matching terms by the term dictionary
+	 * @return the terms of te, whose doc frequencies come for free
+	 */
+	static DocFreqIterator of(final TermsEnum te) {
+		return new DocFreqIterator() {
+			@Override
+			public BytesRef next() throws IOException {
+				return te.next();
+			}
+
+			@Override
+			int docFreq() throws IOException {
+				return te.docFreq();
+			}
+		};
+	}
+
+	/**
+	 * @param te positioned on the matching terms, when the doc frequencies are not needed
+	 * @return the terms of te, each with a doc frequency of 0
+	 */
+	static DocFreqIterator withoutDocFreqs(final TermsEnum te) {
+		return new DocFreqIterator() {
+			@Override
+			public BytesRef next() throws IOException {
+				return te.next();
+			}
+
+			@Override
+			int docFreq() {
+				return 0;
+			}
+		};
+	}
+
+	/**
+	 * @param terms sorted terms
+	 * @param docFreqs the doc frequency of each term
+	 */
+	static DocFreqIterator of(final BytesRef[] terms, final int[] docFreqs) {
+		return new DocFreqIterator() {
+			private int upto = -1;
+
+			@Override
+			public BytesRef next() {
+				return ++upto < terms.length ? terms[upto] : null;
+			}
+
+			@Override
+			int docFreq() {
+				return docFreqs[upto];
+			}
+		};
+	}
+}
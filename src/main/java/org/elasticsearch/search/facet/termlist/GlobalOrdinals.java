@@ -0,0 +1,407 @@
+/* Copyright 2013 Endgame, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.search.facet.termlist;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocsAndPositionsEnum;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.PagedBytes;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.lucene.util.packed.MonotonicAppendingLongBuffer;
+
+/**
+ * GlobalOrdinals
+ *
+ * The distinct terms of a field across every segment of a shard's reader, sorted and
+ * in memory, with the number of docs of the shard holding each one. A term's shard wide
+ * ordinal is its rank in the table. The segment term dictionaries have no ordinals
+ * (their enums cannot tell the rank of a term they seeked to), so a segment's term is
+ * mapped to its global ordinal by a binary search over the table.
+ *
+ * A table belongs to the reader whose segments it merged. A refresh which only flushed
+ * new segments extends the table of the previous reader with their terms, rather than
+ * reading every segment's dictionary again; once segments were merged away the table
+ * is built anew. Kept per shard and field in the {@link TermListSidecarCache}.
+ */
+final class GlobalOrdinals implements TermListSidecarCache.Sidecar {
+
+	/** Number of leading terms whose length is taken as the average when estimating the size of a table. */
+	private static final int ESTIMATE_SAMPLE = 256;
+
+	private final String field;
+	private final Set<Object> segments;			// core cache keys of the segments merged into the table
+	private final long version;					// version of the reader the table was built for
+	private final PagedBytes.Reader bytes;
+	private final MonotonicAppendingLongBuffer pointers;		// where each term starts in bytes
+	private final int[] docFreqs;
+	private final int size;
+	private final long ramBytesUsed;
+
+	private GlobalOrdinals(final String field, final Set<Object> segments, final long version, final PagedBytes bytes, final MonotonicAppendingLongBuffer pointers,
+			final int[] docFreqs, final int size) {
+		this.field = field;
+		this.segments = segments;
+		this.version = version;
+		this.pointers = pointers;
+		this.docFreqs = docFreqs;
+		this.size = size;
+		this.ramBytesUsed = bytes.ramBytesUsed() + pointers.ramBytesUsed() + RamUsageEstimator.sizeOf(docFreqs);
+		this.bytes = bytes.freeze(true);
+	}
+
+	/**
+	 * Merges the term dictionaries of every segment of the reader, or of the segments
+	 * added since previous into previous.
+	 * 
+	 * @param reader the shard's reader
+	 * @param field the field
+	 * @param previous the table of an earlier reader of the shard, null if none
+	 */
+	static GlobalOrdinals build(final DirectoryReader reader, final String field, final GlobalOrdinals previous) throws IOException {
+		final boolean extend = previous != null && previous.extendableTo(reader);
+		final Set<Object> segments = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+		final List<DocFreqIterator> subs = new ArrayList<DocFreqIterator>();
+		if (extend) {
+			subs.add(previous.iterator());
+		}
+		for (AtomicReaderContext leaf : reader.leaves()) {
+			segments.add(leaf.reader().getCoreCacheKey());
+			final Terms terms = leaf.reader().terms(field);
+			if (terms != null && !(extend && previous.segments.contains(leaf.reader().getCoreCacheKey()))) {
+				subs.add(DocFreqIterator.of(terms.iterator(null)));
+			}
+		}
+		
+		final PagedBytes bytes = new PagedBytes(15);		// a block holds the longest term and its length
+		final MonotonicAppendingLongBuffer pointers = new MonotonicAppendingLongBuffer();
+		int[] docFreqs = new int[16];
+		int size = 0;
+		final DocFreqIterator terms = new MergedTermsIterator(subs);
+		BytesRef term;
+		while ((term = terms.next()) != null) {
+			pointers.add(bytes.copyUsingLengthPrefix(term));
+			docFreqs = ArrayUtil.grow(docFreqs, size + 1);
+			docFreqs[size++] = terms.docFreq();
+		}
+		pointers.freeze();
+		return new GlobalOrdinals(field, segments, reader.getVersion(), bytes, pointers, Arrays.copyOf(docFreqs, size), size);
+	}
+
+	/**
+	 * Estimates the heap of the table {@link #build} would return without building it, from
+	 * the number of terms of the segments to merge (an upper bound of the distinct terms) and
+	 * the average length of the first ones.
+	 *
+	 * @return the estimated bytes, -1 when the number of terms of a segment is unknown
+	 */
+	static long estimateBytes(final DirectoryReader reader, final String field, final GlobalOrdinals previous) throws IOException {
+		final boolean extend = previous != null && previous.extendableTo(reader);
+		long numTerms = extend ? previous.size : 0;
+		long sampled = 0;
+		long sampledBytes = 0;
+		final BytesRef scratch = new BytesRef();
+		for (int ord = 0; extend && ord < Math.min(previous.size, ESTIMATE_SAMPLE); ord++) {
+			sampled++;
+			sampledBytes += previous.term(ord, scratch).length;
+		}
+		for (AtomicReaderContext leaf : reader.leaves()) {
+			final Terms terms = leaf.reader().terms(field);
+			if (terms == null || (extend && previous.segments.contains(leaf.reader().getCoreCacheKey()))) {
+				continue;
+			}
+			if (terms.size() < 0) {
+				return -1;
+			}
+			numTerms += terms.size();
+			final TermsEnum te = terms.iterator(null);
+			BytesRef term;
+			while (sampled < ESTIMATE_SAMPLE && (term = te.next()) != null) {
+				sampled++;
+				sampledBytes += term.length;
+			}
+		}
+		if (sampled == 0) {
+			return 0;
+		}
+
+		// each term has its bytes with a length prefix, a pointer and a doc frequency
+		return sampledBytes * numTerms / sampled + numTerms * (2 + RamUsageEstimator.NUM_BYTES_LONG + RamUsageEstimator.NUM_BYTES_INT);
+	}
+
+	/**
+	 * @return was the table built for a reader with exactly the segments of reader
+	 */
+	boolean covers(final IndexReader reader) {
+		return reader.leaves().size() == segments.size() && extendableTo(reader);
+	}
+
+	/**
+	 * @return does reader still hold every segment of the table, it may have more
+	 */
+	private boolean extendableTo(final IndexReader reader) {
+		final Set<Object> readerSegments = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+		for (AtomicReaderContext leaf : reader.leaves()) {
+			readerSegments.add(leaf.reader().getCoreCacheKey());
+		}
+		return readerSegments.containsAll(segments);
+	}
+
+	/**
+	 * @return was the segment merged into the table
+	 */
+	boolean holds(final Object coreCacheKey) {
+		return segments.contains(coreCacheKey);
+	}
+
+	/**
+	 * @return the version of the reader the table was built for
+	 */
+	long version() {
+		return version;
+	}
+
+	/**
+	 * @return the number of distinct terms
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @param ord a global ordinal
+	 * @param scratch filled with the bytes of the term
+	 * @return scratch
+	 */
+	BytesRef term(final int ord, final BytesRef scratch) {
+		bytes.fill(scratch, pointers.get(ord));
+		return scratch;
+	}
+
+	/**
+	 * @return the number of docs holding the term of ord, deleted ones included
+	 */
+	int docFreq(final int ord) {
+		return docFreqs[ord];
+	}
+
+	/**
+	 * @return the global ordinal of term, or -(insertion point) - 1 if the shard does not hold it
+	 */
+	int ord(final BytesRef term) {
+		final BytesRef scratch = new BytesRef();
+		int low = 0;
+		int high = size - 1;
+		while (low <= high) {
+			final int mid = (low + high) >>> 1;
+			final int cmp = term(mid, scratch).compareTo(term);
+			if (cmp < 0) {
+				low = mid + 1;
+			} else if (cmp > 0) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -(low + 1);
+	}
+
+	@Override
+	public long ramBytesUsed() {
+		return ramBytesUsed;
+	}
+
+	/**
+	 * @return the terms of the table in order, with their doc frequencies
+	 */
+	private DocFreqIterator iterator() {
+		return new DocFreqIterator() {
+			private int ord = -1;
+			private final BytesRef scratch = new BytesRef();
+
+			@Override
+			public BytesRef next() {
+				return ++ord < size ? term(ord, scratch) : null;
+			}
+
+			@Override
+			int docFreq() {
+				return docFreqs[ord];
+			}
+		};
+	}
+
+	/**
+	 * The table as the terms of a field, so the prefix, automaton and cursor enums run over
+	 * it. The postings of a term are read from the segments of the reader holding it.
+	 *
+	 * @param reader the reader the table covers, see {@link #covers(IndexReader)}
+	 */
+	Terms terms(final IndexReader reader) throws IOException {
+		final Terms owner = MultiFields.getTerms(reader, field);
+		return new Terms() {
+			@Override
+			public TermsEnum iterator(final TermsEnum reuse) {
+				return new GlobalTermsEnum(owner);
+			}
+
+			@Override
+			public Comparator<BytesRef> getComparator() {
+				return BytesRef.getUTF8SortedAsUnicodeComparator();
+			}
+
+			@Override
+			public long size() {
+				return size;
+			}
+
+			@Override
+			public long getSumTotalTermFreq() {
+				return -1;
+			}
+
+			@Override
+			public long getSumDocFreq() {
+				return -1;
+			}
+
+			@Override
+			public int getDocCount() {
+				return -1;
+			}
+
+			@Override
+			public boolean hasOffsets() {
+				return owner != null && owner.hasOffsets();
+			}
+
+			@Override
+			public boolean hasPositions() {
+				return owner != null && owner.hasPositions();
+			}
+
+			@Override
+			public boolean hasPayloads() {
+				return owner != null && owner.hasPayloads();
+			}
+		};
+	}
+
+	/**
+	 * Enumerates the table, the postings come from the reader's own enum positioned on the same term.
+	 */
+	private final class GlobalTermsEnum extends TermsEnum {
+		private final Terms owner;
+		private TermsEnum postings;
+		private int ord = -1;
+		private final BytesRef term = new BytesRef();
+
+		GlobalTermsEnum(final Terms owner) {
+			this.owner = owner;
+		}
+
+		@Override
+		public BytesRef next() {
+			return position(ord + 1);
+		}
+
+		@Override
+		public SeekStatus seekCeil(final BytesRef text) {
+			final int found = GlobalOrdinals.this.ord(text);
+			if (found >= 0) {
+				position(found);
+				return SeekStatus.FOUND;
+			}
+			return position(-found - 1) == null ? SeekStatus.END : SeekStatus.NOT_FOUND;
+		}
+
+		@Override
+		public void seekExact(final long ord) {
+			position((int) ord);
+		}
+
+		private BytesRef position(final int ord) {
+			this.ord = Math.min(ord, size);
+			return ord < size ? GlobalOrdinals.this.term(ord, term) : null;
+		}
+
+		@Override
+		public BytesRef term() {
+			return term;
+		}
+
+		@Override
+		public long ord() {
+			return ord;
+		}
+
+		@Override
+		public int docFreq() {
+			return docFreqs[ord];
+		}
+
+		@Override
+		public long totalTermFreq() {
+			return -1;
+		}
+
+		@Override
+		public DocsEnum docs(final Bits liveDocs, final DocsEnum reuse, final int flags) throws IOException {
+			final TermsEnum te = postings();
+			return te == null ? null : te.docs(liveDocs, reuse, flags);
+		}
+
+		@Override
+		public DocsAndPositionsEnum docsAndPositions(final Bits liveDocs, final DocsAndPositionsEnum reuse, final int flags) throws IOException {
+			final TermsEnum te = postings();
+			return te == null ? null : te.docsAndPositions(liveDocs, reuse, flags);
+		}
+
+		/**
+		 * @return the reader's enum over the segments holding the current term, null if none does
+		 */
+		private TermsEnum postings() throws IOException {
+			if (owner == null) {
+				return null;
+			}
+			if (postings == null) {
+				postings = owner.iterator(null);
+			}
+			return postings.seekExact(term) ? postings : null;
+		}
+
+		@Override
+		public Comparator<BytesRef> getComparator() {
+			return BytesRef.getUTF8SortedAsUnicodeComparator();
+		}
+	}
+}
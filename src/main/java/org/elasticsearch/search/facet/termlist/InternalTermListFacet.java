@@ -18,14 +18,27 @@ package org.elasticsearch.search.facet.termlist;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.PriorityQueue;
+import org.apache.lucene.util.StringHelper;
+import org.apache.lucene.util.UnicodeUtil;
+import org.elasticsearch.common.bytes.BytesArray;
 import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.bytes.HashedBytesArray;
 import org.elasticsearch.common.collect.Lists;
+import org.elasticsearch.common.compress.Compressor;
+import org.elasticsearch.common.compress.lzf.LZFCompressor;
+import org.elasticsearch.common.io.stream.BytesStreamInput;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
 import org.elasticsearch.common.io.stream.StreamInput;
 import org.elasticsearch.common.io.stream.StreamOutput;
 import org.elasticsearch.common.xcontent.XContentBuilder;
@@ -44,20 +57,87 @@ import org.elasticsearch.search.facet.terms.strings.InternalStringTermsFacet.Ter
 public class InternalTermListFacet extends InternalFacet implements TermListFacet {
 
 	private final String type = "term_list";
-	private static final BytesReference STREAM_TYPE = new HashedBytesArray(TermListFacet.TYPE.getBytes());
+	private static final BytesReference STREAM_TYPE = new HashedBytesArray((TermListFacet.TYPE + "_v2").getBytes());
+	
+	/** The stream of the first releases, plain strings, still read from nodes which were not upgraded yet. */
+	private static final BytesReference LEGACY_STREAM_TYPE = new HashedBytesArray(TermListFacet.TYPE.getBytes());
+	
+	/** Layout of the current stream, bump it when appending fields and only read them from streams at least that recent. */
+	private static final int FORMAT_FRONT_CODED = 1;
+	private static final int FORMAT_COUNTS = 2;
+	private static final int FORMAT_PROFILE = 3;
+	private static final int CURRENT_FORMAT = FORMAT_PROFILE;
+	
+	private static final int FLAG_SORTED = 1;
+	private static final int FLAG_COMPRESSED = 2;
+	private static final int FLAG_COUNTS = 4;
+	private static final int FLAG_ORDER_BY_COUNT = 8;
+	private static final int FLAG_TRUNCATED = 16;		// older nodes never set it and ignore it, no new format needed
+	private static final int FLAG_TIMED_OUT = 32;
+	private static final int FLAG_PROFILE = 64;
+	
+	/** Encoded entries at least this large are LZF compressed, when that makes them smaller. */
+	static final int COMPRESS_THRESHOLD = 64 * 1024;
+	
+	private static final Compressor LZF = new LZFCompressor();
+	
+	/**
+	 * Orders Strings by code point, the order of the UTF-8 terms in the term dictionaries
+	 * and of the after cursor. String.compareTo differs only for the supplementary chars
+	 * (surrogate pairs) which it sorts before U+E000 - U+FFFF.
+	 */
+	static final Comparator<String> TERM_ORDER = new Comparator<String>() {
+		@Override
+		public int compare(final String a, final String b) {
+			final int end = Math.min(a.length(), b.length());
+			for (int i = 0; i < end; i++) {
+				int x = a.charAt(i);
+				int y = b.charAt(i);
+				if (x != y) {
+					// surrogates move after U+E000 - U+FFFF, which move down to fill the gap
+					if (x >= 0xD800 && y >= 0xD800) {
+						x = x >= 0xE000 ? x - 0x800 : x + 0x2000;
+						y = y >= 0xE000 ? y - 0x800 : y + 0x2000;
+					}
+					return x - y;
+				}
+			}
+			return a.length() - b.length();
+		}
+	};
 	private Object[] strings; 			
+	private long[] counts;		// the doc count of each string, null when not requested
 	private boolean sort;		
+	private boolean orderByCount;
+	private int size;			// the most entries of the reduced facet, 0 for no limit
+	private boolean truncated;	// some matching terms were left out, by a shard limit or by size
+	private boolean timedOut;	// a shard stopped enumerating at its deadline
+	private List<TermListProfile> profiles;		// what each shard did, null unless a profile was requested
+	private boolean compact;	// sent in the current stream rather than the legacy one
 
     /**
      * Instantiates a new internal string term list facet.
      *
      * @param facetName the facet name
-     * @param strings the strings
+     * @param strings the strings, ordered by count when the options order by count, else sorted when they sort
+     * @param counts the doc count of each string, null when not requested
+     * @param options the sort, order and size of the request, which the reduced facet keeps
+     * @param truncated were matching strings left out because of a limit
+     * @param timedOut did a shard stop at its deadline, leaving out strings it did not get to
+     * @param profiles what each shard did, null unless a profile was requested
      */
-    public InternalTermListFacet(final String facetName, final Object[] strings, boolean sort) {
+    public InternalTermListFacet(final String facetName, final Object[] strings, final long[] counts, final TermListOptions options,
+    		boolean truncated, boolean timedOut, List<TermListProfile> profiles) {
     	super(facetName);
         this.strings = strings;
-        this.sort = sort;
+        this.counts = counts;
+        this.sort = options.sort();
+        this.orderByCount = options.orderByCount();
+        this.size = options.size();
+        this.truncated = truncated;
+        this.timedOut = timedOut;
+        this.profiles = profiles;
+        this.compact = options.compactStream();
     }
     
 	/**
@@ -71,6 +151,7 @@ public class InternalTermListFacet extends InternalFacet implements TermListFace
 	 */
 	public static void registerStream() {
 		Streams.registerStream(STREAM, STREAM_TYPE);
+		Streams.registerStream(LEGACY_STREAM, LEGACY_STREAM_TYPE);
 	}
 
 	/** The stream. */
@@ -81,6 +162,14 @@ public class InternalTermListFacet extends InternalFacet implements TermListFace
 		}
 	};
 
+	/** The legacy stream. */
+	static Stream LEGACY_STREAM = new Stream() {
+		@Override
+		public Facet readFacet(StreamInput in) throws IOException {
+			return readLegacyTermListFacet(in);
+		}
+	};
+
 	/**
 	 * Read term list facet.
 	 * 
@@ -96,24 +185,154 @@ public class InternalTermListFacet extends InternalFacet implements TermListFace
 		return facet;
 	}
 
+	/**
+	 * Read term list facet sent in the legacy stream, a count followed by the strings.
+	 * 
+	 * @param in
+	 *            the input stream
+	 * @return the internal term list facet, unsorted
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static InternalTermListFacet readLegacyTermListFacet(final StreamInput in) throws IOException {
+		final InternalTermListFacet facet = new InternalTermListFacet();
+		facet.readLegacyFrom(in);
+		return facet;
+	}
+
+	/**
+	 * Writes the facet in the stream of its {@link #streamType()}. Until every node runs
+	 * this version the legacy stream is used, it holds the strings only.
+	 */
 	@Override
-    public void writeTo(final StreamOutput out) throws IOException {
-		int size = strings.length;
+	public void writeTo(final StreamOutput out) throws IOException {
+		if (compact) {
+			writeCompactTo(out);
+		} else {
+			writeLegacyTo(out);
+		}
+	}
+	
+	private void writeLegacyTo(final StreamOutput out) throws IOException {
 		super.writeTo(out);
+		out.writeVInt(strings.length);
+		for (Object entry : strings) {
+			out.writeString((String) entry);
+		}
+	}
+	
+	/**
+	 * Writes the facet in the current stream, read by {@link #readTermListFacet(StreamInput)}
+	 * whatever the stream setting. The entries are front coded: each one is the number
+	 * of leading UTF-8 bytes it shares with the previous entry followed by the rest of
+	 * its bytes. Sorted lists share long prefixes, so most of their bytes are never sent.
+	 */
+    public void writeCompactTo(final StreamOutput out) throws IOException {
+		super.writeTo(out);
+		// nodes not upgraded yet read the facets without a profile, only profiling needs every node upgraded
+		out.writeVInt(profiles == null ? FORMAT_COUNTS : CURRENT_FORMAT);
+		
+		final BytesStreamOutput block = new BytesStreamOutput();
+		final BytesRef previous = new BytesRef();
+		final BytesRef current = new BytesRef();
+		for (Object entry : strings) {
+			final String string = (String) entry;
+			UnicodeUtil.UTF16toUTF8(string, 0, string.length(), current);
+			final int shared = StringHelper.bytesDifference(previous, current);
+			block.writeVInt(shared);
+			block.writeVInt(current.length - shared);
+			block.writeBytes(current.bytes, current.offset + shared, current.length - shared);
+			previous.copyBytes(current);
+		}
+		if (counts != null) {
+			for (long count : counts) {
+				block.writeVLong(count);
+			}
+		}
+		
+		BytesReference entries = block.bytes();
+		int flags = sort ? FLAG_SORTED : 0;
+		flags |= counts != null ? FLAG_COUNTS : 0;
+		flags |= orderByCount ? FLAG_ORDER_BY_COUNT : 0;
+		flags |= truncated ? FLAG_TRUNCATED : 0;
+		flags |= timedOut ? FLAG_TIMED_OUT : 0;
+		flags |= profiles != null ? FLAG_PROFILE : 0;
+		if (entries.length() >= COMPRESS_THRESHOLD) {
+			final byte[] compressed = LZF.compress(entries.array(), entries.arrayOffset(), entries.length());
+			if (compressed.length < entries.length()) {
+				entries = new BytesArray(compressed);
+				flags |= FLAG_COMPRESSED;
+			}
+		}
+		
+		out.writeVInt(flags);
 		out.writeVInt(size);
-		for (int i = 0; i < size; i++) {
-			out.writeString((String) strings[i]);
+		out.writeVInt(strings.length);
+		out.writeBytesReference(entries);
+		if (profiles != null) {
+			out.writeVInt(profiles.size());
+			for (TermListProfile profile : profiles) {
+				profile.writeTo(out);
+			}
 		}
     }
 	
 	@Override
 	public void readFrom(final StreamInput in) throws IOException {
+		super.readFrom(in);
+		compact = true;
+		final int format = in.readVInt();
+		if (format > CURRENT_FORMAT) {
+			throw new IOException("unknown term list facet format [" + format + "], is every node running the same plugin version?");
+		}
+		
+		final int flags = in.readVInt();
+		sort = (flags & FLAG_SORTED) != 0;
+		orderByCount = format >= FORMAT_COUNTS && (flags & FLAG_ORDER_BY_COUNT) != 0;
+		truncated = (flags & FLAG_TRUNCATED) != 0;
+		timedOut = (flags & FLAG_TIMED_OUT) != 0;
+		size = in.readVInt();
+		strings = new Object[in.readVInt()];
+		
+		BytesReference entries = in.readBytesReference();
+		if ((flags & FLAG_COMPRESSED) != 0) {
+			entries = new BytesArray(LZF.uncompress(entries.array(), entries.arrayOffset(), entries.length()));
+		}
+		
+		final StreamInput block = new BytesStreamInput(entries.array(), entries.arrayOffset(), entries.length(), false);
+		final BytesRef current = new BytesRef();
+		for (int i = 0; i < strings.length; i++) {
+			final int shared = block.readVInt();
+			final int suffix = block.readVInt();
+			current.grow(shared + suffix);
+			block.readBytes(current.bytes, shared, suffix);
+			current.length = shared + suffix;
+			strings[i] = current.utf8ToString();
+		}
+		if (format >= FORMAT_COUNTS && (flags & FLAG_COUNTS) != 0) {
+			counts = new long[strings.length];
+			for (int i = 0; i < counts.length; i++) {
+				counts[i] = block.readVLong();
+			}
+		}
+		if (format >= FORMAT_PROFILE && (flags & FLAG_PROFILE) != 0) {
+			profiles = new ArrayList<TermListProfile>();
+			for (int i = in.readVInt(); i > 0; i--) {
+				profiles.add(TermListProfile.readProfile(in));
+			}
+		}
+	}
+	
+	private void readLegacyFrom(final StreamInput in) throws IOException {
 		super.readFrom(in);
 		final int size = in.readVInt();
 		strings = new Object[size];
 		for (int i = 0; i < size; i++) {
 			strings[i] = in.readString();
 		}
+		// legacy lists were never sorted by the shards, they are reduced by hashing
+		sort = false;
+		this.size = 0;
 	}
 
     /**
@@ -125,13 +344,49 @@ public class InternalTermListFacet extends InternalFacet implements TermListFace
 
         /** The Constant ENTRIES. */
         static final XContentBuilderString ENTRIES = new XContentBuilderString("entries");
+        
+        static final XContentBuilderString TERM = new XContentBuilderString("term");
+        
+        static final XContentBuilderString COUNT = new XContentBuilderString("count");
+        
+        static final XContentBuilderString NEXT = new XContentBuilderString("next");
+        
+        static final XContentBuilderString TRUNCATED = new XContentBuilderString("truncated");
+        
+        static final XContentBuilderString TIMED_OUT = new XContentBuilderString("timed_out");
+        
+        static final XContentBuilderString PROFILE = new XContentBuilderString("profile");
     }
 	
     @Override
     public XContentBuilder toXContent(final XContentBuilder builder, final Params params) throws IOException {
         builder.startObject(this.getName());
         builder.field(Fields._TYPE, TermListFacet.TYPE);
-        builder.array(Fields.ENTRIES, strings);
+        if (counts == null) {
+            builder.array(Fields.ENTRIES, strings);
+        } else {
+            builder.startArray(Fields.ENTRIES);
+            for (int i = 0; i < strings.length; i++) {
+                builder.startObject();
+                builder.field(Fields.TERM, strings[i]);
+                builder.field(Fields.COUNT, counts[i]);
+                builder.endObject();
+            }
+            builder.endArray();
+        }
+        final String next = next();
+        if (next != null) {
+            builder.field(Fields.NEXT, next);
+        }
+        builder.field(Fields.TRUNCATED, truncated);
+        builder.field(Fields.TIMED_OUT, timedOut);
+        if (profiles != null) {
+            builder.startArray(Fields.PROFILE);
+            for (TermListProfile profile : profiles) {
+                profile.toXContent(builder, params);
+            }
+            builder.endArray();
+        }
         builder.endObject();
         return builder;
     }
@@ -143,7 +398,7 @@ public class InternalTermListFacet extends InternalFacet implements TermListFace
 	
 	@Override
 	public BytesReference streamType() {
-		return STREAM_TYPE;
+		return compact ? STREAM_TYPE : LEGACY_STREAM_TYPE;
 	}
 
     @Override
@@ -159,21 +414,254 @@ public class InternalTermListFacet extends InternalFacet implements TermListFace
      * @return the resulting reduced facet
      */
     public Facet myReduce(final String name, final List<Facet> facets) {
-        final Set<String> reducedStrings = new HashSet<String>();
-
+        final InternalTermListFacet reduced = (InternalTermListFacet) reduceEntries(name, facets);
+        reduced.profiles = profiles(facets);
+        return reduced;
+    }
+    
+    /**
+     * @return the sort and size of this facet, with the order of the reduced entries
+     */
+    private TermListOptions reducedOptions(final boolean byCount) {
+        return new TermListOptions.Builder().sort(sort).orderByCount(byCount).size(size).compactStream(compact).build();
+    }
+    
+    /**
+     * @return the profiles of every shard, null when none was profiled
+     */
+    private static List<TermListProfile> profiles(final List<Facet> facets) {
+        List<TermListProfile> profiles = null;
         for(final Facet facet : facets) {
-            final InternalTermListFacet itlf = (InternalTermListFacet) facet;
-            for(final Object obj : itlf.strings) {
-                reducedStrings.add(obj.toString());
+            final List<TermListProfile> shardProfiles = ((InternalTermListFacet) facet).profiles;
+            if(shardProfiles != null) {
+                if(profiles == null)
+                    profiles = new ArrayList<TermListProfile>();
+                profiles.addAll(shardProfiles);
             }
         }
-
-    	 String[] strArr = reducedStrings.toArray( new String[ reducedStrings.size() ] );
+        return profiles;
+    }
+    
+    private Facet reduceEntries(final String name, final List<Facet> facets) {
+        if(orderByCount)
+            return reduceByCount(name, facets);
+        
+        // shards still on the legacy stream send unsorted lists, those have to be hashed
+        boolean allSorted = sort;
+        for(final Facet facet : facets) {
+            allSorted &= ((InternalTermListFacet) facet).sort;
+        }
+        
+        if(allSorted)
+            return mergeSorted(name, facets);
+        
+        final Map<String, Long> reduced = sumCounts(facets, sort ? 0 : size);
+    	 String[] strArr = reduced.keySet().toArray( new String[ reduced.size() ] );
+    	 boolean cut = anyTruncated(facets) || (!sort && size > 0 && reduced.size() >= size && distinctExceed(facets, reduced));
     	 
     	 if(sort)
-    		 Arrays.sort( strArr );
+    		 Arrays.sort( strArr, TERM_ORDER );
+    	 
+    	 if(size > 0 && strArr.length > size) {
+    		 strArr = Arrays.copyOf( strArr, size );
+    		 cut = true;
+    	 }
          
-    	 return new InternalTermListFacet(name,  strArr, sort );
+    	 return new InternalTermListFacet(name, strArr, countsOf(strArr, reduced), reducedOptions(false), cut, anyTimedOut(facets), null);
+    }
+    
+    /**
+     * @return did a shard stop at its deadline
+     */
+    private static boolean anyTimedOut(final List<Facet> facets) {
+        for(final Facet facet : facets) {
+            if(((InternalTermListFacet) facet).timedOut)
+                return true;
+        }
+        return false;
+    }
+    
+    /**
+     * @return did a shard leave out matching strings
+     */
+    private static boolean anyTruncated(final List<Facet> facets) {
+        for(final Facet facet : facets) {
+            if(((InternalTermListFacet) facet).truncated)
+                return true;
+        }
+        return false;
+    }
+    
+    /**
+     * @return do the shard lists hold a string sumCounts left out of reduced
+     */
+    private static boolean distinctExceed(final List<Facet> facets, final Map<String, Long> reduced) {
+        for(final Facet facet : facets) {
+            for(final Object string : ((InternalTermListFacet) facet).strings) {
+                if(!reduced.containsKey(string.toString()))
+                    return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Sums the counts of each string across the shard lists.
+     *
+     * @param limit once this many strings are in no new one is added, 0 for no limit
+     */
+    private Map<String, Long> sumCounts(final List<Facet> facets, final int limit) {
+        final Map<String, Long> reduced = new HashMap<String, Long>();
+        
+        for(final Facet facet : facets) {
+            final InternalTermListFacet itlf = (InternalTermListFacet) facet;
+            for(int i = 0; i < itlf.strings.length; i++) {
+                final String string = itlf.strings[i].toString();
+                final Long sum = reduced.get(string);
+                if(sum == null && limit > 0 && reduced.size() >= limit)
+                    continue;		// the counts of the listed strings still have to be summed
+                reduced.put(string, (sum == null ? 0 : sum) + itlf.count(i));
+            }
+        }
+        return reduced;
+    }
+    
+    private long[] countsOf(final String[] strArr, final Map<String, Long> reduced) {
+        if(counts == null)
+            return null;
+        final long[] reducedCounts = new long[strArr.length];
+        for(int i = 0; i < strArr.length; i++) {
+            reducedCounts[i] = reduced.get(strArr[i]);
+        }
+        return reducedCounts;
+    }
+    
+    /**
+     * @return the count of the i-th string, 0 when counts were not sent
+     */
+    private long count(final int i) {
+        return counts == null ? 0 : counts[i];
+    }
+    
+    /**
+     * Sums the counts of every string then keeps the size most frequent ones with a
+     * bounded heap, ties go to the smallest string.
+     */
+    private Facet reduceByCount(final String name, final List<Facet> facets) {
+        final Map<String, Long> reduced = sumCounts(facets, 0);
+        final Comparator<Map.Entry<String, Long>> byCount = new Comparator<Map.Entry<String, Long>>() {
+            @Override
+            public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b) {
+                final int cmp = b.getValue().compareTo(a.getValue());
+                return cmp != 0 ? cmp : TERM_ORDER.compare(a.getKey(), b.getKey());
+            }
+        };
+        
+        final List<Map.Entry<String, Long>> top;
+        final boolean cut = anyTruncated(facets) || (size > 0 && size < reduced.size());
+        if(size > 0 && size < reduced.size()) {
+            final PriorityQueue<Map.Entry<String, Long>> queue = new PriorityQueue<Map.Entry<String, Long>>(size) {
+                @Override
+                protected boolean lessThan(Map.Entry<String, Long> a, Map.Entry<String, Long> b) {
+                    return byCount.compare(a, b) > 0;
+                }
+            };
+            for(final Map.Entry<String, Long> entry : reduced.entrySet()) {
+                queue.insertWithOverflow(entry);
+            }
+            top = new ArrayList<Map.Entry<String, Long>>(queue.size());
+            while(queue.size() > 0) {
+                top.add(queue.pop());
+            }
+            Collections.reverse(top);
+        } else {
+            top = new ArrayList<Map.Entry<String, Long>>(reduced.entrySet());
+            Collections.sort(top, byCount);
+        }
+        
+        final Object[] topStrings = new Object[top.size()];
+        final long[] topCounts = new long[top.size()];
+        for(int i = 0; i < topStrings.length; i++) {
+            topStrings[i] = top.get(i).getKey();
+            topCounts[i] = top.get(i).getValue();
+        }
+        return new InternalTermListFacet(name, topStrings, topCounts, reducedOptions(true), cut, anyTimedOut(facets), null);
+    }
+    
+    /**
+     * Merges the sorted shard lists with a heap holding the head of each list, equal
+     * terms come out next to each other so only the previous one is kept around to
+     * dedupe against, and to add the counts to. Stops as soon as size terms are out.
+     */
+    private Facet mergeSorted(final String name, final List<Facet> facets) {
+        final PriorityQueue<ShardCursor> queue = new PriorityQueue<ShardCursor>(facets.size()) {
+            @Override
+            protected boolean lessThan(ShardCursor a, ShardCursor b) {
+                return TERM_ORDER.compare(a.current(), b.current()) < 0;
+            }
+        };
+        
+        int total = 0;
+        for(final Facet facet : facets) {
+            final InternalTermListFacet itlf = (InternalTermListFacet) facet;
+            if(itlf.strings.length > 0) {
+                queue.add(new ShardCursor(itlf));
+                total += itlf.strings.length;
+            }
+        }
+        
+        final int capacity = size > 0 ? Math.min(size, total) : total;
+        final List<Object> merged = new ArrayList<Object>(capacity);
+        final long[] mergedCounts = new long[capacity];
+        String last = null;
+        boolean cut = anyTruncated(facets);
+        
+        while(queue.size() > 0) {
+            final ShardCursor top = queue.top();
+            final String current = top.current();
+            
+            if(last == null || !last.equals(current)) {
+                if(size > 0 && merged.size() >= size) {
+                    cut = true;
+                    break;
+                }
+                merged.add(current);
+                last = current;
+            }
+            mergedCounts[merged.size() - 1] += top.count();
+            
+            if(top.next())
+                queue.updateTop();
+            else
+                queue.pop();
+        }
+        
+        final long[] reducedCounts = counts == null ? null : Arrays.copyOf(mergedCounts, merged.size());
+        return new InternalTermListFacet(name, merged.toArray(), reducedCounts, reducedOptions(false), cut, anyTimedOut(facets), null);
+    }
+    
+    /**
+     * Position in a sorted shard list.
+     */
+    private static final class ShardCursor {
+        private final InternalTermListFacet facet;
+        private int upto = 0;
+        
+        ShardCursor(final InternalTermListFacet facet) {
+            this.facet = facet;
+        }
+        
+        String current() {
+            return (String) facet.strings[upto];
+        }
+        
+        long count() {
+            return facet.count(upto);
+        }
+        
+        boolean next() {
+            return ++upto < facet.strings.length;
+        }
     }
 	
 	@Override
@@ -190,4 +678,41 @@ public class InternalTermListFacet extends InternalFacet implements TermListFace
 	public List<? extends Object> getEntries() {
 		return entries();
 	}
+
+	/**
+	 * A full page of a sorted list ends with the cursor of the next page.
+	 */
+	@Override
+	public String next() {
+		if (sort && !orderByCount && size > 0 && strings.length >= size) {
+			return (String) strings[size - 1];
+		}
+		return null;
+	}
+
+	@Override
+	public boolean truncated() {
+		return truncated;
+	}
+
+	@Override
+	public boolean timedOut() {
+		return timedOut;
+	}
+
+	@Override
+	public List<TermListProfile> profile() {
+		return profiles == null ? Collections.<TermListProfile>emptyList() : profiles;
+	}
+
+	@Override
+	public List<Long> counts() {
+		final List<Long> list = new ArrayList<Long>(counts == null ? 0 : counts.length);
+		if (counts != null) {
+			for (long count : counts) {
+				list.add(count);
+			}
+		}
+		return list;
+	}
 }
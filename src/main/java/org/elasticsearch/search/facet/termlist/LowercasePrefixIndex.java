@@ -0,0 +1,272 @@
+/* Copyright 2013 Endgame, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.search.facet.termlist;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.IntroSorter;
+import org.apache.lucene.util.IntsRef;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.lucene.util.StringHelper;
+import org.apache.lucene.util.fst.Builder;
+import org.apache.lucene.util.fst.BytesRefFSTEnum;
+import org.apache.lucene.util.fst.FST;
+import org.apache.lucene.util.fst.PositiveIntOutputs;
+import org.apache.lucene.util.fst.Util;
+
+/**
+ * LowercasePrefixIndex
+ *
+ * FST over the lowercased terms of a segment's field. Each distinct lowercase form
+ * maps to the ordinals (ranks in term order) of the original terms folding to it. The
+ * terms starting with a prefix in any case are then found by seeking the lowercased
+ * prefix in the FST and walking the forms sharing it, rather than seeking every case
+ * variant of the prefix in the term dictionary.
+ *
+ * The index is immutable once built and shared by every request through
+ * {@link TermListSidecarCache}.
+ */
+final class LowercasePrefixIndex implements TermListSidecarCache.Sidecar {
+
+	private final FST<Long> fst;		// lowercase form to its group, null when the field has no terms
+	private final int[] groupStarts;	// start of each group in ords, plus the end of the last one
+	private final int[] ords;			// the ordinals of the terms, grouped by lowercase form
+	private final byte[] termBytes;		// the original terms, in term order
+	private final int[] termStarts;		// start of each term in termBytes, plus the end of the last one
+	private final int[] docFreqs;		// doc frequency of each term
+
+	private LowercasePrefixIndex(final FST<Long> fst, final int[] groupStarts, final int[] ords, final byte[] termBytes, final int[] termStarts, final int[] docFreqs) {
+		this.fst = fst;
+		this.groupStarts = groupStarts;
+		this.ords = ords;
+		this.termBytes = termBytes;
+		this.termStarts = termStarts;
+		this.docFreqs = docFreqs;
+	}
+
+	/**
+	 * Estimates the heap of the index over terms without building it (see
+	 * {@link TermListSidecarCache#estimateTermBytes}). The original terms are held once and
+	 * their lowercase forms make an FST of about two bytes per byte before any prefix is
+	 * shared, each term has four ints.
+	 *
+	 * @return the estimated bytes, -1 when the number of terms is unknown
+	 */
+	static long estimateBytes(final Terms terms) throws IOException {
+		final long termBytes = TermListSidecarCache.estimateTermBytes(terms);
+		if (termBytes < 0) {
+			return -1;
+		}
+		return termBytes * 3 + terms.size() * (1 + 4 * RamUsageEstimator.NUM_BYTES_INT);
+	}
+
+	/**
+	 * @param te the terms of the field, unpositioned
+	 * @return the index of every term of te
+	 */
+	static LowercasePrefixIndex build(final TermsEnum te) throws IOException {
+		final List<BytesRef> lowers = new ArrayList<BytesRef>();
+		byte[] termBytes = new byte[1024];
+		int[] termStarts = new int[65];
+		int[] docFreqs = new int[64];
+		int termLength = 0;
+		int numTerms = 0;
+
+		BytesRef term;
+		while ((term = te.next()) != null) {
+			termStarts = ArrayUtil.grow(termStarts, numTerms + 2);
+			docFreqs = ArrayUtil.grow(docFreqs, numTerms + 1);
+			termBytes = ArrayUtil.grow(termBytes, termLength + term.length);
+
+			lowers.add(new BytesRef(TermBytesMatcher.lowerCase(term.utf8ToString())));
+			termStarts[numTerms] = termLength;
+			System.arraycopy(term.bytes, term.offset, termBytes, termLength, term.length);
+			termLength += term.length;
+			docFreqs[numTerms] = te.docFreq();
+			numTerms++;
+		}
+		termStarts[numTerms] = termLength;
+
+		// the FST takes its inputs sorted, the terms of a form stay in term order
+		final int[] ords = new int[numTerms];
+		for (int i = 0; i < numTerms; i++) {
+			ords[i] = i;
+		}
+		new IntroSorter() {
+			private int pivot;
+
+			@Override
+			protected int compare(final int i, final int j) {
+				return compareForms(lowers, ords[i], ords[j]);
+			}
+
+			@Override
+			protected void swap(final int i, final int j) {
+				final int tmp = ords[i];
+				ords[i] = ords[j];
+				ords[j] = tmp;
+			}
+
+			@Override
+			protected void setPivot(final int i) {
+				pivot = ords[i];
+			}
+
+			@Override
+			protected int comparePivot(final int j) {
+				return compareForms(lowers, pivot, ords[j]);
+			}
+		}.sort(0, numTerms);
+
+		final Builder<Long> builder = new Builder<Long>(FST.INPUT_TYPE.BYTE1, PositiveIntOutputs.getSingleton());
+		final IntsRef scratch = new IntsRef();
+		int[] groupStarts = new int[16];
+		int numGroups = 0;
+		for (int i = 0; i < numTerms; i++) {
+			if (i == 0 || !lowers.get(ords[i]).bytesEquals(lowers.get(ords[i - 1]))) {
+				groupStarts = ArrayUtil.grow(groupStarts, numGroups + 2);
+				groupStarts[numGroups] = i;
+				builder.add(Util.toIntsRef(lowers.get(ords[i]), scratch), (long) numGroups);
+				numGroups++;
+			}
+		}
+		groupStarts[numGroups] = numTerms;
+
+		return new LowercasePrefixIndex(
+				numGroups == 0 ? null : builder.finish(),
+				Arrays.copyOf(groupStarts, numGroups + 1),
+				ords,
+				Arrays.copyOf(termBytes, termLength),
+				Arrays.copyOf(termStarts, numTerms + 1),
+				Arrays.copyOf(docFreqs, numTerms));
+	}
+
+	/**
+	 * Orders the terms by lowercase form, then by term order.
+	 */
+	private static int compareForms(final List<BytesRef> lowers, final int a, final int b) {
+		final int cmp = lowers.get(a).compareTo(lowers.get(b));
+		return cmp != 0 ? cmp : a - b;
+	}
+
+	/**
+	 * @return the number of terms in the index
+	 */
+	int numTerms() {
+		return termStarts.length - 1;
+	}
+
+	/**
+	 * @param prefix the prefix, in any case
+	 * @return the ordinals of the terms whose lowercase form starts with the lowercased prefix
+	 */
+	FixedBitSet startingWith(final String prefix) throws IOException {
+		final FixedBitSet matches = new FixedBitSet(numTerms());
+		if (fst == null) {
+			return matches;
+		}
+
+		final BytesRef lowerPrefix = new BytesRef(TermBytesMatcher.lowerCase(prefix));
+		final BytesRefFSTEnum<Long> forms = new BytesRefFSTEnum<Long>(fst);
+		for (BytesRefFSTEnum.InputOutput<Long> form = forms.seekCeil(lowerPrefix); form != null && StringHelper.startsWith(form.input, lowerPrefix); form = forms.next()) {
+			final int group = form.output.intValue();
+			for (int i = groupStarts[group]; i < groupStarts[group + 1]; i++) {
+				matches.set(ords[i]);
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * @param ord a term ordinal
+	 * @param scratch filled with the original term
+	 * @return scratch
+	 */
+	BytesRef term(final int ord, final BytesRef scratch) {
+		scratch.bytes = termBytes;
+		scratch.offset = termStarts[ord];
+		scratch.length = termStarts[ord + 1] - termStarts[ord];
+		return scratch;
+	}
+
+	/**
+	 * The terms starting with a prefix disregarding case, in term order.
+	 *
+	 * @param prefix the prefix, in any case
+	 * @param after only the terms sorting after this cursor are returned, null for all of them
+	 */
+	DocFreqIterator matches(final String prefix, final BytesRef after) throws IOException {
+		final FixedBitSet matches = startingWith(prefix);
+		if (after != null) {
+			matches.clear(0, firstAfter(after));
+		}
+		final DocIdSetIterator it = matches.iterator();
+		final BytesRef scratch = new BytesRef();
+
+		return new DocFreqIterator() {
+			private int ord = -1;
+
+			@Override
+			public BytesRef next() throws IOException {
+				ord = it.nextDoc();
+				return ord == DocIdSetIterator.NO_MORE_DOCS ? null : term(ord, scratch);
+			}
+
+			@Override
+			int docFreq() {
+				return docFreqs[ord];
+			}
+		};
+	}
+
+	/**
+	 * @return the ordinal of the first term sorting after the cursor, the terms are in term order
+	 */
+	private int firstAfter(final BytesRef after) {
+		final BytesRef scratch = new BytesRef();
+		int lo = 0;
+		int hi = numTerms();
+		while (lo < hi) {
+			final int mid = (lo + hi) >>> 1;
+			if (term(mid, scratch).compareTo(after) <= 0) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	@Override
+	public long ramBytesUsed() {
+		return RamUsageEstimator.NUM_BYTES_OBJECT_HEADER + 6 * RamUsageEstimator.NUM_BYTES_OBJECT_REF
+				+ (fst == null ? 0 : fst.sizeInBytes())
+				+ RamUsageEstimator.sizeOf(groupStarts)
+				+ RamUsageEstimator.sizeOf(ords)
+				+ RamUsageEstimator.sizeOf(termBytes)
+				+ RamUsageEstimator.sizeOf(termStarts)
+				+ RamUsageEstimator.sizeOf(docFreqs);
+	}
+}
@@ -0,0 +1,112 @@
+/* Copyright 2013 Endgame, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.search.facet.termlist;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.PriorityQueue;
+
+/**
+ * MergedTermsIterator
+ *
+ * The distinct terms of several segments and fields, in term order. Like Lucene's
+ * MultiTermsEnum the sub iterators are merged through a priority queue on their
+ * current term, but the subs may come from different fields. A term held by several
+ * subs is returned once, with the sum of their doc frequencies, so no set is needed
+ * to dedupe the terms of a shard.
+ */
+final class MergedTermsIterator extends DocFreqIterator {
+
+	private final SubQueue queue;
+	private final Sub[] top;			// the subs positioned on the current term
+	private int numTop;
+	private final BytesRef current = new BytesRef();
+	private long docFreq;
+
+	/**
+	 * @param subs the iterators to merge, unpositioned
+	 */
+	MergedTermsIterator(final List<DocFreqIterator> subs) throws IOException {
+		this.queue = new SubQueue(Math.max(1, subs.size()));
+		this.top = new Sub[subs.size()];
+		for (DocFreqIterator sub : subs) {
+			final BytesRef term = sub.next();
+			if (term != null) {
+				queue.add(new Sub(sub, term));
+			}
+		}
+	}
+
+	@Override
+	public BytesRef next() throws IOException {
+		// the subs on the last term only move now, until then current is the only copy we keep
+		for (int i = 0; i < numTop; i++) {
+			final Sub sub = top[i];
+			sub.term = sub.iterator.next();
+			if (sub.term != null) {
+				queue.add(sub);
+			}
+		}
+		numTop = 0;
+
+		if (queue.size() == 0) {
+			return null;
+		}
+
+		Sub sub = queue.pop();
+		current.copyBytes(sub.term);
+		docFreq = sub.iterator.docFreq();
+		top[numTop++] = sub;
+		while (queue.size() > 0 && queue.top().term.bytesEquals(current)) {
+			sub = queue.pop();
+			docFreq += sub.iterator.docFreq();
+			top[numTop++] = sub;
+		}
+		return current;
+	}
+
+	/**
+	 * @return the summed doc frequency of the current term, capped to an int
+	 */
+	@Override
+	int docFreq() {
+		return (int) Math.min(docFreq, Integer.MAX_VALUE);
+	}
+
+	private static final class Sub {
+		private final DocFreqIterator iterator;
+		private BytesRef term;
+
+		Sub(final DocFreqIterator iterator, final BytesRef term) {
+			this.iterator = iterator;
+			this.term = term;
+		}
+	}
+
+	private static final class SubQueue extends PriorityQueue<Sub> {
+
+		SubQueue(final int size) {
+			super(size);
+		}
+
+		@Override
+		protected boolean lessThan(final Sub a, final Sub b) {
+			return a.term.compareTo(b.term) < 0;
+		}
+	}
+}
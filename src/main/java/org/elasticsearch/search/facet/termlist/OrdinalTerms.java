@@ -0,0 +1,197 @@
+/* Copyright 2013 Endgame, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.search.facet.termlist;
+
+import java.io.IOException;
+import java.util.Comparator;
+
+import org.apache.lucene.index.DocsAndPositionsEnum;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.index.fielddata.BytesValues;
+import org.elasticsearch.index.fielddata.ordinals.Ordinals;
+
+/**
+ * OrdinalTerms
+ *
+ * The terms of a segment's field as held by its loaded field data: sorted, deduplicated
+ * and in memory, ordinal 1 being the smallest. Seeks are binary searches over the ordinals
+ * and next is the following ordinal, so prefix, automaton and cursor enums built on top
+ * never decode a block of the term dictionary. The dictionary is only read for the doc
+ * frequency (or docs) of a term actually returned.
+ */
+final class OrdinalTerms extends Terms {
+	private final BytesValues.WithOrdinals values;
+	private final long maxOrd;		// one past the largest ordinal
+	private final Terms terms;		// the term dictionary of the field
+
+	/**
+	 * @param values the field data of the segment's field, read by a single thread
+	 * @param terms the term dictionary of the same field
+	 */
+	OrdinalTerms(final BytesValues.WithOrdinals values, final Terms terms) {
+		this.values = values;
+		this.maxOrd = values.ordinals().getMaxOrd();
+		this.terms = terms;
+	}
+
+	@Override
+	public TermsEnum iterator(final TermsEnum reuse) {
+		return new OrdinalTermsEnum();
+	}
+
+	@Override
+	public Comparator<BytesRef> getComparator() {
+		return BytesRef.getUTF8SortedAsUnicodeComparator();
+	}
+
+	@Override
+	public long size() {
+		return maxOrd - 1;
+	}
+
+	@Override
+	public long getSumTotalTermFreq() throws IOException {
+		return terms.getSumTotalTermFreq();
+	}
+
+	@Override
+	public long getSumDocFreq() throws IOException {
+		return terms.getSumDocFreq();
+	}
+
+	@Override
+	public int getDocCount() throws IOException {
+		return terms.getDocCount();
+	}
+
+	@Override
+	public boolean hasOffsets() {
+		return terms.hasOffsets();
+	}
+
+	@Override
+	public boolean hasPositions() {
+		return terms.hasPositions();
+	}
+
+	@Override
+	public boolean hasPayloads() {
+		return terms.hasPayloads();
+	}
+
+	private final class OrdinalTermsEnum extends TermsEnum {
+		private long ord = Ordinals.MISSING_ORDINAL;		// before the first term
+		private BytesRef term;
+		private TermsEnum dictionary;						// opened by the first doc frequency asked for
+		private boolean positioned;							// is the dictionary on term
+
+		@Override
+		public BytesRef next() {
+			return position(ord + 1);
+		}
+
+		@Override
+		public SeekStatus seekCeil(final BytesRef text) {
+			long low = 1;
+			long high = maxOrd - 1;
+			while (low <= high) {
+				final long mid = (low + high) >>> 1;
+				final int cmp = values.getValueByOrd(mid).compareTo(text);
+				if (cmp < 0) {
+					low = mid + 1;
+				} else if (cmp > 0) {
+					high = mid - 1;
+				} else {
+					position(mid);
+					return SeekStatus.FOUND;
+				}
+			}
+			return position(low) == null ? SeekStatus.END : SeekStatus.NOT_FOUND;
+		}
+
+		@Override
+		public void seekExact(final long ord) {
+			position(ord);
+		}
+
+		/**
+		 * @return the term of ord, null past the last one
+		 */
+		private BytesRef position(final long ord) {
+			positioned = false;
+			if (ord >= maxOrd) {
+				this.ord = maxOrd;
+				term = null;
+			} else {
+				this.ord = ord;
+				term = values.getValueByOrd(ord);		// the binary search reused the scratch bytes
+			}
+			return term;
+		}
+
+		@Override
+		public BytesRef term() {
+			return term;
+		}
+
+		@Override
+		public long ord() {
+			return ord - 1;
+		}
+
+		/**
+		 * @return has the dictionary been moved to the current term
+		 */
+		private boolean seekDictionary() throws IOException {
+			if (!positioned) {
+				if (dictionary == null) {
+					dictionary = terms.iterator(null);
+				}
+				positioned = dictionary.seekExact(term);
+			}
+			return positioned;
+		}
+
+		@Override
+		public int docFreq() throws IOException {
+			return seekDictionary() ? dictionary.docFreq() : 0;
+		}
+
+		@Override
+		public long totalTermFreq() throws IOException {
+			return seekDictionary() ? dictionary.totalTermFreq() : 0;
+		}
+
+		@Override
+		public DocsEnum docs(final Bits liveDocs, final DocsEnum reuse, final int flags) throws IOException {
+			return seekDictionary() ? dictionary.docs(liveDocs, reuse, flags) : null;
+		}
+
+		@Override
+		public DocsAndPositionsEnum docsAndPositions(final Bits liveDocs, final DocsAndPositionsEnum reuse, final int flags) throws IOException {
+			return seekDictionary() ? dictionary.docsAndPositions(liveDocs, reuse, flags) : null;
+		}
+
+		@Override
+		public Comparator<BytesRef> getComparator() {
+			return BytesRef.getUTF8SortedAsUnicodeComparator();
+		}
+	}
+}
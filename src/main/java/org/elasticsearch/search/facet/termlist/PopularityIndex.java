@@ -0,0 +1,176 @@
+/* Copyright 2013 Endgame, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.search.facet.termlist;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IntsRef;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.lucene.util.fst.Builder;
+import org.apache.lucene.util.fst.FST;
+import org.apache.lucene.util.fst.PositiveIntOutputs;
+import org.apache.lucene.util.fst.Util;
+
+/**
+ * PopularityIndex
+ *
+ * FST over the terms of a segment's field weighted by their doc frequency, the way
+ * Lucene's WFSTCompletionLookup weights suggestions. The most frequent terms starting
+ * with a prefix are found by a shortest path search from the prefix's node(s), without
+ * enumerating the other terms sharing the prefix.
+ *
+ * The index is immutable once built and shared by every request through
+ * {@link TermListSidecarCache}.
+ */
+final class PopularityIndex implements TermListSidecarCache.Sidecar {
+
+	/** Outputs are costs, the cheapest paths are the most frequent terms. */
+	private static final Comparator<Long> BY_COST = new Comparator<Long>() {
+		@Override
+		public int compare(final Long a, final Long b) {
+			return a.compareTo(b);
+		}
+	};
+
+	private final FST<Long> fst;		// null when the field has no terms
+
+	private PopularityIndex(final FST<Long> fst) {
+		this.fst = fst;
+	}
+
+	/**
+	 * Estimates the heap of the index over terms without building it (see
+	 * {@link TermListSidecarCache#estimateTermBytes}). Before any prefix is shared each byte
+	 * of a term is an arc with a label and flags, each term adds its weight and a target.
+	 *
+	 * @return the estimated bytes, -1 when the number of terms is unknown
+	 */
+	static long estimateBytes(final Terms terms) throws IOException {
+		final long termBytes = TermListSidecarCache.estimateTermBytes(terms);
+		if (termBytes < 0) {
+			return -1;
+		}
+		return termBytes * 2 + terms.size() * (5 + RamUsageEstimator.NUM_BYTES_INT);
+	}
+
+	/**
+	 * @param te the terms of the field, unpositioned
+	 * @return the index of every term of te
+	 */
+	static PopularityIndex build(final TermsEnum te) throws IOException {
+		final Builder<Long> builder = new Builder<Long>(FST.INPUT_TYPE.BYTE1, PositiveIntOutputs.getSingleton());
+		final IntsRef scratch = new IntsRef();
+		boolean empty = true;
+
+		BytesRef term;
+		while ((term = te.next()) != null) {
+			builder.add(Util.toIntsRef(term, scratch), cost(te.docFreq()));
+			empty = false;
+		}
+		return new PopularityIndex(empty ? null : builder.finish());
+	}
+
+	/**
+	 * @return the FST output of a term, smaller for more frequent terms
+	 */
+	private static long cost(final int docFreq) {
+		return Integer.MAX_VALUE - docFreq;
+	}
+
+	/**
+	 * The most frequent terms starting with a prefix, by descending doc frequency then
+	 * term order.
+	 *
+	 * @param prefix the prefix, null or empty for every term
+	 * @param caseInsensitive do terms starting with the prefix in any case match
+	 * @param n the number of terms to return at most
+	 */
+	DocFreqIterator top(final String prefix, final boolean caseInsensitive, final int n) throws IOException {
+		if (fst == null || n <= 0) {
+			return DocFreqIterator.of(new BytesRef[0], new int[0]);
+		}
+
+		// like a case insensitive enumeration, only the leading characters of a long prefix get variants
+		Set<String> starts = Collections.singleton(prefix == null ? "" : prefix);
+		TermBytesMatcher tail = null;
+		if (caseInsensitive && prefix != null) {
+			starts = new TreeSet<String>();
+			if (CaseInsensitivePrefixTermsEnum.expand(prefix, starts) < prefix.length()) {
+				tail = new TermBytesMatcher(prefix, true, true);
+			}
+		}
+
+		final TermBytesMatcher tailMatcher = tail;
+		final BytesRef candidate = new BytesRef();
+		// rejected paths must not push accepted ones out of the queue
+		final Util.TopNSearcher<Long> searcher = new Util.TopNSearcher<Long>(fst, n, tailMatcher == null ? n : Integer.MAX_VALUE, BY_COST) {
+			@Override
+			protected boolean acceptResult(final IntsRef input, final Long output) {
+				return tailMatcher == null || tailMatcher.matches(Util.toBytesRef(input, candidate));
+			}
+		};
+
+		final FST.BytesReader reader = fst.getBytesReader();
+		boolean found = false;
+		for (String start : starts) {
+			final BytesRef bytes = new BytesRef(start);
+			FST.Arc<Long> arc = fst.getFirstArc(new FST.Arc<Long>());
+			Long output = fst.outputs.getNoOutput();
+			for (int i = 0; i < bytes.length && arc != null; i++) {
+				arc = fst.findTargetArc(bytes.bytes[bytes.offset + i] & 0xff, arc, arc, reader);
+				if (arc != null) {
+					output = fst.outputs.add(output, arc.output);
+				}
+			}
+			if (arc != null) {
+				searcher.addStartPaths(arc, output, true, Util.toIntsRef(bytes, new IntsRef()));
+				found = true;
+			}
+		}
+		if (!found) {
+			return DocFreqIterator.of(new BytesRef[0], new int[0]);
+		}
+
+		final Util.MinResult<Long>[] results = searcher.search();
+		final BytesRef scratch = new BytesRef();
+		return new DocFreqIterator() {
+			private int upto = -1;
+
+			@Override
+			public BytesRef next() {
+				return ++upto < results.length ? Util.toBytesRef(results[upto].input, scratch) : null;
+			}
+
+			@Override
+			int docFreq() {
+				return (int) (Integer.MAX_VALUE - results[upto].output);
+			}
+		};
+	}
+
+	@Override
+	public long ramBytesUsed() {
+		return RamUsageEstimator.NUM_BYTES_OBJECT_HEADER + RamUsageEstimator.NUM_BYTES_OBJECT_REF
+				+ (fst == null ? 0 : fst.sizeInBytes());
+	}
+}
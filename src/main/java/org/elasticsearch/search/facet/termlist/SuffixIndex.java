@@ -0,0 +1,326 @@
+/* Copyright 2013 Endgame, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.search.facet.termlist;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.IntroSorter;
+import org.apache.lucene.util.RamUsageEstimator;
+
+/**
+ * SuffixIndex
+ *
+ * Suffix array over the lowercased terms of a segment's field. The lowercased
+ * terms are concatenated, each followed by a 0 byte, and the start of every
+ * char of that text is sorted by the suffix starting there. The terms containing
+ * a substring are then the ones owning the range of suffixes starting with it,
+ * found with two binary searches instead of a scan of the term dictionary.
+ *
+ * The index is immutable once built and shared by every request through
+ * {@link TermListSidecarCache}.
+ */
+final class SuffixIndex implements TermListSidecarCache.Sidecar {
+
+	private final byte[] text;			// the lowercased terms, each followed by a 0 byte
+	private final int[] textStarts;		// start of each term in text
+	private final int[] suffixes;		// char starts in text, sorted by the suffix starting there
+	private final byte[] termBytes;		// the original terms, in term order
+	private final int[] termStarts;		// start of each term in termBytes, plus the end of the last one
+	private final int[] docFreqs;		// doc frequency of each term
+
+	private SuffixIndex(final byte[] text, final int[] textStarts, final int[] suffixes, final byte[] termBytes, final int[] termStarts, final int[] docFreqs) {
+		this.text = text;
+		this.textStarts = textStarts;
+		this.suffixes = suffixes;
+		this.termBytes = termBytes;
+		this.termStarts = termStarts;
+		this.docFreqs = docFreqs;
+	}
+
+	/**
+	 * Estimates the heap of the index over terms without building it (see
+	 * {@link TermListSidecarCache#estimateTermBytes}). Every byte of a term is held twice
+	 * and may start a char and so a suffix, each term has three ints.
+	 *
+	 * @return the estimated bytes, -1 when the number of terms is unknown
+	 */
+	static long estimateBytes(final Terms terms) throws IOException {
+		final long termBytes = TermListSidecarCache.estimateTermBytes(terms);
+		if (termBytes < 0) {
+			return -1;
+		}
+		return termBytes * (2 + RamUsageEstimator.NUM_BYTES_INT) + terms.size() * (1 + 3 * RamUsageEstimator.NUM_BYTES_INT);
+	}
+
+	/**
+	 * @param te the terms of the field, unpositioned
+	 * @return the index of every term of te
+	 */
+	static SuffixIndex build(final TermsEnum te) throws IOException {
+		byte[] text = new byte[1024];
+		int[] textStarts = new int[64];
+		byte[] termBytes = new byte[1024];
+		int[] termStarts = new int[65];
+		int[] docFreqs = new int[64];
+		int textLength = 0;
+		int termLength = 0;
+		int numTerms = 0;
+		int numSuffixes = 0;
+
+		BytesRef term;
+		while ((term = te.next()) != null) {
+			final BytesRef lower = new BytesRef(TermBytesMatcher.lowerCase(term.utf8ToString()));
+
+			textStarts = ArrayUtil.grow(textStarts, numTerms + 1);
+			termStarts = ArrayUtil.grow(termStarts, numTerms + 2);
+			docFreqs = ArrayUtil.grow(docFreqs, numTerms + 1);
+			text = ArrayUtil.grow(text, textLength + lower.length + 1);
+			termBytes = ArrayUtil.grow(termBytes, termLength + term.length);
+
+			textStarts[numTerms] = textLength;
+			for (int i = 0; i < lower.length; i++) {
+				final byte b = lower.bytes[lower.offset + i];
+				if (b != 0 && !isContinuation(b)) {
+					numSuffixes++;
+				}
+			}
+			System.arraycopy(lower.bytes, lower.offset, text, textLength, lower.length);
+			textLength += lower.length;
+			text[textLength++] = 0;
+
+			termStarts[numTerms] = termLength;
+			System.arraycopy(term.bytes, term.offset, termBytes, termLength, term.length);
+			termLength += term.length;
+			docFreqs[numTerms] = te.docFreq();
+			numTerms++;
+		}
+		termStarts[numTerms] = termLength;
+
+		// a match always starts on a char, the continuation bytes of a char need no suffix
+		final int[] suffixes = new int[numSuffixes];
+		int upto = 0;
+		for (int i = 0; i < textLength; i++) {
+			if (text[i] != 0 && !isContinuation(text[i])) {
+				suffixes[upto++] = i;
+			}
+		}
+
+		final byte[] finalText = text;
+		new IntroSorter() {
+			private int pivot;
+
+			@Override
+			protected int compare(final int i, final int j) {
+				return compareSuffixes(finalText, suffixes[i], suffixes[j]);
+			}
+
+			@Override
+			protected void swap(final int i, final int j) {
+				final int tmp = suffixes[i];
+				suffixes[i] = suffixes[j];
+				suffixes[j] = tmp;
+			}
+
+			@Override
+			protected void setPivot(final int i) {
+				pivot = suffixes[i];
+			}
+
+			@Override
+			protected int comparePivot(final int j) {
+				return compareSuffixes(finalText, pivot, suffixes[j]);
+			}
+		}.sort(0, upto);
+
+		return new SuffixIndex(
+				Arrays.copyOf(text, textLength),
+				Arrays.copyOf(textStarts, numTerms),
+				suffixes,
+				Arrays.copyOf(termBytes, termLength),
+				Arrays.copyOf(termStarts, numTerms + 1),
+				Arrays.copyOf(docFreqs, numTerms));
+	}
+
+	private static boolean isContinuation(final byte b) {
+		return (b & 0xC0) == 0x80;
+	}
+
+	/**
+	 * Compares the suffixes starting at a and b, the 0 byte ending a term sorts first.
+	 */
+	private static int compareSuffixes(final byte[] text, int a, int b) {
+		while (true) {
+			final int x = text[a++] & 0xFF;
+			final int y = text[b++] & 0xFF;
+			if (x != y) {
+				return x - y;
+			}
+			if (x == 0) {
+				return 0;
+			}
+		}
+	}
+
+	/**
+	 * Compares the start of the suffix at pos with pattern.
+	 *
+	 * @return 0 if the suffix starts with pattern, else the order of the suffix relative to pattern
+	 */
+	private int compareStart(final int pos, final BytesRef pattern) {
+		for (int i = 0; i < pattern.length; i++) {
+			final int x = text[pos + i] & 0xFF;
+			final int y = pattern.bytes[pattern.offset + i] & 0xFF;
+			if (x != y) {
+				return x - y;
+			}
+			if (x == 0) {
+				return -1;		// the suffix ends inside its term
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * @return the number of terms in the index
+	 */
+	int numTerms() {
+		return textStarts.length;
+	}
+
+	/**
+	 * @param lowerSearch the lowercased substring, not empty
+	 * @return the ordinals of the terms whose lowercase form contains lowerSearch
+	 */
+	FixedBitSet containing(final String lowerSearch) {
+		final BytesRef pattern = new BytesRef(lowerSearch);
+		final FixedBitSet ords = new FixedBitSet(numTerms());
+
+		// first suffix not sorting before the pattern
+		int lo = 0;
+		int hi = suffixes.length;
+		while (lo < hi) {
+			final int mid = (lo + hi) >>> 1;
+			if (compareStart(suffixes[mid], pattern) < 0) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		final int from = lo;
+
+		// first suffix sorting after every suffix starting with the pattern
+		hi = suffixes.length;
+		while (lo < hi) {
+			final int mid = (lo + hi) >>> 1;
+			if (compareStart(suffixes[mid], pattern) <= 0) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+
+		for (int i = from; i < lo; i++) {
+			final int ord = Arrays.binarySearch(textStarts, suffixes[i]);
+			ords.set(ord >= 0 ? ord : -ord - 2);
+		}
+		return ords;
+	}
+
+	/**
+	 * @param ord a term ordinal
+	 * @param scratch filled with the original term
+	 * @return scratch
+	 */
+	BytesRef term(final int ord, final BytesRef scratch) {
+		scratch.bytes = termBytes;
+		scratch.offset = termStarts[ord];
+		scratch.length = termStarts[ord + 1] - termStarts[ord];
+		return scratch;
+	}
+
+	/**
+	 * The terms containing a substring, in term order.
+	 *
+	 * @param search the substring, not empty
+	 * @param caseInsensitive disregard case, else the candidate terms are checked against search as is
+	 * @param after only the terms sorting after this cursor are returned, null for all of them
+	 */
+	DocFreqIterator matches(final String search, final boolean caseInsensitive, final BytesRef after) {
+		final FixedBitSet ords = containing(TermBytesMatcher.lowerCase(search));
+		if (after != null) {
+			ords.clear(0, firstAfter(after));
+		}
+		final TermBytesMatcher exact = caseInsensitive ? null : new TermBytesMatcher(search, false, false);
+		final DocIdSetIterator it = ords.iterator();
+		final BytesRef scratch = new BytesRef();
+
+		return new DocFreqIterator() {
+			private int ord = -1;
+
+			@Override
+			public BytesRef next() throws IOException {
+				for (ord = it.nextDoc(); ord != DocIdSetIterator.NO_MORE_DOCS; ord = it.nextDoc()) {
+					term(ord, scratch);
+					if (exact == null || exact.matches(scratch)) {
+						return scratch;
+					}
+				}
+				return null;
+			}
+
+			@Override
+			int docFreq() {
+				return docFreqs[ord];
+			}
+		};
+	}
+
+	/**
+	 * @return the ordinal of the first term sorting after the cursor, the terms are in term order
+	 */
+	private int firstAfter(final BytesRef after) {
+		final BytesRef scratch = new BytesRef();
+		int lo = 0;
+		int hi = numTerms();
+		while (lo < hi) {
+			final int mid = (lo + hi) >>> 1;
+			if (term(mid, scratch).compareTo(after) <= 0) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	@Override
+	public long ramBytesUsed() {
+		return RamUsageEstimator.NUM_BYTES_OBJECT_HEADER + 6 * RamUsageEstimator.NUM_BYTES_OBJECT_REF
+				+ RamUsageEstimator.sizeOf(text)
+				+ RamUsageEstimator.sizeOf(textStarts)
+				+ RamUsageEstimator.sizeOf(suffixes)
+				+ RamUsageEstimator.sizeOf(termBytes)
+				+ RamUsageEstimator.sizeOf(termStarts)
+				+ RamUsageEstimator.sizeOf(docFreqs);
+	}
+}
@@ -0,0 +1,197 @@
+/* Copyright 2013 Endgame, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.search.facet.termlist;
+
+import java.util.Arrays;
+
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.ByteBlockPool;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefHash;
+import org.apache.lucene.util.Counter;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.elasticsearch.common.lease.Releasable;
+
+/**
+ * TermBytesHash
+ *
+ * The terms of a shard list as UTF-8 bytes in a {@link BytesRefHash}, with an optional
+ * count per term. The bytes live in shared blocks instead of one String per term, and
+ * every block, hash table and count array is reserved on the {@link TermListCircuitBreaker}
+ * before it is allocated. Strings are only materialized once the shard facet is built.
+ *
+ * Not thread safe, tasks sharing one lock it.
+ */
+final class TermBytesHash implements Releasable {
+
+	private final TermListCircuitBreaker breaker;
+	private final String label;
+	private final BreakerCounter bytesUsed;
+	private final BytesRefHash hash;
+	private long[] counts;		// the count of each term id, null when not kept
+	private final BytesRef scratch = new BytesRef();
+
+	/**
+	 * @param breaker the breaker reserving the memory
+	 * @param label names the facet in breaker errors
+	 * @param keepCounts keep a count per term
+	 */
+	TermBytesHash(final TermListCircuitBreaker breaker, final String label, final boolean keepCounts) {
+		this.breaker = breaker;
+		this.label = label;
+		this.bytesUsed = new BreakerCounter();
+		this.hash = new BytesRefHash(new ByteBlockPool(new ByteBlockPool.DirectTrackingAllocator(bytesUsed)), BytesRefHash.DEFAULT_CAPACITY,
+				new BytesRefHash.DirectBytesStartArray(BytesRefHash.DEFAULT_CAPACITY, bytesUsed));
+		if (keepCounts) {
+			bytesUsed.addAndGet(RamUsageEstimator.NUM_BYTES_LONG * BytesRefHash.DEFAULT_CAPACITY);
+			this.counts = new long[BytesRefHash.DEFAULT_CAPACITY];
+		}
+	}
+
+	/**
+	 * @return the number of terms
+	 */
+	int size() {
+		return hash.size();
+	}
+
+	/**
+	 * Adds a term if absent, and its count either way.
+	 *
+	 * @return was the term absent
+	 */
+	boolean add(final BytesRef term, final long count) {
+		int id = hash.add(term);
+		final boolean added = id >= 0;
+		if (!added) {
+			id = -id - 1;
+		} else if (counts != null && id >= counts.length) {
+			final int newLength = ArrayUtil.oversize(id + 1, RamUsageEstimator.NUM_BYTES_LONG);
+			bytesUsed.addAndGet(RamUsageEstimator.NUM_BYTES_LONG * (long) (newLength - counts.length));
+			counts = ArrayUtil.grow(counts, newLength);
+		}
+		if (counts != null) {
+			counts[id] += count;
+		}
+		return added;
+	}
+
+	/**
+	 * Adds a count to a term already listed.
+	 *
+	 * @return was the term listed
+	 */
+	boolean addToExisting(final BytesRef term, final long count) {
+		final int id = hash.find(term);
+		if (id < 0) {
+			return false;
+		}
+		if (counts != null) {
+			counts[id] += count;
+		}
+		return true;
+	}
+
+	/**
+	 * The ids of the terms, sorted by code point (their UTF-8 bytes) when asked for. Sorting
+	 * compacts the hash, no term may be added once it is done.
+	 *
+	 * @param sorted sort the ids by term
+	 * @return the ids, in insertion order unless sorted
+	 */
+	int[] ids(final boolean sorted) {
+		if (sorted) {
+			final int[] ids = hash.sort(BytesRef.getUTF8SortedAsUnicodeComparator());
+			return ids.length == hash.size() ? ids : Arrays.copyOf(ids, hash.size());
+		}
+		final int[] ids = new int[hash.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = i;
+		}
+		return ids;
+	}
+
+	/**
+	 * @return the term of an id as a String
+	 */
+	String string(final int id) {
+		return hash.get(id, scratch).utf8ToString();
+	}
+
+	/**
+	 * @return the term of an id as UTF-8 bytes, only valid until the next call
+	 */
+	BytesRef bytes(final int id) {
+		return hash.get(id, scratch);
+	}
+
+	/**
+	 * @return the count of an id, 0 when counts are not kept
+	 */
+	long count(final int id) {
+		return counts == null ? 0 : counts[id];
+	}
+
+	/**
+	 * @return the heap reserved so far
+	 */
+	long ramBytesUsed() {
+		return bytesUsed.get();
+	}
+
+	/**
+	 * Gives the reserved memory back to the breaker, once.
+	 */
+	@Override
+	public boolean release() {
+		return bytesUsed.release();
+	}
+
+	/**
+	 * Forwards the allocations of the hash to the breaker, until released.
+	 */
+	private final class BreakerCounter extends Counter {
+		private long used;
+		private boolean released;
+
+		@Override
+		public long addAndGet(final long delta) {
+			if (!released) {
+				if (delta > 0) {
+					breaker.addEstimateBytesAndMaybeBreak(delta, label);
+				} else {
+					breaker.release(-delta);
+				}
+				used += delta;
+			}
+			return used;
+		}
+
+		@Override
+		public long get() {
+			return used;
+		}
+
+		boolean release() {
+			if (released) {
+				return false;
+			}
+			released = true;
+			breaker.release(used);
+			return true;
+		}
+	}
+}
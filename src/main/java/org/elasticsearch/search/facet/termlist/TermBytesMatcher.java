@@ -0,0 +1,227 @@
+/* Copyright 2013 Endgame, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.search.facet.termlist;
+
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * TermBytesMatcher
+ *
+ * Matches a term's UTF-8 bytes against the search without decoding the term
+ * into a String. The search is lowercased once up front, substrings are found
+ * with Boyer-Moore-Horspool and, when matching case insensitively, the term is
+ * folded into a reused buffer through lookup tables covering ASCII, Latin-1
+ * and Latin Extended-A.
+ *
+ * Terms holding characters of other cased scripts (Greek, Cyrillic, ...) are
+ * decoded and lowercased like before, so the result never depends on which
+ * path was taken. Every case insensitive path of the facet lowercases with
+ * {@link #lowerCase(String)}, one code point at a time like the case folded
+ * automata. Not thread safe, every collector uses its own copy.
+ */
+final class TermBytesMatcher {
+
+	/** Folded value of each byte, for the bytes which fold on their own (ASCII). */
+	private static final byte[] ASCII_FOLD = new byte[256];
+
+	/** Folded continuation byte following a 0xC3, 0xC4 or 0xC5 lead byte, -1 when the char needs decoding. */
+	private static final byte[][] LATIN_FOLD = new byte[3][64];
+
+	static {
+		for (int c = 0; c < 256; c++) {
+			ASCII_FOLD[c] = (byte) (c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c);
+		}
+
+		for (int lead = 0xC3; lead <= 0xC5; lead++) {
+			for (int cont = 0x80; cont <= 0xBF; cont++) {
+				final int codePoint = ((lead & 0x1F) << 6) | (cont & 0x3F);
+				final int lower = Character.toLowerCase(codePoint);
+				byte folded = -1;
+
+				// only keep the mappings which stay on the same lead byte
+				if ((lower >> 6) == (codePoint >> 6)) {
+					folded = (byte) (0x80 | (lower & 0x3F));
+				}
+				LATIN_FOLD[lead - 0xC3][cont - 0x80] = folded;
+			}
+		}
+	}
+
+	private final String lowerSearch;
+	private final byte[] pattern;
+	private final int[] shift = new int[256];
+	private final boolean prefix;
+	private final boolean caseInsensitive;
+	private byte[] folded = new byte[16];
+
+	/**
+	 * @param search the search text
+	 * @param prefix match the start of the term only
+	 * @param caseInsensitive disregard case when matching
+	 */
+	TermBytesMatcher(final String search, final boolean prefix, final boolean caseInsensitive) {
+		this.prefix = prefix;
+		this.caseInsensitive = caseInsensitive;
+		this.lowerSearch = caseInsensitive ? lowerCase(search) : search;
+
+		final BytesRef bytes = new BytesRef(lowerSearch);
+		this.pattern = new byte[bytes.length];
+		System.arraycopy(bytes.bytes, bytes.offset, pattern, 0, bytes.length);
+
+		// Horspool bad character shifts
+		final int m = pattern.length;
+		for (int c = 0; c < shift.length; c++) {
+			shift[c] = m;
+		}
+		for (int k = 0; k < m - 1; k++) {
+			shift[pattern[k] & 0xFF] = m - 1 - k;
+		}
+	}
+
+	/**
+	 * Lowercases text one code point at a time with {@link Character#toLowerCase(int)}.
+	 * Unlike {@link String#toLowerCase()} the result does not depend on the default locale
+	 * or on the surrounding chars (final sigma), nor does a char ever become two (dotted
+	 * capital I), so it agrees with the case folded automata.
+	 *
+	 * @return the lowercase form of text
+	 */
+	static String lowerCase(final String text) {
+		final StringBuilder lower = new StringBuilder(text.length());
+		for (int i = 0; i < text.length();) {
+			final int codePoint = text.codePointAt(i);
+			lower.appendCodePoint(Character.toLowerCase(codePoint));
+			i += Character.charCount(codePoint);
+		}
+		return lower.toString();
+	}
+
+	/**
+	 * @return a matcher for the same search, with its own buffers
+	 */
+	TermBytesMatcher copy() {
+		return new TermBytesMatcher(lowerSearch, prefix, caseInsensitive);
+	}
+
+	/**
+	 * @param term the UTF-8 bytes of the term
+	 * @return does the term match the search
+	 */
+	boolean matches(final BytesRef term) {
+		if (!caseInsensitive) {
+			return matches(term.bytes, term.offset, term.length);
+		}
+
+		// a prefix match never looks past the pattern, folding keeps lengths
+		final int length = prefix ? Math.min(term.length, pattern.length) : term.length;
+		if (!fold(term.bytes, term.offset, length)) {
+			final String lowerTerm = lowerCase(term.utf8ToString());
+			return prefix ? lowerTerm.startsWith(lowerSearch) : lowerTerm.contains(lowerSearch);
+		}
+		return matches(folded, 0, length);
+	}
+
+	private boolean matches(final byte[] text, final int offset, final int length) {
+		if (prefix) {
+			if (length < pattern.length) {
+				return false;
+			}
+			for (int i = 0; i < pattern.length; i++) {
+				if (text[offset + i] != pattern[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+		return indexOf(text, offset, length) >= 0;
+	}
+
+	/**
+	 * Boyer-Moore-Horspool search of the pattern.
+	 *
+	 * @return the offset of the first occurrence of the pattern in text, -1 when there is none
+	 */
+	int indexOf(final byte[] text, final int offset, final int length) {
+		final int m = pattern.length;
+		final int last = offset + length - m;
+
+		if (m == 0) {
+			return offset;
+		}
+
+		for (int i = offset; i <= last; i += shift[text[i + m - 1] & 0xFF]) {
+			int j = m - 1;
+			while (j >= 0 && text[i + j] == pattern[j]) {
+				j--;
+			}
+			if (j < 0) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Lowercases bytes into the folded buffer.
+	 *
+	 * @return false if a char is not covered by the folding tables, the term has to be decoded
+	 */
+	private boolean fold(final byte[] bytes, final int offset, final int length) {
+		if (folded.length < length) {
+			folded = new byte[ArrayUtil.oversize(length, 1)];
+		}
+
+		for (int i = 0; i < length; i++) {
+			final int b = bytes[offset + i] & 0xFF;
+
+			if (b < 0x80) {
+				folded[i] = ASCII_FOLD[b];
+			} else if (b >= 0xC3 && b <= 0xC5) {
+				if (i + 1 >= length) {
+					// a prefix window may end in the middle of a char, the pattern ends there too
+					folded[i] = (byte) b;
+					continue;
+				}
+				final int next = bytes[offset + i + 1] & 0xFF;
+				final byte cont = next >= 0x80 && next <= 0xBF ? LATIN_FOLD[b - 0xC3][next - 0x80] : -1;
+				if (cont == -1) {
+					return false;
+				}
+				folded[i] = (byte) b;
+				folded[++i] = cont;
+			} else if (hasCase(b)) {
+				return false;
+			} else {
+				folded[i] = (byte) b;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param b a byte of a UTF-8 sequence, not ASCII and not a 0xC3 - 0xC5 lead
+	 * @return may the char starting with this lead byte have a lower case form we do not fold
+	 */
+	private static boolean hasCase(final int b) {
+		return (b >= 0xC6 && b <= 0xD6)		// Latin Extended-B, IPA, Greek, Cyrillic, Armenian
+				|| b == 0xE1				// Georgian, Latin Extended Additional, Greek Extended
+				|| b == 0xE2				// letterlike symbols, roman numerals, Glagolitic, Coptic
+				|| b == 0xEA				// Cyrillic Extended-B, Latin Extended-D
+				|| b == 0xEF				// fullwidth forms
+				|| b == 0xF0;				// Deseret and the other supplementary scripts
+	}
+}
@@ -0,0 +1,148 @@
+/* Copyright 2013 Endgame, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.search.facet.termlist;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.StringHelper;
+import org.apache.lucene.util.automaton.Automaton;
+import org.apache.lucene.util.automaton.BasicAutomata;
+import org.apache.lucene.util.automaton.BasicOperations;
+import org.apache.lucene.util.automaton.CompiledAutomaton;
+import org.apache.lucene.util.automaton.LevenshteinAutomata;
+
+/**
+ * TermListAutomata
+ *
+ * Builds the automata the term list facet intersects with the term dictionary
+ * (see {@link org.apache.lucene.index.Terms#intersect}), so the dictionary can
+ * skip every block of terms that cannot match instead of us decoding and
+ * testing each term.
+ *
+ * The automata of patterns coming with a request are determinized within a state
+ * budget (see {@link BoundedAutomata}), a pathological pattern fails fast instead of
+ * building an exponential automaton first.
+ */
+final class TermListAutomata {
+
+	private TermListAutomata() {
+	}
+
+	/**
+	 * An automaton accepting every term containing search (.*search.*).
+	 *
+	 * @param search the substring to look for
+	 * @param caseInsensitive should the automaton accept search in any case
+	 * @return the automaton, compile it with {@link CompiledAutomaton} to intersect it with terms
+	 */
+	static Automaton contains(final String search, final boolean caseInsensitive) {
+		final Automaton automaton = BasicOperations.concatenate(Arrays.asList(
+				BasicAutomata.makeAnyString(),
+				BasicAutomata.makeString(search),
+				BasicAutomata.makeAnyString()));
+
+		return caseInsensitive ? caseInsensitive(automaton, Integer.MAX_VALUE) : automaton;
+	}
+
+	/**
+	 * An automaton accepting every term within distance edits of search, like the
+	 * one of Lucene's FuzzyQuery. The first prefixLength chars have to match exactly,
+	 * which keeps the automaton and the part of the dictionary it visits small.
+	 *
+	 * @param search the term to look for
+	 * @param distance the most edits, 1 or 2
+	 * @param transpositions does swapping two adjacent chars count as one edit, else as two
+	 * @param prefixLength the number of leading chars which have to match exactly
+	 * @param prefix accept any ending after the fuzzy match, for terms starting with something close to search
+	 * @param caseInsensitive disregard case, the edits are counted on the lowercased terms
+	 * @param maxStates the most states of the automaton
+	 * @return the automaton, compile it with {@link CompiledAutomaton} to intersect it with terms
+	 */
+	static Automaton fuzzy(final String search, final int distance, final boolean transpositions, final int prefixLength, final boolean prefix,
+			final boolean caseInsensitive, final int maxStates) {
+		final String term = caseInsensitive ? TermBytesMatcher.lowerCase(search) : search;
+		final int split = term.offsetByCodePoints(0, Math.min(prefixLength, term.codePointCount(0, term.length())));
+
+		final List<Automaton> parts = new ArrayList<Automaton>();
+		parts.add(BasicAutomata.makeString(term.substring(0, split)));
+		parts.add(new LevenshteinAutomata(term.substring(split), transpositions).toAutomaton(distance));
+		if (prefix) {
+			parts.add(BasicAutomata.makeAnyString());
+		}
+		final Automaton automaton = BasicOperations.concatenate(parts);
+
+		return caseInsensitive ? caseInsensitive(automaton, maxStates) : BoundedAutomata.determinize(automaton, maxStates);
+	}
+
+	/**
+	 * An automaton accepting every term matched as a whole by a regular expression.
+	 *
+	 * @param pattern the regular expression, in Lucene's syntax with every optional feature but named automata (see {@link TermListPattern})
+	 * @param caseInsensitive should the automaton accept the matches in any case
+	 * @param maxStates the most states of the automaton
+	 * @throws IllegalArgumentException when the pattern is invalid or needs more than maxStates states
+	 */
+	static Automaton regex(final String pattern, final boolean caseInsensitive, final int maxStates) {
+		return TermListPattern.regex(pattern).toAutomaton(caseInsensitive, maxStates);
+	}
+
+	/**
+	 * An automaton accepting every term matched as a whole by a wildcard pattern, where
+	 * * matches any chars, ? a single char and \ escapes the next char.
+	 *
+	 * @param pattern the wildcard pattern
+	 * @param caseInsensitive should the automaton accept the matches in any case
+	 * @param maxStates the most states of the automaton
+	 * @throws IllegalArgumentException when the pattern needs more than maxStates states
+	 */
+	static Automaton wildcard(final String pattern, final boolean caseInsensitive, final int maxStates) {
+		return TermListPattern.wildcard(pattern).toAutomaton(caseInsensitive, maxStates);
+	}
+
+	/**
+	 * @return does the compiled automaton accept term, for terms checked one at a time
+	 */
+	static boolean run(final CompiledAutomaton automaton, final BytesRef term) {
+		switch (automaton.type) {
+		case NONE:
+			return false;
+		case ALL:
+			return true;
+		case SINGLE:
+			return automaton.term.bytesEquals(term);
+		case PREFIX:
+			return StringHelper.startsWith(term, automaton.term);
+		default:
+			return automaton.runAutomaton.run(term.bytes, term.offset, term.length);
+		}
+	}
+
+	/**
+	 * Returns a copy of automaton which also accepts every upper, lower and title case
+	 * variant of the code points it accepts (see {@link BoundedAutomata#foldCase}).
+	 *
+	 * @param automaton the automaton to fold, it is not modified
+	 * @param maxStates the most states of the folded automaton
+	 * @return a deterministic, case insensitive automaton
+	 * @throws IllegalArgumentException when the folded automaton needs more than maxStates states
+	 */
+	static Automaton caseInsensitive(final Automaton automaton, final int maxStates) {
+		return BoundedAutomata.minimize(BoundedAutomata.determinize(BoundedAutomata.foldCase(automaton), maxStates));
+	}
+}
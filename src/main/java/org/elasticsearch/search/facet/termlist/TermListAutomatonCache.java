@@ -0,0 +1,121 @@
+/* Copyright 2013 Endgame, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.search.facet.termlist;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.lucene.util.automaton.Automaton;
+import org.apache.lucene.util.automaton.CompiledAutomaton;
+import org.elasticsearch.ElasticSearchException;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * TermListAutomatonCache
+ *
+ * Node level cache of the automata compiled from regex, wildcard and fuzzy searches.
+ * Autocomplete clients send the same patterns over and over, compiling (and case
+ * folding) them is often more work than intersecting them with a segment.
+ *
+ * Patterns longer than {@link #MAX_PATTERN_LENGTH} are rejected before they are built,
+ * automata needing more states than {@link #MAX_STATES} while they are built, so a
+ * pathological pattern fails its request instead of keeping a search thread busy.
+ */
+public class TermListAutomatonCache extends AbstractComponent {
+
+	/** Number of compiled automata kept, 0 disables the cache. */
+	public static final String CACHE_SIZE = "termlist.automaton.cache_size";
+
+	/** Most states of a compiled automaton. */
+	public static final String MAX_STATES = "termlist.automaton.max_states";
+
+	/** Most chars of a regex or wildcard pattern. */
+	public static final String MAX_PATTERN_LENGTH = "termlist.automaton.max_pattern_length";
+
+	/**
+	 * Builds the automaton of a pattern.
+	 */
+	public interface Builder {
+		/**
+		 * @param maxStates the most states the automaton, and every automaton built on the way, may have
+		 * @throws IllegalArgumentException when the pattern is invalid or needs more than maxStates states
+		 */
+		Automaton build(int maxStates);
+	}
+
+	private final int maxStates;
+	private final int maxPatternLength;
+	private final Cache<String, CompiledAutomaton> cache;
+
+	@Inject
+	public TermListAutomatonCache(final Settings settings) {
+		super(settings);
+		this.maxStates = settings.getAsInt(MAX_STATES, 10000);
+		this.maxPatternLength = settings.getAsInt(MAX_PATTERN_LENGTH, 1000);
+		this.cache = CacheBuilder.newBuilder().maximumSize(Math.max(0, settings.getAsInt(CACHE_SIZE, 1000))).build();
+	}
+
+	/**
+	 * Returns the compiled automaton of a pattern, building it first if needed.
+	 *
+	 * @param key identifies the pattern and every option the automaton depends on
+	 * @param pattern the pattern, checked against the length limit
+	 * @param builder builds the automaton within the state limit
+	 * @throws IllegalArgumentException when the pattern is invalid or too large
+	 */
+	public CompiledAutomaton get(final String key, final String pattern, final Builder builder) {
+		if (pattern.length() > maxPatternLength) {
+			throw new IllegalArgumentException("pattern of [" + pattern.length() + "] chars is longer than the [" + maxPatternLength + "] allowed by ["
+					+ MAX_PATTERN_LENGTH + "]");
+		}
+
+		try {
+			return cache.get(key, new Callable<CompiledAutomaton>() {
+				@Override
+				public CompiledAutomaton call() throws Exception {
+					return new CompiledAutomaton(builder.build(maxStates), null, true);
+				}
+			});
+		} catch (ExecutionException e) {
+			throw rethrow(e.getCause());
+		} catch (UncheckedExecutionException e) {
+			throw rethrow(e.getCause());
+		}
+	}
+
+	private static RuntimeException rethrow(final Throwable cause) {
+		if (cause instanceof IllegalArgumentException) {
+			return (IllegalArgumentException) cause;
+		}
+		return new ElasticSearchException("failed to compile term list automaton", cause);
+	}
+
+	/**
+	 * @return the number of cached automata
+	 */
+	public long size() {
+		return cache.size();
+	}
+
+	public void clear() {
+		cache.invalidateAll();
+	}
+}
@@ -0,0 +1,255 @@
+/* Copyright 2013 Endgame, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.search.facet.termlist;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.SegmentReader;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.cache.RemovalListener;
+import org.elasticsearch.common.cache.RemovalNotification;
+import org.elasticsearch.common.cache.Weigher;
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+
+/**
+ * TermListCache
+ *
+ * Node level cache of the terms of a segment's field matching a search. Segments
+ * never change, so an entry stays valid until its segment is merged away, at which
+ * point it is dropped through the segment's core closed listener.
+ *
+ * The cache is bounded by the (estimated) bytes of the cached terms and evicts the
+ * least recently used entries, see {@link #CACHE_SIZE}. A size of 0 disables it.
+ */
+public class TermListCache extends AbstractComponent implements SegmentReader.CoreClosedListener {
+
+	/** Size of the cache, in bytes or as a percentage of the heap. */
+	public static final String CACHE_SIZE = "termlist.cache.size";
+
+	private static final int ENTRY_OVERHEAD = 2 * RamUsageEstimator.NUM_BYTES_OBJECT_HEADER + 8 * RamUsageEstimator.NUM_BYTES_OBJECT_REF;
+	private static final int TERM_OVERHEAD = RamUsageEstimator.NUM_BYTES_OBJECT_HEADER + RamUsageEstimator.NUM_BYTES_ARRAY_HEADER
+			+ 2 * RamUsageEstimator.NUM_BYTES_INT + 2 * RamUsageEstimator.NUM_BYTES_OBJECT_REF;
+
+	private final long sizeInBytes;
+	private final Cache<Key, Entry> cache;
+	private final ConcurrentMap<Object, Set<Key>> keysByReader = ConcurrentCollections.newConcurrentMap();		// the cached keys of each segment
+
+	@Inject
+	public TermListCache(final Settings settings) {
+		super(settings);
+
+		this.sizeInBytes = TermListSettings.getAsMemory(settings, CACHE_SIZE, "1%").bytes();
+
+		this.cache = CacheBuilder.newBuilder()
+				.maximumWeight(Math.max(sizeInBytes, 1))
+				.weigher(new Weigher<Key, Entry>() {
+					@Override
+					public int weigh(Key key, Entry entry) {
+						long weight = ENTRY_OVERHEAD + (key.search == null ? 0 : 2 * key.search.length()) + (key.after == null ? 0 : 2 * key.after.length())
+							+ (key.automaton == null ? 0 : 2 * key.automaton.length());
+						for (BytesRef term : entry.terms) {
+							weight += TERM_OVERHEAD + RamUsageEstimator.NUM_BYTES_INT + term.length;
+						}
+						return (int) Math.min(weight, Integer.MAX_VALUE);
+					}
+				})
+				.removalListener(new RemovalListener<Key, Entry>() {
+					@Override
+					public void onRemoval(RemovalNotification<Key, Entry> notification) {
+						final Set<Key> keys = keysByReader.get(notification.getKey().readerKey);
+						if (keys != null) {
+							keys.remove(notification.getKey());
+						}
+					}
+				})
+				.build();
+
+		logger.debug("using [{}] of the heap for the term list cache", new ByteSizeValue(sizeInBytes));
+	}
+
+	/**
+	 * @return is the cache enabled, and can it hold the terms of this reader
+	 */
+	public boolean canCache(final AtomicReader reader) {
+		return sizeInBytes > 0 && reader instanceof SegmentReader;
+	}
+
+	/**
+	 * @return the cached, sorted terms, or null when they are not cached
+	 */
+	public Entry get(final Key key) {
+		return cache.getIfPresent(key);
+	}
+
+	/**
+	 * Caches the terms matching key, the segment they belong to has to be a
+	 * {@link SegmentReader} (see {@link #canCache}) so we hear when it closes.
+	 */
+	public void put(final AtomicReader reader, final Key key, final Entry entry) {
+		Set<Key> keys = keysByReader.get(key.readerKey);
+		if (keys == null) {
+			final Set<Key> added = ConcurrentCollections.newConcurrentSet();
+			keys = keysByReader.putIfAbsent(key.readerKey, added);
+			if (keys == null) {
+				keys = added;
+				((SegmentReader) reader).addCoreClosedListener(this);
+			}
+		}
+		keys.add(key);
+		cache.put(key, entry);
+	}
+
+	/**
+	 * @return the number of cached segment term lists
+	 */
+	public long size() {
+		return cache.size();
+	}
+
+	@Override
+	public void onClose(final Object ownerCoreCacheKey) {
+		final Set<Key> keys = keysByReader.remove(ownerCoreCacheKey);
+		if (keys != null) {
+			cache.invalidateAll(keys);
+		}
+	}
+
+	public void clear() {
+		cache.invalidateAll();
+	}
+
+	/**
+	 * The matching terms of a segment's field and their doc frequencies.
+	 */
+	public static final class Entry {
+		private final BytesRef[] terms;
+		private final int[] docFreqs;
+		private final boolean truncated;
+
+		/**
+		 * @param terms the sorted terms
+		 * @param docFreqs the doc frequency of each term
+		 */
+		public Entry(final BytesRef[] terms, final int[] docFreqs) {
+			this(terms, docFreqs, false);
+		}
+
+		/**
+		 * @param terms the sorted terms
+		 * @param docFreqs the doc frequency of each term
+		 * @param truncated did more terms match than the limit of the list
+		 */
+		public Entry(final BytesRef[] terms, final int[] docFreqs, final boolean truncated) {
+			this.terms = terms;
+			this.docFreqs = docFreqs;
+			this.truncated = truncated;
+		}
+
+		/**
+		 * @return did more terms match than the limit of the list
+		 */
+		public boolean truncated() {
+			return truncated;
+		}
+
+		DocFreqIterator iterator() {
+			return DocFreqIterator.of(terms, docFreqs);
+		}
+	}
+
+	/**
+	 * A segment's field plus the normalized matching parameters.
+	 */
+	public static final class Key {
+		private final Object readerKey;
+		private final String field;
+		private final String search;
+		private final boolean prefix;
+		private final boolean caseInsensitive;
+		private final int limit;
+		private final String after;
+		private final String automaton;
+		private final boolean docFreqs;
+
+		/**
+		 * @param reader the segment
+		 * @param field the field the terms come from
+		 * @param search the search, null to match every term
+		 * @param prefix match the start of the terms only
+		 * @param caseInsensitive disregard case
+		 * @param limit the most terms listed
+		 * @param after the terms listed sort after this cursor, null for all of them
+		 * @param automaton identifies the automaton the terms are matched with, null for prefix and substring searches
+		 * @param docFreqs does the entry hold the doc frequencies of the terms, rather than zeros
+		 */
+		public Key(final AtomicReader reader, final String field, final String search, final boolean prefix, final boolean caseInsensitive, final int limit,
+				final String after, final String automaton, final boolean docFreqs) {
+			this.readerKey = reader.getCoreCacheKey();
+			this.field = field;
+			// without a search the flags do not change the result, with one case insensitive searches differing only in case are the same
+			this.search = search == null ? null : (caseInsensitive ? TermBytesMatcher.lowerCase(search) : search);
+			this.prefix = search != null && prefix;
+			this.caseInsensitive = search != null && caseInsensitive;
+			this.limit = limit;
+			this.after = after;
+			this.automaton = automaton;
+			this.docFreqs = docFreqs;
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			final Key other = (Key) o;
+			return readerKey == other.readerKey
+					&& field.equals(other.field)
+					&& (search == null ? other.search == null : search.equals(other.search))
+					&& prefix == other.prefix
+					&& caseInsensitive == other.caseInsensitive
+					&& limit == other.limit
+					&& (after == null ? other.after == null : after.equals(other.after))
+					&& (automaton == null ? other.automaton == null : automaton.equals(other.automaton))
+					&& docFreqs == other.docFreqs;
+		}
+
+		@Override
+		public int hashCode() {
+			int result = System.identityHashCode(readerKey);
+			result = 31 * result + field.hashCode();
+			result = 31 * result + (search == null ? 0 : search.hashCode());
+			result = 31 * result + (prefix ? 1 : 0);
+			result = 31 * result + (caseInsensitive ? 1 : 0);
+			result = 31 * result + limit;
+			result = 31 * result + (after == null ? 0 : after.hashCode());
+			result = 31 * result + (automaton == null ? 0 : automaton.hashCode());
+			result = 31 * result + (docFreqs ? 1 : 0);
+			return result;
+		}
+	}
+}
@@ -0,0 +1,95 @@
+/* Copyright 2013 Endgame, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.search.facet.termlist;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+
+/**
+ * TermListCircuitBreaker
+ *
+ * Node level account of the heap held by the term lists being collected. Each request
+ * reserves the bytes of its terms as it collects them and gives them back once its shard
+ * facet is built. A request whose terms would push the total past {@link #LIMIT} fails
+ * with a {@link TermListCircuitBreakingException} instead of running the node out of heap.
+ */
+public class TermListCircuitBreaker extends AbstractComponent {
+
+	/** Heap the collected term lists may hold together, in bytes or as a percentage of the heap, 0 for no limit. */
+	public static final String LIMIT = "termlist.breaker.limit";
+
+	private final long limit;
+	private final AtomicLong used = new AtomicLong();
+	private final AtomicLong trippedCount = new AtomicLong();
+
+	@Inject
+	public TermListCircuitBreaker(final Settings settings) {
+		super(settings);
+
+		this.limit = TermListSettings.getAsMemory(settings, LIMIT, "20%").bytes();
+
+		logger.debug("term lists may hold [{}] of the heap while collecting", new ByteSizeValue(limit));
+	}
+
+	/**
+	 * Reserves bytes, unless the reservation would go over the limit.
+	 *
+	 * @param bytes the bytes about to be allocated
+	 * @param label what the bytes are for, in the error message
+	 * @throws TermListCircuitBreakingException when the limit would be exceeded, nothing is reserved then
+	 */
+	public void addEstimateBytesAndMaybeBreak(final long bytes, final String label) throws TermListCircuitBreakingException {
+		final long total = used.addAndGet(bytes);
+		if (limit > 0 && total > limit) {
+			used.addAndGet(-bytes);
+			trippedCount.incrementAndGet();
+			throw new TermListCircuitBreakingException("term list [" + label + "] would hold [" + new ByteSizeValue(total)
+					+ "] of term lists, more than the limit of [" + new ByteSizeValue(limit) + "] set by [" + LIMIT + "]");
+		}
+	}
+
+	/**
+	 * Gives back reserved bytes.
+	 */
+	public void release(final long bytes) {
+		used.addAndGet(-bytes);
+	}
+
+	/**
+	 * @return the bytes reserved by the term lists being collected
+	 */
+	public long used() {
+		return used.get();
+	}
+
+	/**
+	 * @return the limit in bytes, 0 for none
+	 */
+	public long limit() {
+		return limit;
+	}
+
+	/**
+	 * @return the number of requests which failed on the limit
+	 */
+	public long trippedCount() {
+		return trippedCount.get();
+	}
+}
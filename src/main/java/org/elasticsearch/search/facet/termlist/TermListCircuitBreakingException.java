@@ -0,0 +1,36 @@
+/* Copyright 2013 Endgame, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.search.facet.termlist;
+
+import org.elasticsearch.ElasticSearchException;
+import org.elasticsearch.rest.RestStatus;
+
+/**
+ * Thrown when collecting a term list would hold more heap than {@link TermListCircuitBreaker#LIMIT} allows.
+ */
+public class TermListCircuitBreakingException extends ElasticSearchException {
+
+	private static final long serialVersionUID = 1L;
+
+	public TermListCircuitBreakingException(final String msg) {
+		super(msg);
+	}
+
+	@Override
+	public RestStatus status() {
+		return RestStatus.SERVICE_UNAVAILABLE;
+	}
+}
@@ -40,4 +40,34 @@ public interface TermListFacet extends Facet, Iterable<Object> {
      */
     List<? extends Object> getEntries();
 
+    /**
+     * The doc count of each entry, in the order of the entries. Empty unless the
+     * counts were requested with doc_count.
+     */
+    List<Long> counts();
+
+    /**
+     * The cursor of the next page, pass it as after to get the terms following this
+     * page. Null unless the list is sorted, sized and full.
+     */
+    String next();
+
+    /**
+     * True when matching terms were left out of the list, because a shard hit its
+     * shard_size or because the merged list was cut at size.
+     */
+    boolean truncated();
+
+    /**
+     * True when a shard stopped enumerating its terms at its deadline (the request
+     * timeout or max_time_per_shard), the list then only holds the terms found in time.
+     */
+    boolean timedOut();
+
+    /**
+     * What each shard did to build its list, one profile per shard. Empty unless
+     * requested with profile.
+     */
+    List<TermListProfile> profile();
+
 }
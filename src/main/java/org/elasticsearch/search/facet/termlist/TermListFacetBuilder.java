@@ -30,9 +30,26 @@ public class TermListFacetBuilder extends FacetBuilder {
     private List<String> fields;
     private String search;
     private int maxPerShard;
+    private int size;
     private boolean prefix = false;
     private boolean caseInsensitive = true;
     private boolean sort = true;
+    private boolean queryScoped = false;
+    private Boolean suffixIndex;
+    private Boolean lowercaseIndex;
+    private boolean docCount = false;
+    private String order;
+    private String rank;
+    private String after;
+    private boolean parallel = false;
+    private int fuzzy = 0;
+    private Boolean fuzzyTranspositions;
+    private int fuzzyPrefixLength = 0;
+    private String regex;
+    private String wildcard;
+    private String maxTimePerShard;
+    private boolean profile = false;
+    private boolean globalOrdinals = false;
     
     /**
      * Instantiates a new term list facet builder.
@@ -61,6 +78,197 @@ public class TermListFacetBuilder extends FacetBuilder {
         return this;
     }
     
+    /**
+     * Only list terms occurring in docs matching the query. Defaults to false,
+     * listing the terms of every doc of the shard.
+     *
+     * @param queryScoped
+     * @return the term list facet builder
+     */
+    public TermListFacetBuilder queryScoped(final boolean queryScoped) {
+        this.queryScoped = queryScoped;
+        return this;
+    }
+    
+    /**
+     * Answer substring searches from a suffix index built over each segment's terms,
+     * trading heap for speed. Defaults to the fields listed in the index.termlist.suffix_index
+     * index setting.
+     *
+     * @param suffixIndex
+     * @return the term list facet builder
+     */
+    public TermListFacetBuilder suffixIndex(final boolean suffixIndex) {
+        this.suffixIndex = suffixIndex;
+        return this;
+    }
+    
+    /**
+     * Answer case insensitive prefix searches from an FST of the lowercased terms built
+     * over each segment. Defaults to the fields listed in the index.termlist.lowercase_index
+     * index setting.
+     *
+     * @param lowercaseIndex
+     * @return the term list facet builder
+     */
+    public TermListFacetBuilder lowercaseIndex(final boolean lowercaseIndex) {
+        this.lowercaseIndex = lowercaseIndex;
+        return this;
+    }
+    
+    /**
+     * Return the number of docs holding each term along with it. Defaults to false.
+     *
+     * @param docCount
+     * @return the term list facet builder
+     */
+    public TermListFacetBuilder docCount(final boolean docCount) {
+        this.docCount = docCount;
+        return this;
+    }
+    
+    /**
+     * Order the terms by "term" (the default, see sort) or by "count", most frequent
+     * first. Ordering by count returns the counts.
+     *
+     * @param order
+     * @return the term list facet builder
+     */
+    public TermListFacetBuilder order(final String order) {
+        this.order = order;
+        return this;
+    }
+    
+    /**
+     * Rank the terms by "popularity": the most frequent prefix matches, read from an FST
+     * of each segment's terms weighted by doc frequency rather than by enumerating every
+     * match. Implies ordering by count.
+     *
+     * @param rank
+     * @return the term list facet builder
+     */
+    public TermListFacetBuilder rank(final String rank) {
+        this.rank = rank;
+        return this;
+    }
+    
+    /**
+     * Only list the terms sorting after this cursor, the next of the previous page.
+     * Needs sort and a size.
+     *
+     * @param after
+     * @return the term list facet builder
+     */
+    public TermListFacetBuilder after(final String after) {
+        this.after = after;
+        return this;
+    }
+    
+    /**
+     * Match the terms within this many edits of the search (1 or 2) instead of the
+     * terms containing it. With prefix the terms starting with something close to the
+     * search match.
+     *
+     * @param fuzzy the most edits, 0 to turn fuzzy matching off
+     * @return the term list facet builder
+     */
+    public TermListFacetBuilder fuzzy(final int fuzzy) {
+        this.fuzzy = fuzzy;
+        return this;
+    }
+    
+    /**
+     * Does swapping two adjacent chars count as a single edit. Defaults to true.
+     *
+     * @param fuzzyTranspositions
+     * @return the term list facet builder
+     */
+    public TermListFacetBuilder fuzzyTranspositions(final boolean fuzzyTranspositions) {
+        this.fuzzyTranspositions = fuzzyTranspositions;
+        return this;
+    }
+    
+    /**
+     * The number of leading chars of the search which have to match exactly. Defaults to 0.
+     *
+     * @param fuzzyPrefixLength
+     * @return the term list facet builder
+     */
+    public TermListFacetBuilder fuzzyPrefixLength(final int fuzzyPrefixLength) {
+        this.fuzzyPrefixLength = fuzzyPrefixLength;
+        return this;
+    }
+    
+    /**
+     * List the terms matched as a whole by a Lucene regular expression, instead of using a search.
+     *
+     * @param regex
+     * @return the term list facet builder
+     */
+    public TermListFacetBuilder regex(final String regex) {
+        this.regex = regex;
+        return this;
+    }
+    
+    /**
+     * List the terms matched as a whole by a wildcard pattern (* and ?), instead of using a search.
+     *
+     * @param wildcard
+     * @return the term list facet builder
+     */
+    public TermListFacetBuilder wildcard(final String wildcard) {
+        this.wildcard = wildcard;
+        return this;
+    }
+    
+    /**
+     * Time each shard may spend enumerating terms, it then returns the terms found so
+     * far and the facet is flagged as timed out. Defaults to the request timeout.
+     *
+     * @param maxTimePerShard a time value, like 500ms
+     * @return the term list facet builder
+     */
+    public TermListFacetBuilder maxTimePerShard(final String maxTimePerShard) {
+        this.maxTimePerShard = maxTimePerShard;
+        return this;
+    }
+    
+    /**
+     * Return what each shard did to build its list: segments and fields visited,
+     * terms enumerated and matched, whether it stopped early and the time it took.
+     *
+     * @param profile
+     * @return the term list facet builder
+     */
+    public TermListFacetBuilder profile(final boolean profile) {
+        this.profile = profile;
+        return this;
+    }
+    
+    /**
+     * Match the terms of each field once in a sorted table of the distinct terms of the
+     * whole shard, built once per reader and cached, instead of in every segment.
+     *
+     * @param globalOrdinals
+     * @return the term list facet builder
+     */
+    public TermListFacetBuilder globalOrdinals(final boolean globalOrdinals) {
+        this.globalOrdinals = globalOrdinals;
+        return this;
+    }
+    
+    /**
+     * Enumerate the segments of each shard in parallel on the node's term list pool.
+     * Ignored for query scoped lists.
+     *
+     * @param parallel
+     * @return the term list facet builder
+     */
+    public TermListFacetBuilder parallel(final boolean parallel) {
+        this.parallel = parallel;
+        return this;
+    }
+    
     /**
      * @param caseInsensitive
      * @return
@@ -93,7 +301,7 @@ public class TermListFacetBuilder extends FacetBuilder {
     }
 
     /**
-     * Max term results per shard. Defaults to 1000.
+     * Max term results per shard. Defaults to 1000, or to a multiple of size when a size is set.
      *
      * @param maxPerShard the max number of results per shard
      * @return the term list facet builder
@@ -103,18 +311,57 @@ public class TermListFacetBuilder extends FacetBuilder {
         return this;
     }
 
+    /**
+     * Same as {@link #maxPerShard}.
+     *
+     * @param shardSize the max number of results per shard
+     * @return the term list facet builder
+     */
+    public TermListFacetBuilder shardSize(final int shardSize) {
+        return maxPerShard(shardSize);
+    }
+
+    /**
+     * Max terms of the reduced facet, the smallest ones when sorted. Defaults to 0, no limit.
+     *
+     * @param size the max number of results
+     * @return the term list facet builder
+     */
+    public TermListFacetBuilder size(final int size) {
+        this.size = size;
+        return this;
+    }
+
     /* (non-Javadoc)
      * @see org.elasticsearch.common.xcontent.ToXContent#toXContent(org.elasticsearch.common.xcontent.XContentBuilder, org.elasticsearch.common.xcontent.ToXContent.Params)
      */
     @Override
     public XContentBuilder toXContent(final XContentBuilder builder, final Params params) throws IOException {
+        builder.startObject(name);
+        builder.field(TermListFacet.TYPE);
+        paramsToXContent(builder);
+        addFilterFacetAndGlobal(builder, params);
+        
+        builder.endObject();
+        
+        return builder;
+    }
+
+    /**
+     * Writes the parameters of the list as an object, the body of the facet
+     * or of a _termlist request.
+     *
+     * @param builder the builder
+     * @return the builder
+     * @throws IOException
+     */
+    public XContentBuilder paramsToXContent(final XContentBuilder builder) throws IOException {
         
     	if( fields == null || fields.isEmpty() ) {
             throw new SearchSourceBuilderException("field name must be set for term list facet [" + name + "]");
         }
         
-        builder.startObject(name);
-        builder.startObject(TermListFacet.TYPE);
+        builder.startObject();
         
         if(fields != null)
         	builder.field("fields", fields);
@@ -126,13 +373,61 @@ public class TermListFacetBuilder extends FacetBuilder {
         builder.field("sort", sort);
         builder.field("case_insenstive", caseInsensitive);
         
+        if(queryScoped)
+            builder.field("query_scoped", queryScoped);
+        
+        if(suffixIndex != null)
+            builder.field("suffix_index", suffixIndex);
+        
+        if(lowercaseIndex != null)
+            builder.field("lowercase_index", lowercaseIndex);
+        
+        if(docCount)
+            builder.field("doc_count", docCount);
+        
+        if(order != null)
+            builder.field("order", order);
+        
+        if(rank != null)
+            builder.field("rank", rank);
+        
+        if(after != null)
+            builder.field("after", after);
+        
+        if(parallel)
+            builder.field("parallel", parallel);
+        
+        if(fuzzy > 0)
+            builder.field("fuzzy", fuzzy);
+        
+        if(fuzzyTranspositions != null)
+            builder.field("fuzzy_transpositions", fuzzyTranspositions);
+        
+        if(fuzzyPrefixLength > 0)
+            builder.field("fuzzy_prefix_length", fuzzyPrefixLength);
+        
+        if(regex != null)
+            builder.field("regex", regex);
+        
+        if(wildcard != null)
+            builder.field("wildcard", wildcard);
+        
+        if(maxTimePerShard != null)
+            builder.field("max_time_per_shard", maxTimePerShard);
+        
+        if(profile)
+            builder.field("profile", profile);
+        
+        if(globalOrdinals)
+            builder.field("global_ordinals", globalOrdinals);
+        
         if(maxPerShard > 0)
             builder.field("max_per_shard", maxPerShard);
-        else
-            builder.field("max_per_shard", 1000);
+        else if(size <= 0)
+            builder.field("max_per_shard", 1000);		// with a size the shards derive their limit from it
         
-        builder.endObject();
-        addFilterFacetAndGlobal(builder, params);
+        if(size > 0)
+            builder.field("size", size);
         
         builder.endObject();
         
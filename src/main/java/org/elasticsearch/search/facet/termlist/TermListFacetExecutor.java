@@ -16,18 +16,53 @@
 package org.elasticsearch.search.facet.termlist;
 
 import java.io.IOException;
-import java.util.Collection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.lucene.index.AtomicReader;
 import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DocsEnum;
 import org.apache.lucene.index.Fields;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.Terms;
 import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.PrefixTermsEnum;
+import org.apache.lucene.util.ArrayUtil;
 import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.IntroSorter;
+import org.apache.lucene.util.automaton.CompiledAutomaton;
+import org.elasticsearch.common.Strings;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.index.fielddata.BytesValues;
+import org.elasticsearch.index.fielddata.FieldDataStats;
+import org.elasticsearch.index.fielddata.IndexFieldData;
+import org.elasticsearch.index.fielddata.ordinals.Ordinals;
+import org.elasticsearch.index.mapper.FieldMapper;
 import org.elasticsearch.search.facet.FacetExecutor;
+import org.elasticsearch.search.facet.FacetPhaseExecutionException;
 import org.elasticsearch.search.facet.InternalFacet;
 import org.elasticsearch.search.internal.SearchContext;
 
@@ -36,34 +71,304 @@ import org.elasticsearch.search.internal.SearchContext;
  */
 public class TermListFacetExecutor extends FacetExecutor {
 	protected final ESLogger logger = Loggers.getLogger(getClass());
-	private List<String> fields;
-	private String search;
-	private boolean prefix;
-	private Collection<String> uniqueTerms;
+	
+	/** The clock is read once every this many terms (a power of 2). */
+	static final int DEADLINE_CHECK_INTERVAL = 16;
+	
+	private final List<String> fields;
+	private final String search;
+	private final boolean prefix;
+	private final TreeMap<String, Long> page;		// the smallest terms and their doc counts, when paging
+	private final TermBytesHash collected;			// the listed terms and their doc counts, when not paging
 	private final int maxPerShard;
-	private boolean caseInsensitive;
-	private boolean sort;
+	private final int size;
+	private final int pageSize;						// > 0 when only the pageSize smallest terms are kept
+	private final String after;
+	private final BytesRef afterBytes;
+	private final boolean docCount;
+	private final boolean caseInsensitive;
+	private final boolean sort;
+	private final boolean orderByCount;
+	private final boolean queryScoped;
+	private final boolean merged;					// sorted lists merge the terms of all segments and fields in term order
+	private final boolean topByCount;				// so do count ordered lists, keeping the most frequent of the merged terms
+	private final String facetName;
+	private final TermListOptions options;
+	private final SearchContext searchContext;
+	private final CompiledAutomaton searchAutomaton;	// the terms matching a search other than a plain prefix
+	private final String automatonKey;				// identifies a given automaton in cache keys, null for prefix and contains searches
+	private final TermBytesMatcher termMatcher;
+	private final Set<String> fieldDataFields;
+	private final TermListCache cache;
+	private final Set<String> suffixIndexFields;
+	private final Set<String> lowercaseIndexFields;
+	private final TermListSidecarCache sidecars;
+	private final TermListCircuitBreaker breaker;
+	private final ExecutorService executor;			// enumerates the segments in parallel, null to enumerate them in setNextReader
+	private boolean truncated;						// were matching terms left out because of a limit
+	private final long deadline;					// System.nanoTime() at which enumeration stops, Long.MAX_VALUE for never
+	private volatile boolean timedOut;				// did enumeration stop at the deadline, read by the parallel tasks
+	private final boolean profile;					// return what the shard did with the list
+	private final boolean globalOrdinals;			// match terms in the shard wide table of each field rather than in each segment
+	private final boolean popularity;				// list the most frequent prefix matches of each segment from its popularity index
+	private final Map<String, GlobalMatches> globalMatches = new HashMap<String, GlobalMatches>();		// per field, when query scoped
+	private final TermListStats stats;
+	private int segmentsVisited;
+	private int fieldsVisited;
+	private long termsEnumerated;					// read on the search thread, the iterators of the segments count their own
+	private final Queue<CountingIterator> countingIterators = new ConcurrentLinkedQueue<CountingIterator>();
+	private long termsMatched;
+	private final AtomicInteger cacheHits = new AtomicInteger();
+	private final AtomicInteger cacheMisses = new AtomicInteger();
+	private long nanos;
 
+	/**
+	 * @param pool enumerates the segments when the options ask for it
+	 */
+	public TermListFacetExecutor(String facetName, TermListOptions options, SearchContext sc, TermListCache cache, TermListSidecarCache sidecars,
+			ExecutorService pool, TermListCircuitBreaker breaker, TermListStats stats) {
+		logger.debug("TermListFacetExecutor : constructor : START {} : {} : {} ", facetName , options.fields() , options.search());
 
-	public TermListFacetExecutor(String facetName, List<String> fields, String search, boolean prefix, SearchContext sc, int maxPerShard, boolean caseInsensitive, boolean sort) {
-		logger.debug("TermListFacetExecutor : constructor : START {} : {} : {} ", facetName , fields , search);
-
-		this.fields = fields;
-		this.maxPerShard = maxPerShard;
-		this.search = search;
-		this.prefix = prefix;
-		this.caseInsensitive = caseInsensitive;
-		this.uniqueTerms = new HashSet<String>();
-		this.sort = sort;
+		this.facetName = facetName;
+		this.options = options;
+		this.searchContext = sc;
+		this.fields = options.fields();
+		this.maxPerShard = options.maxPerShard();
+		this.size = options.size();
+		this.search = options.search();
+		this.prefix = options.prefix();
+		this.caseInsensitive = options.caseInsensitive();
+		this.after = options.after();
+		this.afterBytes = after == null ? null : new BytesRef(after);
+		this.sort = options.sort();
+		this.orderByCount = options.orderByCount();
+		this.queryScoped = options.queryScoped();
+		this.docCount = options.docCount() || orderByCount;
+		// sorted and sized lists are pages, the smallest terms of the shard (after the cursor) are kept
+		this.pageSize = sort && !orderByCount && size > 0 ? size : 0;
+		
+		if (pageSize > 0) {
+			// a page never holds more than size terms
+			this.page = new TreeMap<String, Long>(InternalTermListFacet.TERM_ORDER);
+			this.collected = null;
+		} else {
+			// max_per_shard may be large, the terms stay bytes and their memory is accounted
+			this.page = null;
+			this.collected = new TermBytesHash(breaker, facetName, this.docCount);
+			sc.addReleasable(collected);		// in case the facet is never built
+		}
+		this.cache = cache;
+		this.suffixIndexFields = options.suffixIndexFields();
+		this.lowercaseIndexFields = options.lowercaseIndexFields();
+		this.sidecars = sidecars;
+		this.breaker = breaker;
+		this.executor = options.parallel() && !queryScoped ? pool : null;
+		this.profile = options.profile();
+		final CompiledAutomaton automaton = options.automaton();
+		// other searches and query scoped lists fall back on ordering the enumerated terms by count
+		this.popularity = options.popularity() && !queryScoped && automaton == null && (search == null || search.isEmpty() || prefix);
+		this.globalOrdinals = options.globalOrdinals() && !this.popularity && sidecars.canCache(sc.searcher().getIndexReader());
+		// each distinct term of a merged enumeration comes once with its doc frequency summed over the segments
+		this.topByCount = orderByCount && !queryScoped && !this.popularity;
+		this.merged = (sort && !orderByCount && !queryScoped) || topByCount;
+		this.stats = stats;
+		final long timeoutMillis = options.timeoutMillis();
+		this.deadline = timeoutMillis < 0 ? Long.MAX_VALUE : System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		this.automatonKey = automaton == null ? null : options.automatonKey();
+		if (automaton != null) {
+			this.searchAutomaton = automaton;
+		} else {
+			this.searchAutomaton = (search != null && !prefix) ? new CompiledAutomaton(TermListAutomata.contains(search, caseInsensitive), null, true) : null;
+		}
+		
+		if (queryScoped) {
+			// terms are checked one at a time once we know they hit a matching doc
+			this.termMatcher = search == null || automaton != null ? null : new TermBytesMatcher(search, prefix, caseInsensitive);
+		} else {
+			this.termMatcher = null;
+		}
+		this.fieldDataFields = loadedFieldDataFields(sc, fields);
 		
 		logger.debug("TermListFacetExecutor : constructor : END ");
 	}
 
+	/**
+	 * The fields which already have field data loaded on this shard, their ordinals
+	 * let us find the terms of the matching docs without touching the postings, and
+	 * search their sorted terms in memory. Filtered field data misses some terms.
+	 */
+	private static Set<String> loadedFieldDataFields(SearchContext sc, List<String> fields) {
+		final Set<String> loaded = new HashSet<String>();
+		final FieldDataStats stats = sc.indexShard().fieldDataStats(fields.toArray(new String[fields.size()]));
+		
+		if (stats.getFields() != null) {
+			for (String field : fields) {
+				final FieldMapper<?> mapper = sc.smartNameFieldMapper(field);
+				if (mapper != null && stats.getFields().get(mapper.names().indexName()) > 0
+						&& mapper.fieldDataType().getSettings().getByPrefix("filter.").getAsMap().isEmpty()) {
+					loaded.add(field);
+				}
+			}
+		}
+		return loaded;
+	}
+
 	@Override
 	public InternalFacet buildFacet(String facetName) {
-		logger.debug("TermListFacetExecutor : buildFacet : CALLED {} : {} " ,  facetName , uniqueTerms);
+		logger.debug("TermListFacetExecutor : buildFacet : CALLED {} : {} " ,  facetName , page != null ? page.size() : collected.size());
+		final long start = System.nanoTime();
+		final boolean earlyStop = truncated || timedOut;		// before the list is cut at size, which stops nothing
+
+		Object[] entries;
+		long[] counts;
+		if (page != null) {
+			entries = page.keySet().toArray();
+			counts = new long[entries.length];
+			int i = 0;
+			for (Long count : page.values()) {
+				counts[i++] = count;
+			}
+		} else {
+			try {
+				// sorted shard lists let the reduce merge them instead of hashing every entry
+				final int[] ids = collected.ids(sort && !orderByCount);
+				entries = new Object[ids.length];
+				counts = new long[ids.length];
+				for (int i = 0; i < ids.length; i++) {
+					entries[i] = collected.string(ids[i]);
+					counts[i] = collected.count(ids[i]);
+				}
+			} finally {
+				collected.release();
+			}
+		}
+		
+		if (orderByCount) {
+			// the shard counts are partial, every listed term goes to the reduce which sums them
+			sortByCount(entries, counts);
+			if (entries.length > maxPerShard) {
+				// the segment lists were summed, the shard keeps the most frequent of all
+				entries = Arrays.copyOf(entries, maxPerShard);
+				counts = Arrays.copyOf(counts, maxPerShard);
+				truncated = true;
+			}
+		} else if (size > 0 && entries.length > size) {
+			// the reduced facet never holds more than size entries, nor do the size smallest of all shards
+			entries = Arrays.copyOf(entries, size);
+			counts = Arrays.copyOf(counts, size);
+			truncated = true;
+		}
+		
+		nanos += System.nanoTime() - start;
+		long enumerated = termsEnumerated;
+		for (CountingIterator it : countingIterators) {
+			enumerated += it.count;		// the parallel tasks are done, their counts are visible
+		}
+		final String shard = searchContext.shardTarget().toString();
+		stats.record(shard, searchContext.shardTarget().index(), Strings.collectionToCommaDelimitedString(fields), nanos, enumerated,
+				cacheHits.get(), cacheMisses.get(), utf8Length(entries), this);
+		
+		List<TermListProfile> profiles = null;
+		if (profile) {
+			profiles = Collections.singletonList(new TermListProfile(shard, segmentsVisited, fieldsVisited, enumerated, termsMatched, earlyStop, nanos));
+		}
+		return new InternalTermListFacet(facetName, entries, docCount ? counts : null, options, truncated, timedOut, profiles);
+	}
+	
+	/**
+	 * @return the UTF-8 bytes of the entries, without decoding them
+	 */
+	private static long utf8Length(final Object[] entries) {
+		long length = 0;
+		for (Object entry : entries) {
+			final String string = (String) entry;
+			for (int i = 0; i < string.length(); i++) {
+				final char c = string.charAt(i);
+				length += c < 0x80 ? 1 : c < 0x800 ? 2 : Character.isSurrogate(c) ? 2 : 3;		// a pair is 4 bytes
+			}
+		}
+		return length;
+	}
+	
+	/**
+	 * The facet parameters, for the slow log.
+	 */
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder();
+		sb.append("facet [").append(facetName).append("], fields ").append(fields);
+		if (search != null) {
+			sb.append(", search [").append(search).append("], prefix [").append(prefix).append("], case_insensitive [").append(caseInsensitive).append(']');
+		}
+		if (automatonKey != null) {
+			sb.append(", automaton [").append(automatonKey).append(']');
+		}
+		sb.append(", sort [").append(sort).append("], order [").append(popularity ? "popularity" : orderByCount ? "count" : "term").append(']');
+		sb.append(", size [").append(size).append("], max_per_shard [").append(maxPerShard).append(']');
+		if (after != null) {
+			sb.append(", after [").append(after).append(']');
+		}
+		sb.append(", doc_count [").append(docCount).append("], query_scoped [").append(queryScoped).append("], parallel [").append(executor != null).append(']');
+		return sb.toString();
+	}
+	
+	/**
+	 * Sorts the entries by descending count then term, along with their counts.
+	 */
+	private static void sortByCount(final Object[] entries, final long[] counts) {
+		new IntroSorter() {
+			private String pivotTerm;
+			private long pivotCount;
+			
+			@Override
+			protected int compare(int i, int j) {
+				final int cmp = Long.compare(counts[j], counts[i]);
+				return cmp != 0 ? cmp : InternalTermListFacet.TERM_ORDER.compare((String) entries[i], (String) entries[j]);
+			}
+			
+			@Override
+			protected void swap(int i, int j) {
+				final Object entry = entries[i];
+				entries[i] = entries[j];
+				entries[j] = entry;
+				final long count = counts[i];
+				counts[i] = counts[j];
+				counts[j] = count;
+			}
+			
+			@Override
+			protected void setPivot(int i) {
+				pivotTerm = (String) entries[i];
+				pivotCount = counts[i];
+			}
+			
+			@Override
+			protected int comparePivot(int j) {
+				final int cmp = Long.compare(counts[j], pivotCount);
+				return cmp != 0 ? cmp : InternalTermListFacet.TERM_ORDER.compare(pivotTerm, (String) entries[j]);
+			}
+		}.sort(0, entries.length);
+	}
 
-		return new InternalTermListFacet(facetName, uniqueTerms.toArray(), sort);
+	/**
+	 * Looks at the clock every {@link #DEADLINE_CHECK_INTERVAL} terms, once the deadline
+	 * passed every enumeration stops and the shard returns the terms found so far.
+	 * 
+	 * @param terms the terms enumerated so far by the calling loop
+	 * @return has the deadline passed
+	 */
+	private boolean timedOut(int terms) {
+		if (timedOut) {
+			return true;
+		}
+		if (deadline == Long.MAX_VALUE || (terms & (DEADLINE_CHECK_INTERVAL - 1)) != 0) {
+			return false;
+		}
+		if (System.nanoTime() - deadline >= 0) {
+			logger.debug("term list facet [{}] ran out of time, returning partial results", facetName);
+			timedOut = true;
+		}
+		return timedOut;
 	}
 
 	@Override
@@ -73,11 +378,35 @@ public class TermListFacetExecutor extends FacetExecutor {
 		return new MyCollector(fields, search, caseInsensitive);
 	}
 
+	/**
+	 * Lists the terms of the shard without a query, each segment goes through the
+	 * collector as a search would hand it over.
+	 * 
+	 * @param facetName the facet name
+	 * @param reader the reader of the shard
+	 * @return the shard's list
+	 */
+	public InternalFacet listShard(String facetName, IndexReader reader) throws IOException {
+		if (queryScoped) {
+			throw new FacetPhaseExecutionException(facetName, "[query_scoped] lists the terms of the docs matching a query, use the term_list facet of a search");
+		}
+		final Collector collector = collector();
+		for (AtomicReaderContext context : reader.leaves()) {
+			collector.setNextReader(context);
+		}
+		collector.postCollection();
+		return buildFacet(facetName);
+	}
+
 	public class MyCollector extends FacetExecutor.Collector {
 		private List<String> fields;
 		private String search;
 		private boolean caseInsensitive;
 		
+		private AtomicReaderContext context;		// the segment being collected, when query scoped
+		private FixedBitSet docs;					// its docs matching the query
+		private final List<AtomicReaderContext> segments = new ArrayList<AtomicReaderContext>();		// enumerated at the end, when merged or parallel
+		
 		public MyCollector(List<String> fields, String search, boolean caseInsensitive) {
 			this.fields = fields;
 			this.search = search;
@@ -87,21 +416,59 @@ public class TermListFacetExecutor extends FacetExecutor {
 		@Override
 		public void postCollection() {
 			logger.debug("MyCollector : postCollection : CALLED");
+			final long start = System.nanoTime();
 
-			// do nothing
+			if (queryScoped) {
+				collectQueryScoped();
+				addGlobalMatches();
+			} else if (globalOrdinals) {
+				collectGlobal();
+			} else if (executor != null) {
+				collectParallel();
+			} else if (merged) {
+				collectMerged();
+			}
+			
+			nanos += System.nanoTime() - start;
 		}
 
 		@Override
 		public void collect(int doc) throws IOException {
-			logger.debug("MyCollector : collect : CALLED ");
-
-			// do nothing
+			if (docs != null) {
+				docs.set(doc);
+			}
 		}
 
 		@Override
 		public void setNextReader(AtomicReaderContext context) throws IOException {
 			logger.debug("MyCollector : setNextReader : START : {} : {} " , search , fields );
-
+			final long start = System.nanoTime();
+			try {
+				nextReader(context);
+			} finally {
+				nanos += System.nanoTime() - start;
+			}
+		}
+		
+		private void nextReader(AtomicReaderContext context) throws IOException {
+			if (queryScoped) {
+				// the terms of the previous segment can be resolved now that all its docs are in
+				collectQueryScoped();
+				this.context = context;
+				this.docs = new FixedBitSet(context.reader().maxDoc());
+				return;
+			}
+			
+			if (timedOut) {
+				return;		// the remaining segments are skipped
+			}
+			
+			if (executor != null || merged || globalOrdinals) {
+				// the query plays no part, the segments are all enumerated at once in postCollection
+				segments.add(context);
+				return;
+			}
+			
 			if(logger.isDebugEnabled())
 			{
 				Fields printDebugfields = context.reader().fields();
@@ -113,15 +480,9 @@ public class TermListFacetExecutor extends FacetExecutor {
 				logger.debug("Fields in this Context : [ {} ]", sb);
 			}
 			
-			Terms terms = null;
-			TermsEnum te = null;
+			segmentsVisited++;
+			DocFreqIterator te = null;
 			BytesRef byteRef = null;
-			String formattedSearch = search;
-			
-			if(caseInsensitive && formattedSearch != null)
-			{
-				formattedSearch = search.toLowerCase();
-			} 
 			
 			// two optional flags can control the matching done here
 			// prefix - true/false to decide to match only the start of the terms
@@ -130,54 +491,840 @@ public class TermListFacetExecutor extends FacetExecutor {
 			
 			outerloopoffields:
 			for (String myfield : this.fields) {
-				terms = context.reader().terms(myfield);
-				
-				if (terms != null) {
-					te = terms.iterator(null);
-					byteRef = null;
-					
+				fieldsVisited++;
+				if (cacheable(context.reader())) {
+					// segments never change, the terms matched by an earlier request are still valid
+					final TermListCache.Entry entry = cachedTerms(context.reader(), myfield);
+					truncated |= entry.truncated();		// the segment alone matches more terms than the list takes
+					te = counted(entry.iterator());
+					int n = 0;
 					while ((byteRef = te.next()) != null) {
-						String termStr = new String(byteRef.bytes, byteRef.offset, byteRef.length);
-						String formattedTerm = termStr;
-						
-						if(caseInsensitive)
-						{
-							formattedTerm = termStr.toLowerCase();
+						if (!addTerm(byteRef, te.docFreq()) || timedOut(++n)) {
+							break outerloopoffields;
 						}
-						
-						if(logger.isDebugEnabled())
-						{
-							logger.debug("MyCollector : setNextReader : {} : {} : {} : {} : {} : {} ", 
-										formattedTerm , 
-										formattedSearch , 
-										(formattedSearch!=null?formattedTerm.contains(formattedSearch):"null") ,  
-										(formattedSearch!=null?formattedTerm.startsWith(formattedSearch):"null") , 
-										prefix , 
-										caseInsensitive);
+					}
+					continue;		// a page holds at most pageSize terms of the segment, so does the cached list
+				}
+				
+				te = segmentTerms(context.reader(), myfield);
+				
+				if (te == null) {
+					logger.debug("MyCollector : setNextReader : No terms found for field : {} ", myfield);
+					continue;
+				}
+				
+				// the first pageSize terms of the segment are the only ones that can make the page
+				int added = 0;
+				int n = 0;
+				while ((pageSize == 0 || added++ < pageSize) && (byteRef = te.next()) != null) {
+					if (!addTerm(byteRef, te.docFreq()) || timedOut(++n)) {
+						break outerloopoffields;		//lets get out of here, we have hit our max number
+					}
+				}
+			}
+
+			logger.debug("MyCollector : setNextReader : EXIT ");
+		}
+		
+		/**
+		 * @return can the segment's lists go through the term list cache, which holds the
+		 *         first matches in term order. Popularity lists are read from the popularity
+		 *         indexes instead, count ordered lists need every match. So do unsorted counted
+		 *         lists, the terms listed from earlier segments collect their counts from every
+		 *         later match, not only from the first max_per_shard.
+		 */
+		private boolean cacheable(AtomicReader reader) {
+			return !popularity && !topByCount && !(docCount && pageSize == 0 && !merged) && cache.canCache(reader);
+		}
+		
+		/**
+		 * The matching terms of a segment's field, at most max_per_shard of them (or a page)
+		 * since that is all a segment can ever contribute. Computed once per segment and search.
+		 */
+		private TermListCache.Entry cachedTerms(AtomicReader reader, String field) throws IOException {
+			final int limit = pageSize > 0 ? pageSize : maxPerShard;
+			final TermListCache.Key key = new TermListCache.Key(reader, field, search, prefix, caseInsensitive, limit, after, automatonKey, docFreqs(field));
+			TermListCache.Entry cached = cache.get(key);
+			(cached == null ? cacheMisses : cacheHits).incrementAndGet();
+			
+			if (cached == null) {
+				final List<BytesRef> matches = new ArrayList<BytesRef>();
+				int[] docFreqs = new int[16];
+				final DocFreqIterator te = segmentTerms(reader, field);
+				
+				if (te != null) {
+					BytesRef byteRef;
+					while (matches.size() < limit && (byteRef = te.next()) != null) {
+						docFreqs = ArrayUtil.grow(docFreqs, matches.size() + 1);
+						docFreqs[matches.size()] = te.docFreq();
+						matches.add(BytesRef.deepCopyOf(byteRef));
+						if (timedOut(matches.size())) {
+							break;
+						}
+					}
+				}
+				final boolean more = te != null && !timedOut && matches.size() >= limit && te.next() != null;
+				
+				cached = new TermListCache.Entry(matches.toArray(new BytesRef[matches.size()]), Arrays.copyOf(docFreqs, matches.size()), more);
+				if (!timedOut) {
+					cache.put(reader, key, cached);		// a list cut by the deadline is not the segment's list
+				}
+			}
+			return cached;
+		}
+		
+		/**
+		 * Merges the terms of every segment and field in term order, the distinct terms
+		 * come one at a time so the first max_per_shard of them (or a page) are the shard list.
+		 */
+		private void collectMerged() {
+			try {
+				final List<DocFreqIterator> subs = new ArrayList<DocFreqIterator>();
+				for (AtomicReaderContext segment : segments) {
+					segmentsVisited++;
+					for (String field : fields) {
+						fieldsVisited++;
+						if (cacheable(segment.reader())) {
+							final TermListCache.Entry entry = cachedTerms(segment.reader(), field);
+							truncated |= entry.truncated();
+							subs.add(counted(entry.iterator()));
+							continue;
 						}
-						
-						if (uniqueTerms.size() < maxPerShard) {
-							if (search != null) {
-								if(prefix && formattedTerm.startsWith(formattedSearch))			
-								{
-									uniqueTerms.add(termStr);
-								} else if (!prefix && formattedTerm.contains(formattedSearch)) {
-									uniqueTerms.add(termStr);
-								}
-							} else {
-								uniqueTerms.add(termStr);	//everything matches, no search term
-							}
-						} else {
-							logger.debug("BREAKING LOOP shardlimit hit : {} : {} " , maxPerShard , uniqueTerms.size());
-							break outerloopoffields;		//lets get out of here, we have hit our max number
+						final DocFreqIterator te = segmentTerms(segment.reader(), field);
+						if (te != null) {
+							subs.add(te);
 						}
 					}
+				}
+				addMerged(subs);
+			} catch (IOException e) {
+				throw new FacetPhaseExecutionException(facetName, "failed to enumerate the segment terms", e);
+			} finally {
+				segments.clear();
+			}
+		}
+		
+		private void addMerged(List<DocFreqIterator> subs) throws IOException {
+			final int limit = pageSize > 0 ? pageSize : maxPerShard;
+			final DocFreqIterator te = new MergedTermsIterator(subs);
+			if (topByCount) {
+				addTopByCount(te);
+				return;
+			}
+			BytesRef byteRef;
+			int added = 0;
+			for (; added < limit && (byteRef = te.next()) != null; added++) {
+				addTerm(byteRef, te.docFreq());
+				if (timedOut(added + 1)) {
+					return;
+				}
+			}
+			truncated |= added >= limit && te.next() != null;
+		}
+		
+		/**
+		 * Keeps the max_per_shard most frequent of the merged terms, wherever they sort.
+		 */
+		private void addTopByCount(DocFreqIterator te) throws IOException {
+			final TopTerms top = new TopTerms(maxPerShard);
+			BytesRef byteRef;
+			int n = 0;
+			while ((byteRef = te.next()) != null) {
+				termsMatched++;
+				truncated |= !top.offer(byteRef, te.docFreq());
+				if (timedOut(++n)) {
+					break;
+				}
+			}
+			final DocFreqIterator it = top.iterator();
+			while ((byteRef = it.next()) != null) {
+				collected.add(byteRef, it.docFreq());
+			}
+		}
+		
+		/**
+		 * Matches the terms of each field once in its shard wide table, which holds every
+		 * distinct term of the shard in order along with its summed doc frequency.
+		 */
+		private void collectGlobal() {
+			try {
+				segmentsVisited += segments.size();
+				final List<DocFreqIterator> subs = new ArrayList<DocFreqIterator>();
+				for (String field : fields) {
+					fieldsVisited++;
+					final GlobalOrdinals table = globalOrdinals(field);
+					if (table != null) {
+						subs.add(counted(DocFreqIterator.of(matchingTerms(table.terms(searchContext.searcher().getIndexReader())))));
+						continue;
+					}
+					// no table, the segments are merged like an ordered list would be
+					for (AtomicReaderContext segment : segments) {
+						final DocFreqIterator te = segmentTerms(segment.reader(), field);
+						if (te != null) {
+							subs.add(te);
+						}
+					}
+				}
+				addMerged(subs);
+			} catch (IOException e) {
+				throw new FacetPhaseExecutionException(facetName, "failed to enumerate the shard terms", e);
+			} finally {
+				segments.clear();
+			}
+		}
+		
+		/**
+		 * Adds the terms the query scoped segments found in the shard wide tables,
+		 * in term order. Each term was resolved and matched once however many segments hold it.
+		 */
+		private void addGlobalMatches() {
+			if (globalMatches.isEmpty()) {
+				return;
+			}
+			try {
+				final List<DocFreqIterator> subs = new ArrayList<DocFreqIterator>();
+				for (GlobalMatches matches : globalMatches.values()) {
+					if (matches != null) {		// null for the fields without a table, their terms were added as found
+						subs.add(matches.iterator());
+					}
+				}
+				addMerged(subs);
+			} catch (IOException e) {
+				throw new FacetPhaseExecutionException(facetName, "failed to collect terms of matching docs", e);
+			} finally {
+				globalMatches.clear();
+			}
+		}
+		
+		/**
+		 * @return the global ordinals of the field's matching terms found so far, null without global
+		 *         ordinals or when the field has no table
+		 */
+		private GlobalMatches globalMatches(String field) throws IOException {
+			if (!globalOrdinals) {
+				return null;
+			}
+			if (!globalMatches.containsKey(field)) {
+				// every segment of the field uses the table or none does
+				final GlobalOrdinals table = globalOrdinals(field);
+				globalMatches.put(field, table == null ? null : new GlobalMatches(table, docCount));
+			}
+			return globalMatches.get(field);
+		}
+		
+		/**
+		 * Enumerates every segment and field of the shard on the pool, then merges the
+		 * lists of the tasks. Sorted lists are merged in term order, each task lists at
+		 * most the first max_per_shard terms (or a page) of its segment. Unsorted lists
+		 * bounded by max_per_shard alone share a budget of new terms, so every task stops
+		 * once the shard list is full. Unsorted counted lists are merged in segment and
+		 * field order exactly as a sequential collection would.
+		 */
+		private void collectParallel() {
+			final boolean shared = !docCount && pageSize == 0 && !merged;
+			// the tasks add to one list under its lock, its bytes reserved on the breaker like the shard list
+			final TermBytesHash seen = shared ? new TermBytesHash(breaker, facetName, false) : null;
+			final AtomicInteger budget = new AtomicInteger(maxPerShard - (collected == null ? 0 : collected.size()));
+			final List<FutureTask<TermListCache.Entry>> tasks = new ArrayList<FutureTask<TermListCache.Entry>>();
+			
+			try {
+				for (AtomicReaderContext segment : segments) {
+					segmentsVisited++;
+					for (String field : fields) {
+						fieldsVisited++;
+						final FutureTask<TermListCache.Entry> task = new FutureTask<TermListCache.Entry>(new SegmentTask(segment.reader(), field, seen, budget));
+						tasks.add(task);
+						try {
+							executor.execute(task);
+						} catch (EsRejectedExecutionException e) {
+							task.run();		// the pool is saturated, the search thread does the work itself
+						} catch (RejectedExecutionException e) {
+							task.run();
+						}
+					}
+				}
+				
+				final List<DocFreqIterator> subs = new ArrayList<DocFreqIterator>();
+				for (Future<TermListCache.Entry> task : tasks) {
+					final TermListCache.Entry terms = task.get();
+					if (terms != null) {
+						truncated |= terms.truncated();
+						subs.add(terms.iterator());
+					}
+				}
+				
+				if (merged) {
+					addMerged(subs);
+				} else if (shared) {
+					for (int id : seen.ids(false)) {
+						collected.add(seen.bytes(id), 0);
+					}
+					termsMatched += seen.size();
+					truncated |= budget.get() <= 0;		// the tasks stopped once the list was full
 				} else {
-					logger.debug("MyCollector : setNextReader : No terms found for field : {} ", myfield);
+					for (DocFreqIterator te : subs) {
+						BytesRef byteRef;
+						while ((byteRef = te.next()) != null) {
+							addTerm(byteRef, te.docFreq());		// already cut by the deadline in the tasks
+						}
+					}
+				}
+			} catch (IOException e) {
+				throw new FacetPhaseExecutionException(facetName, "failed to enumerate the segment terms", e);
+			} catch (ExecutionException e) {
+				throw new FacetPhaseExecutionException(facetName, "failed to enumerate the segment terms", e.getCause());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new FacetPhaseExecutionException(facetName, "interrupted while enumerating the segment terms", e);
+			} finally {
+				for (Future<TermListCache.Entry> task : tasks) {
+					task.cancel(false);
 				}
+				if (seen != null) {
+					seen.release();
+				}
+				segments.clear();
+			}
+		}
+		
+		/**
+		 * Lists the matching terms of one segment's field, run on the pool.
+		 */
+		private final class SegmentTask implements Callable<TermListCache.Entry> {
+			private final AtomicReader reader;
+			private final String field;
+			private final TermBytesHash seen;			// the shard list, when bounded by the budget alone
+			private final AtomicInteger budget;			// the new terms the shard list still takes
+			
+			SegmentTask(AtomicReader reader, String field, TermBytesHash seen, AtomicInteger budget) {
+				this.reader = reader;
+				this.field = field;
+				this.seen = seen;
+				this.budget = budget;
 			}
+			
+			@Override
+			public TermListCache.Entry call() throws IOException {
+				if ((seen != null && budget.get() <= 0) || timedOut) {
+					return null;		// the other tasks already filled the shard list, or ran out of time
+				}
+				if (cacheable(reader) && seen == null) {
+					return cachedTerms(reader, field);		// already bounded like the task
+				}
+				
+				final DocFreqIterator te = cacheable(reader) ? counted(cachedTerms(reader, field).iterator()) : segmentTerms(reader, field);
+				if (te == null) {
+					return null;
+				}
+				
+				final int limit = pageSize > 0 ? pageSize : (merged && !topByCount ? maxPerShard : Integer.MAX_VALUE);
+				final List<BytesRef> terms = new ArrayList<BytesRef>();
+				int[] docFreqs = new int[16];
+				BytesRef byteRef;
+				int n = 0;
+				while (terms.size() < limit && (byteRef = te.next()) != null) {
+					if (timedOut(++n)) {
+						break;
+					}
+					if (seen == null) {
+						docFreqs = ArrayUtil.grow(docFreqs, terms.size() + 1);
+						docFreqs[terms.size()] = te.docFreq();
+						terms.add(BytesRef.deepCopyOf(byteRef));
+						continue;
+					}
+					synchronized (seen) {
+						// the budget only changes under the lock, no task adds a term past it
+						if (budget.get() <= 0) {
+							return null;
+						}
+						if (seen.add(byteRef, 0)) {
+							budget.decrementAndGet();
+						}
+					}
+				}
+				final boolean more = !timedOut && terms.size() >= limit && te.next() != null;
+				return new TermListCache.Entry(terms.toArray(new BytesRef[terms.size()]), Arrays.copyOf(docFreqs, terms.size()), more);
+			}
+		}
+		
+		/**
+		 * Adds a matching term to the shard list.
+		 * 
+		 * @param count the number of docs holding the term, only kept when counts are requested
+		 * @return false once max_per_shard is hit and no more terms should be added
+		 */
+		private boolean addTerm(BytesRef term, long count) {
+			termsMatched++;
+			if (page != null) {
+				final String string = term.utf8ToString();
+				final Long sum = page.get(string);
+				page.put(string, sum == null ? count : sum + count);
+				if (page.size() > pageSize) {
+					// a dropped term never comes back, pageSize smaller terms are already listed
+					page.pollLastEntry();
+					truncated = true;
+				}
+				return true;
+			}
+			
+			if (docCount) {
+				// once the list is full the terms already listed still collect the counts of later segments
+				if (!collected.addToExisting(term, count)) {
+					if (collected.size() < maxPerShard || orderByCount) {
+						collected.add(term, count);
+					} else {
+						truncated = true;
+					}
+				}
+				return true;
+			}
+			
+			if (collected.size() >= maxPerShard) {
+				logger.debug("BREAKING LOOP shardlimit hit : {} : {} " , maxPerShard , collected.size());
+				truncated = true;
+				return false;
+			}
+			collected.add(term, 0);		// the bytes are copied, no String until the facet is built
+			return true;
+		}
+		
+		/**
+		 * Adds the matching terms of the collected segment which occur in at least one
+		 * of its docs matching the query.
+		 */
+		private void collectQueryScoped() {
+			if (docs == null) {
+				return;
+			}
+			
+			try {
+				if (!timedOut && docs.cardinality() > 0) {
+					segmentsVisited++;
+					for (String myfield : this.fields) {
+						fieldsVisited++;
+						final boolean more = fieldDataFields.contains(myfield) ? collectOrdinals(myfield) : collectPostings(myfield);
+						if (!more) {
+							break;
+						}
+					}
+				}
+			} catch (IOException e) {
+				throw new FacetPhaseExecutionException(facetName, "failed to collect terms of matching docs", e);
+			} finally {
+				context = null;
+				docs = null;
+			}
+		}
+		
+		/**
+		 * Marks the field data ordinals of every matching doc, then checks each marked
+		 * ordinal's term once.
+		 */
+		private boolean collectOrdinals(String field) throws IOException {
+			final IndexFieldData<?> indexFieldData = searchContext.fieldData().getForField(searchContext.smartNameFieldMapper(field));
+			if (!(indexFieldData instanceof IndexFieldData.WithOrdinals)) {
+				return collectPostings(field);
+			}
+			
+			final BytesValues.WithOrdinals values = ((IndexFieldData.WithOrdinals<?>) indexFieldData).load(context).getBytesValues(false);
+			final GlobalMatches global = globalMatches(field);
+			final Ordinals.Docs ordinals = values.ordinals();
+			final FixedBitSet ords = new FixedBitSet((int) ordinals.getMaxOrd());
+			final int[] ordCounts = docCount ? new int[(int) ordinals.getMaxOrd()] : null;
+			
+			final DocIdSetIterator it = docs.iterator();
+			for (int doc = it.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = it.nextDoc()) {
+				for (int i = ordinals.setDocument(doc); i > 0; i--) {
+					final int ord = (int) ordinals.nextOrd();
+					ords.set(ord);
+					if (ordCounts != null) {
+						ordCounts[ord]++;
+					}
+				}
+			}
+			
+			int added = 0;
+			int n = 0;
+			final DocIdSetIterator ordIt = ords.iterator();
+			for (int ord = ordIt.nextDoc(); ord != DocIdSetIterator.NO_MORE_DOCS; ord = ordIt.nextDoc()) {
+				if (timedOut(++n)) {
+					return false;
+				}
+				termsEnumerated++;
+				if (ord == Ordinals.MISSING_ORDINAL) {
+					continue;
+				}
+				final BytesRef term = values.getValueByOrd(ord);
+				if (afterBytes != null && term.compareTo(afterBytes) <= 0) {
+					continue;
+				}
+				if (termMatches(term)) {
+					if (global != null) {
+						global.add(term, ordCounts == null ? 0 : ordCounts[ord]);
+					} else if (!addTerm(term, ordCounts == null ? 0 : ordCounts[ord])) {
+						return false;
+					}
+					if (pageSize > 0 && ++added >= pageSize) {
+						truncated = true;		// the next page may hold more
+						break;		// ordinals are in term order
+					}
+				}
+			}
+			return true;
+		}
+		
+		/**
+		 * Leapfrogs the postings of each matching term with the matching docs.
+		 */
+		private boolean collectPostings(String field) throws IOException {
+			final Terms terms = context.reader().terms(field);
+			if (terms == null) {
+				return true;
+			}
+			
+			final TermsEnum te = matchingTerms(terms);
+			final GlobalMatches global = globalMatches(field);
+			DocsEnum postings = null;
+			BytesRef byteRef;
+			int added = 0;
+			int n = 0;
+			
+			while ((byteRef = te.next()) != null) {
+				if (timedOut(++n)) {
+					return false;
+				}
+				termsEnumerated++;
+				final int ord = global == null ? -1 : global.ords.ord(byteRef);
+				if (ord >= 0 && !docCount && global.found.get(ord)) {
+					continue;		// an earlier segment already has a matching doc holding it
+				}
+				postings = te.docs(null, postings, DocsEnum.FLAG_NONE);		// the matching docs are all live
+				final int hits = matchingDocs(postings, docCount);
+				if (hits > 0) {
+					if (ord >= 0) {
+						global.add(ord, hits);
+					} else if (!addTerm(byteRef, hits)) {
+						return false;
+					}
+					if (pageSize > 0 && ++added >= pageSize) {
+						truncated = true;
+						break;
+					}
+				}
+			}
+			return true;
+		}
+		
+		/**
+		 * @param all count every matching doc, else stop at the first one
+		 * @return the number of matching docs in postings
+		 */
+		private int matchingDocs(DocsEnum postings, boolean all) throws IOException {
+			int hits = 0;
+			int target = docs.nextSetBit(0);
+			while (target != -1) {
+				final int doc = postings.advance(target);
+				if (doc == DocIdSetIterator.NO_MORE_DOCS) {
+					break;
+				}
+				if (docs.get(doc)) {
+					hits++;
+					if (!all) {
+						break;
+					}
+				}
+				target = doc + 1 < docs.length() ? docs.nextSetBit(doc + 1) : -1;
+			}
+			return hits;
+		}
+		
+		/**
+		 * @return does a term found through the ordinals match the search
+		 */
+		private boolean termMatches(BytesRef term) {
+			if (termMatcher != null) {
+				return termMatcher.matches(term);
+			}
+			return automatonKey == null || TermListAutomata.run(searchAutomaton, term);
+		}
+		
+		/**
+		 * The terms of a segment's field matching the search, in term order, null when the
+		 * segment has no terms for the field. Substring searches on a field with a suffix
+		 * index, and case insensitive prefix searches on a field with a lowercase index, are
+		 * answered by the index, built the first time the segment is searched. Popularity
+		 * lists are the max_per_shard most frequent matches, from the segment's popularity index
+		 * or, when it would not fit in the sidecar memory, from enumerating the matches.
+		 */
+		private DocFreqIterator segmentTerms(AtomicReader reader, String field) throws IOException {
+			final Terms terms = reader.terms(field);
+			if (terms == null) {
+				return null;
+			}
+			
+			if (popularity) {
+				final PopularityIndex index = sidecars.get(reader, field, PopularityIndex.class, PopularityIndex.estimateBytes(terms), new Callable<PopularityIndex>() {
+					@Override
+					public PopularityIndex call() throws IOException {
+						return PopularityIndex.build(terms.iterator(null));
+					}
+				});
+				if (index != null) {
+					return counted(index.top(search == null || search.isEmpty() ? null : search, caseInsensitive, maxPerShard));
+				}
+				// an index which would not be kept costs more to build than enumerating the matches once
+				final DocFreqIterator te = counted(DocFreqIterator.of(matchingTerms(terms)));
+				final TopTerms top = new TopTerms(maxPerShard);
+				BytesRef byteRef;
+				int n = 0;
+				while ((byteRef = te.next()) != null && !timedOut(++n)) {
+					top.offer(byteRef, te.docFreq());
+				}
+				return top.iterator();
+			}
+			if (search != null && !prefix && automatonKey == null && !search.isEmpty() && suffixIndexFields.contains(field)) {
+				// an index which does not fit in the sidecar memory is never built, the dictionary is scanned instead
+				final SuffixIndex index = sidecars.get(reader, field, SuffixIndex.class, SuffixIndex.estimateBytes(terms), new Callable<SuffixIndex>() {
+					@Override
+					public SuffixIndex call() throws IOException {
+						return SuffixIndex.build(terms.iterator(null));
+					}
+				});
+				if (index != null) {
+					return counted(index.matches(search, caseInsensitive, afterBytes));
+				}
+			}
+			if (search != null && prefix && caseInsensitive && automatonKey == null && !search.isEmpty() && lowercaseIndexFields.contains(field)) {
+				// like the suffix index, one which would not fit is never built and the variants are seeked instead
+				final LowercasePrefixIndex index = sidecars.get(reader, field, LowercasePrefixIndex.class, LowercasePrefixIndex.estimateBytes(terms), new Callable<LowercasePrefixIndex>() {
+					@Override
+					public LowercasePrefixIndex call() throws IOException {
+						return LowercasePrefixIndex.build(terms.iterator(null));
+					}
+				});
+				if (index != null) {
+					return counted(index.matches(search, afterBytes));
+				}
+			}
+			if (fieldDataFields.contains(field)) {
+				final TermsEnum te = matchingTerms(ordinalTerms(reader, field, terms));
+				return counted(docFreqs(field) ? DocFreqIterator.of(te) : DocFreqIterator.withoutDocFreqs(te));
+			}
+			return counted(DocFreqIterator.of(matchingTerms(terms)));
+		}
+		
+		/**
+		 * @return are the doc frequencies of the field's matching terms read, they cost a
+		 *         seek in the term dictionary per term when matching in the field data ordinals
+		 */
+		private boolean docFreqs(String field) {
+			return docCount || !fieldDataFields.contains(field);
+		}
+		
+		/**
+		 * @return the terms of the field's loaded field data, terms when its field data has no ordinals
+		 */
+		private Terms ordinalTerms(AtomicReader reader, String field, Terms terms) {
+			final IndexFieldData<?> indexFieldData = searchContext.fieldData().getForField(searchContext.smartNameFieldMapper(field));
+			if (!(indexFieldData instanceof IndexFieldData.WithOrdinals)) {
+				return terms;
+			}
+			return new OrdinalTerms(((IndexFieldData.WithOrdinals<?>) indexFieldData).load(reader.getContext()).getBytesValues(false), terms);
+		}
+		
+		/**
+		 * @return the shard wide table of the field for the searched reader, null when it does not fit
+		 *         in the sidecar memory or the shard has already moved on to a newer reader
+		 */
+		private GlobalOrdinals globalOrdinals(final String field) throws IOException {
+			return sidecars.globalOrdinals(searchContext.indexShard().shardId(), searchContext.searcher().getIndexReader(), field);
+		}
+		
+		/**
+		 * @return te, counting the terms read from it
+		 */
+		private DocFreqIterator counted(final DocFreqIterator te) {
+			final CountingIterator counting = new CountingIterator(te);
+			countingIterators.add(counting);
+			return counting;
+		}
+		
+		/**
+		 * The terms of one field matching the search, in term order. Only the matching
+		 * terms are returned, the enum is positioned on them by the term dictionary.
+		 */
+		private TermsEnum matchingTerms(Terms terms) throws IOException {
+			if (search == null && searchAutomaton == null) {
+				//everything matches, no search term
+				return afterBytes == null ? terms.iterator(null) : new AfterTermsEnum(terms.iterator(null), null, afterBytes);
+			}
+			
+			if (searchAutomaton == null) {
+				// the dictionary is sorted, seek to the prefix and stop once we leave it
+				// a case insensitive prefix seeks once per case variant
+				if (caseInsensitive) {
+					return new CaseInsensitivePrefixTermsEnum(terms.iterator(null), search, afterBytes);
+				}
+				if (afterBytes != null) {
+					return new AfterTermsEnum(terms.iterator(null), new BytesRef(search), afterBytes);
+				}
+				return new PrefixTermsEnum(terms.iterator(null), new BytesRef(search));
+			}
+			
+			// substring or fuzzy, intersecting lets the dictionary skip blocks that cannot match
+			if (afterBytes == null) {
+				return searchAutomaton.getTermsEnum(terms);
+			}
+			switch (searchAutomaton.type) {
+			case NORMAL:
+				return terms.intersect(searchAutomaton, afterBytes);		// starts right after the cursor
+			case ALL:
+				return new AfterTermsEnum(terms.iterator(null), null, afterBytes);
+			default:
+				return new AfterTermsEnum(searchAutomaton.getTermsEnum(terms), null, afterBytes, false);
+			}
+		}
+	}
 
-			logger.debug("MyCollector : setNextReader : EXIT ");
+	/**
+	 * A term and its doc count, in the bounded queue of the most frequent terms.
+	 */
+	private static final class CountedTerm {
+		/** The least frequent term comes first, then the largest of equally frequent ones. */
+		static final Comparator<CountedTerm> WEAKEST_FIRST = new Comparator<CountedTerm>() {
+			@Override
+			public int compare(CountedTerm a, CountedTerm b) {
+				final int cmp = Long.compare(a.count, b.count);
+				return cmp != 0 ? cmp : b.term.compareTo(a.term);
+			}
+		};
+		
+		final BytesRef term;
+		long count;
+		
+		CountedTerm(BytesRef term, long count) {
+			this.term = term;
+			this.count = count;
+		}
+	}
+	
+	/**
+	 * The n most frequent of the terms offered, by descending count then term order.
+	 */
+	private static final class TopTerms {
+		private final PriorityQueue<CountedTerm> queue = new PriorityQueue<CountedTerm>(11, CountedTerm.WEAKEST_FIRST);
+		private final int n;
+		
+		TopTerms(int n) {
+			this.n = n;
+		}
+		
+		/**
+		 * @return false when n terms were already kept, so the term or a less frequent one is left out
+		 */
+		boolean offer(BytesRef term, long count) {
+			if (queue.size() < n) {
+				queue.add(new CountedTerm(BytesRef.deepCopyOf(term), count));
+				return true;
+			}
+			final CountedTerm weakest = queue.peek();
+			if (weakest != null && (count > weakest.count || (count == weakest.count && term.compareTo(weakest.term) < 0))) {
+				queue.poll();
+				weakest.term.copyBytes(term);
+				weakest.count = count;
+				queue.add(weakest);
+			}
+			return false;
+		}
+		
+		/**
+		 * @return the kept terms with their counts, in no particular order
+		 */
+		DocFreqIterator iterator() {
+			final BytesRef[] terms = new BytesRef[queue.size()];
+			final int[] counts = new int[queue.size()];
+			int i = 0;
+			for (CountedTerm term : queue) {
+				terms[i] = term.term;
+				counts[i++] = (int) term.count;
+			}
+			return DocFreqIterator.of(terms, counts);
+		}
+	}
+	
+	/**
+	 * The terms of a field found in the docs matching the query, as a set of global ordinals.
+	 */
+	private static final class GlobalMatches {
+		private final GlobalOrdinals ords;
+		private final FixedBitSet found;
+		private final int[] counts;		// matching docs per ordinal, when counting
+		
+		GlobalMatches(GlobalOrdinals ords, boolean docCount) {
+			this.ords = ords;
+			this.found = new FixedBitSet(ords.size());
+			this.counts = docCount ? new int[ords.size()] : null;
+		}
+		
+		void add(int ord, int hits) {
+			found.set(ord);
+			if (counts != null) {
+				counts[ord] += hits;
+			}
+		}
+		
+		void add(BytesRef term, int hits) {
+			final int ord = ords.ord(term);
+			if (ord >= 0) {		// the table holds every term of the reader's segments
+				add(ord, hits);
+			}
+		}
+		
+		/**
+		 * @return the terms found, in order, with their counts as doc frequencies
+		 */
+		DocFreqIterator iterator() {
+			return new DocFreqIterator() {
+				private final BytesRef term = new BytesRef();
+				private int ord = -1;
+				
+				@Override
+				public BytesRef next() {
+					ord = ord + 1 < found.length() ? found.nextSetBit(ord + 1) : -1;
+					return ord == -1 ? null : ords.term(ord, term);
+				}
+				
+				@Override
+				int docFreq() {
+					return counts == null ? 0 : counts[ord];
+				}
+			};
+		}
+	}
+
+	/**
+	 * Counts the terms read from a segment, each iterator is read by a single thread.
+	 */
+	private static final class CountingIterator extends DocFreqIterator {
+		private final DocFreqIterator in;
+		private long count;
+		
+		CountingIterator(DocFreqIterator in) {
+			this.in = in;
+		}
+		
+		@Override
+		public BytesRef next() throws IOException {
+			final BytesRef term = in.next();
+			if (term != null) {
+				count++;
+			}
+			return term;
+		}
+		
+		@Override
+		int docFreq() throws IOException {
+			return in.docFreq();
 		}
 	}
 
@@ -17,11 +17,18 @@ package org.elasticsearch.search.facet.termlist;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
+import org.apache.lucene.util.automaton.Automaton;
+import org.apache.lucene.util.automaton.CompiledAutomaton;
+import org.apache.lucene.util.automaton.LevenshteinAutomata;
 import org.elasticsearch.common.component.AbstractComponent;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.xcontent.XContentParser;
 import org.elasticsearch.index.mapper.FieldMapper;
 import org.elasticsearch.search.facet.FacetExecutor;
@@ -59,19 +66,77 @@ public class TermListFacetParser extends AbstractComponent implements FacetParse
 		return new String[] { TermListFacet.TYPE, "term_list_facet" };
 	}
 
+	/** Node setting, true once every node runs this plugin version, to send the facets in the compact stream. */
+	public static final String COMPACT_STREAM = "termlist.stream.compact";
+
+	/** Index setting listing the fields whose segments get a suffix index for substring searches. */
+	public static final String SUFFIX_INDEX = "index.termlist.suffix_index";
+
+	/** Index setting listing the fields whose segments get a lowercase index for case insensitive prefix searches. */
+	public static final String LOWERCASE_INDEX = "index.termlist.lowercase_index";
+
+	private final TermListCache cache;
+	private final TermListSidecarCache sidecars;
+	private final TermListThreadPool pool;
+	private final TermListAutomatonCache automata;
+	private final TermListCircuitBreaker breaker;
+	private final TermListStats stats;
+	private final boolean compactStream;
+
 	/**
 	 * Instantiates a new term list facet processor.
 	 * 
 	 * @param settings
 	 *            the settings
+	 * @param cache
+	 *            the node's cache of segment term lists
+	 * @param sidecars
+	 *            the node's cache of segment suffix and lowercase indexes
+	 * @param pool
+	 *            the node's pool for parallel segment enumerations
+	 * @param automata
+	 *            the node's cache of compiled regex, wildcard and fuzzy automata
+	 * @param breaker
+	 *            the node's accounting of the memory held by the collected terms
+	 * @param stats
+	 *            the node's term list statistics and slow log
 	 */
 	@Inject
-	public TermListFacetParser(final Settings settings) {
+	public TermListFacetParser(final Settings settings, final TermListCache cache, final TermListSidecarCache sidecars, final TermListThreadPool pool,
+			final TermListAutomatonCache automata, final TermListCircuitBreaker breaker, final TermListStats stats) {
 		super(settings);
+		this.automata = automata;
+		this.breaker = breaker;
+		this.stats = stats;
+		this.cache = cache;
+		this.sidecars = sidecars;
+		this.pool = pool;
+		this.compactStream = settings.getAsBoolean(COMPACT_STREAM, false);
 		InternalTermListFacet.registerStream();
 	}
 
 	public FacetExecutor parse(String facetName, XContentParser parser, SearchContext context) throws IOException {
+		final TermListOptions options = parseOptions(facetName, parser, context);
+		if (!options.compactStream() && (options.docCount() || options.orderByCount() || options.size() > 0 || options.profile())) {
+			// the legacy stream only holds the terms, the shard would drop what the request asked for
+			throw new FacetPhaseExecutionException(facetName, "[doc_count], [order] count, [rank], [size] and [profile] need the compact term list stream, set ["
+					+ COMPACT_STREAM + "] once every node runs this plugin version");
+		}
+		return executor(facetName, options, context);
+	}
+
+	/**
+	 * @return the executor listing the terms of the shard of the context
+	 */
+	public TermListFacetExecutor executor(final String facetName, final TermListOptions options, final SearchContext context) {
+		return new TermListFacetExecutor(facetName, options, context, cache, sidecars, pool.executor(), breaker, stats);
+	}
+
+	/**
+	 * Reads a term list request, checking it against the mappings and compiling its
+	 * automaton, and resolves what the request leaves to the index settings.
+	 */
+	public TermListOptions parseOptions(final String facetName, final XContentParser parser, final SearchContext context) throws IOException {
 		List<String> fields = null;
 		XContentParser.Token token;
 		String currentfieldName = null;
@@ -79,15 +144,34 @@ public class TermListFacetParser extends AbstractComponent implements FacetParse
 		boolean prefix = false;
 		boolean caseInsenstive = true;
 		boolean sort = true;
-		int maxPerShard = 100;
+		boolean queryScoped = false;
+		Boolean suffixIndex = null;
+		Boolean lowercaseIndex = null;
+		boolean docCount = false;
+		String order = "term";
+		String rank = null;
+		String after = null;
+		boolean parallel = false;
+		int fuzzy = 0;
+		boolean fuzzyTranspositions = true;
+		int fuzzyPrefixLength = 0;
+		String regex = null;
+		String wildcard = null;
+		TimeValue maxTimePerShard = null;
+		boolean profile = false;
+		boolean globalOrdinals = false;
+		int maxPerShard = -1;
+		int size = 0;
 
 		while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
 
 			if (token == XContentParser.Token.FIELD_NAME) {
 				currentfieldName = parser.currentName();
 			} else if (token.isValue()) {
-				if ("max_per_shard".equals(currentfieldName)) {
+				if ("max_per_shard".equals(currentfieldName) || "shard_size".equals(currentfieldName)) {
 					maxPerShard = parser.intValue();
+				} else if ("size".equals(currentfieldName)) {
+					size = parser.intValue();
 				} else if ("search".equals(currentfieldName)) {
 					searchText = parser.text();
 				} else if ("prefix".equals(currentfieldName)) {
@@ -96,6 +180,38 @@ public class TermListFacetParser extends AbstractComponent implements FacetParse
 					caseInsenstive = parser.booleanValue();
 				} else if ("sort".equals(currentfieldName)) {
 					sort = parser.booleanValue();
+				} else if ("query_scoped".equals(currentfieldName)) {
+					queryScoped = parser.booleanValue();
+				} else if ("suffix_index".equals(currentfieldName)) {
+					suffixIndex = parser.booleanValue();
+				} else if ("lowercase_index".equals(currentfieldName)) {
+					lowercaseIndex = parser.booleanValue();
+				} else if ("doc_count".equals(currentfieldName)) {
+					docCount = parser.booleanValue();
+				} else if ("order".equals(currentfieldName)) {
+					order = parser.text();
+				} else if ("rank".equals(currentfieldName)) {
+					rank = parser.text();
+				} else if ("after".equals(currentfieldName)) {
+					after = parser.text();
+				} else if ("parallel".equals(currentfieldName)) {
+					parallel = parser.booleanValue();
+				} else if ("fuzzy".equals(currentfieldName)) {
+					fuzzy = parser.intValue();
+				} else if ("fuzzy_transpositions".equals(currentfieldName)) {
+					fuzzyTranspositions = parser.booleanValue();
+				} else if ("fuzzy_prefix_length".equals(currentfieldName)) {
+					fuzzyPrefixLength = parser.intValue();
+				} else if ("regex".equals(currentfieldName)) {
+					regex = parser.text();
+				} else if ("wildcard".equals(currentfieldName)) {
+					wildcard = parser.text();
+				} else if ("max_time_per_shard".equals(currentfieldName)) {
+					maxTimePerShard = TimeValue.parseTimeValue(parser.text(), null);
+				} else if ("profile".equals(currentfieldName)) {
+					profile = parser.booleanValue();
+				} else if ("global_ordinals".equals(currentfieldName)) {
+					globalOrdinals = parser.booleanValue();
 				}
 			} else if (token == XContentParser.Token.START_ARRAY) {
 				if ("fields".equals(currentfieldName)) {
@@ -114,7 +230,7 @@ public class TermListFacetParser extends AbstractComponent implements FacetParse
 
 		// check fields for correct mapping
 		for (String field : fields) {
-			final FieldMapper mapper = context.smartNameFieldMapper(field);
+			final FieldMapper<?> mapper = context.smartNameFieldMapper(field);
 			if (mapper == null) {
 				logger.warn("No mapping found for Field : {} ", field);
 				throw new FacetPhaseExecutionException(facetName, "(key) field [" + field + "] not found");
@@ -127,7 +243,115 @@ public class TermListFacetParser extends AbstractComponent implements FacetParse
 			}
 		}
 
-		return new TermListFacetExecutor(facetName, fields, searchText, prefix, context, maxPerShard, caseInsenstive, sort);
+		if (rank != null) {
+			if (!"popularity".equals(rank)) {
+				throw new FacetPhaseExecutionException(facetName, "unknown rank [" + rank + "] for term list facet, use [popularity]");
+			}
+			order = "count";		// the most frequent terms first, found through the popularity indexes
+		}
+
+		if (!"term".equals(order) && !"count".equals(order)) {
+			throw new FacetPhaseExecutionException(facetName, "unknown order [" + order + "] for term list facet, use [term] or [count]");
+		}
+
+		if (after != null && (!sort || size <= 0 || "count".equals(order))) {
+			throw new FacetPhaseExecutionException(facetName, "[after] pages through sorted term lists, it needs [sort] and a [size] and cannot be used with [order] count");
+		}
+
+		// the automata are compiled once per node and pattern, the key lists everything they depend on
+		String automatonKey = null;
+		String pattern = null;
+		TermListAutomatonCache.Builder builder = null;
+		if (regex != null || wildcard != null) {
+			if (searchText != null || fuzzy != 0 || (regex != null && wildcard != null)) {
+				throw new FacetPhaseExecutionException(facetName, "[regex] and [wildcard] match on their own, they cannot be combined with each other, [search] or [fuzzy]");
+			}
+			final boolean isRegex = regex != null;
+			final boolean ci = caseInsenstive;
+			pattern = isRegex ? regex : wildcard;
+			automatonKey = (isRegex ? "regex:" : "wildcard:") + ci + ":" + pattern;
+			final String p = pattern;
+			builder = new TermListAutomatonCache.Builder() {
+				@Override
+				public Automaton build(final int maxStates) {
+					return isRegex ? TermListAutomata.regex(p, ci, maxStates) : TermListAutomata.wildcard(p, ci, maxStates);
+				}
+			};
+		} else if (fuzzy != 0) {
+			if (fuzzy < 0 || fuzzy > LevenshteinAutomata.MAXIMUM_SUPPORTED_DISTANCE) {
+				throw new FacetPhaseExecutionException(facetName, "[fuzzy] is the most edits of a matching term, 1 or 2, got [" + fuzzy + "]");
+			}
+			if (searchText == null || fuzzyPrefixLength < 0) {
+				throw new FacetPhaseExecutionException(facetName, "[fuzzy] needs a [search] and a [fuzzy_prefix_length] of at least 0");
+			}
+			final String s = searchText;
+			final int distance = fuzzy;
+			final boolean transpositions = fuzzyTranspositions;
+			final int prefixLength = fuzzyPrefixLength;
+			final boolean pre = prefix;
+			final boolean ci = caseInsenstive;
+			pattern = searchText;
+			automatonKey = "fuzzy:" + fuzzy + ":" + fuzzyTranspositions + ":" + fuzzyPrefixLength;
+			builder = new TermListAutomatonCache.Builder() {
+				@Override
+				public Automaton build(final int maxStates) {
+					return TermListAutomata.fuzzy(s, distance, transpositions, prefixLength, pre, ci, maxStates);
+				}
+			};
+		}
+		
+		CompiledAutomaton automaton = null;
+		if (builder != null) {
+			try {
+				// the fuzzy key leaves the search and flags to the term list cache key, this one needs them all
+				automaton = automata.get(automatonKey + ":" + prefix + ":" + caseInsenstive + ":" + pattern, pattern, builder);
+			} catch (IllegalArgumentException e) {
+				throw new FacetPhaseExecutionException(facetName, "invalid pattern [" + pattern + "]: " + e.getMessage());
+			}
+		}
+
+		if (maxPerShard < 0) {
+			maxPerShard = defaultShardSize(size, "count".equals(order));
+		} else if (size > maxPerShard) {
+			maxPerShard = size;		// fewer terms per shard could never fill the list
+		}
+
+		// the facet can turn the suffix index on or off for all its fields, else the index settings decide
+		final Set<String> suffixIndexFields = new HashSet<String>();
+		if (suffixIndex == null) {
+			suffixIndexFields.addAll(Arrays.asList(context.indexShard().indexSettings().getAsArray(SUFFIX_INDEX)));
+		} else if (suffixIndex) {
+			suffixIndexFields.addAll(fields);
+		}
+		final Set<String> lowercaseIndexFields = new HashSet<String>();
+		if (lowercaseIndex == null) {
+			lowercaseIndexFields.addAll(Arrays.asList(context.indexShard().indexSettings().getAsArray(LOWERCASE_INDEX)));
+		} else if (lowercaseIndex) {
+			lowercaseIndexFields.addAll(fields);
+		}
+
+		return new TermListOptions.Builder()
+				.fields(fields).search(searchText).prefix(prefix).caseInsensitive(caseInsenstive)
+				.sort(sort).orderByCount("count".equals(order)).popularity(rank != null).docCount(docCount)
+				.queryScoped(queryScoped).parallel(parallel).profile(profile).globalOrdinals(globalOrdinals)
+				.maxPerShard(maxPerShard).size(size).after(after).automaton(automaton, automatonKey)
+				.timeoutMillis(maxTimePerShard != null ? maxTimePerShard.millis() : context.timeoutInMillis())
+				.suffixIndexFields(suffixIndexFields).lowercaseIndexFields(lowercaseIndexFields)
+				.compactStream(compactStream)
+				.build();
+	}
+
+	/**
+	 * Without a size a shard lists at most 100 terms. With one, each shard only needs
+	 * size terms to fill the list when ordering by term, as the merged list keeps the
+	 * size smallest. Counts are partial per shard, so ordering by count asks each shard
+	 * for more candidates than size to get the top terms right more often.
+	 */
+	static int defaultShardSize(final int size, final boolean orderByCount) {
+		if (size <= 0) {
+			return 100;
+		}
+		return orderByCount ? (int) Math.min(Integer.MAX_VALUE, size * 3L / 2 + 10) : size;
 	}
 
 	@Override
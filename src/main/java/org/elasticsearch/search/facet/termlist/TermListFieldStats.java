@@ -0,0 +1,241 @@
+/* Copyright 2013 Endgame, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.search.facet.termlist;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Streamable;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentBuilderString;
+
+/**
+ * TermListFieldStats
+ *
+ * The term lists built over the fields of an index: how many, how long they took,
+ * the terms they read, their use of the term list cache and the bytes they returned.
+ * One request is one shard building its list, so a search over 5 shards counts 5.
+ *
+ * Latencies go to a histogram of buckets growing by a quarter of a power of 2, so
+ * percentiles are the upper bound of their bucket, at most about 19% above the
+ * actual latency. Histograms of several fields or nodes add up bucket by bucket.
+ */
+public class TermListFieldStats implements Streamable, ToXContent {
+
+	private static final int BUCKETS_PER_POWER_OF_2 = 4;
+	private static final int BUCKETS = 40 * BUCKETS_PER_POWER_OF_2;		// up to 2^40 micros, about 12 days
+
+	/** The percentiles reported. */
+	static final double[] PERCENTILES = { 50, 90, 99 };
+
+	private String index;
+	private String fields;
+	private long requests;
+	private long timeInNanos;
+	private long termsEnumerated;
+	private long cacheHits;
+	private long cacheMisses;
+	private long bytesReturned;
+	private long[] latencies = new long[BUCKETS];		// requests per latency bucket
+
+	/**
+	 * @param index the index, null for the totals of a node
+	 * @param fields the fields of the facets, comma separated, null for the totals of a node
+	 */
+	public TermListFieldStats(final String index, final String fields) {
+		this.index = index;
+		this.fields = fields;
+	}
+
+	private TermListFieldStats() {
+	}
+
+	public static TermListFieldStats readFieldStats(final StreamInput in) throws IOException {
+		final TermListFieldStats stats = new TermListFieldStats();
+		stats.readFrom(in);
+		return stats;
+	}
+
+	/**
+	 * Counts the list of a shard.
+	 */
+	synchronized void record(final long nanos, final long termsEnumerated, final long cacheHits, final long cacheMisses, final long bytesReturned) {
+		requests++;
+		timeInNanos += nanos;
+		this.termsEnumerated += termsEnumerated;
+		this.cacheHits += cacheHits;
+		this.cacheMisses += cacheMisses;
+		this.bytesReturned += bytesReturned;
+		latencies[bucket(TimeUnit.NANOSECONDS.toMicros(nanos))]++;
+	}
+
+	private static int bucket(final long micros) {
+		if (micros <= 1) {
+			return 0;
+		}
+		return (int) Math.min(BUCKETS - 1, (long) (BUCKETS_PER_POWER_OF_2 * Math.log(micros) / Math.log(2)));
+	}
+
+	/**
+	 * Adds the counts of other, the index and fields stay those of this.
+	 */
+	public synchronized void add(final TermListFieldStats other) {
+		synchronized (other) {
+			requests += other.requests;
+			timeInNanos += other.timeInNanos;
+			termsEnumerated += other.termsEnumerated;
+			cacheHits += other.cacheHits;
+			cacheMisses += other.cacheMisses;
+			bytesReturned += other.bytesReturned;
+			for (int i = 0; i < BUCKETS; i++) {
+				latencies[i] += other.latencies[i];
+			}
+		}
+	}
+
+	/**
+	 * @return a copy of the current counts
+	 */
+	synchronized TermListFieldStats copy() {
+		final TermListFieldStats copy = new TermListFieldStats(index, fields);
+		copy.add(this);
+		return copy;
+	}
+
+	public String index() {
+		return index;
+	}
+
+	public String fields() {
+		return fields;
+	}
+
+	public synchronized long requests() {
+		return requests;
+	}
+
+	public synchronized long timeInNanos() {
+		return timeInNanos;
+	}
+
+	public synchronized long termsEnumerated() {
+		return termsEnumerated;
+	}
+
+	public synchronized long cacheHits() {
+		return cacheHits;
+	}
+
+	public synchronized long cacheMisses() {
+		return cacheMisses;
+	}
+
+	public synchronized long bytesReturned() {
+		return bytesReturned;
+	}
+
+	/**
+	 * @param percentile between 0 and 100
+	 * @return the latency under which that percentage of the requests completed, in millis, 0 without requests
+	 */
+	public synchronized double percentileInMillis(final double percentile) {
+		final long rank = (long) Math.ceil(percentile / 100 * requests);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += latencies[i];
+			if (seen > 0 && seen >= rank) {
+				return Math.pow(2, (double) (i + 1) / BUCKETS_PER_POWER_OF_2) / 1000;
+			}
+		}
+		return 0;
+	}
+
+	@Override
+	public void readFrom(final StreamInput in) throws IOException {
+		index = in.readOptionalString();
+		fields = in.readOptionalString();
+		requests = in.readVLong();
+		timeInNanos = in.readVLong();
+		termsEnumerated = in.readVLong();
+		cacheHits = in.readVLong();
+		cacheMisses = in.readVLong();
+		bytesReturned = in.readVLong();
+		latencies = new long[BUCKETS];
+		for (int i = in.readVInt(); i > 0; i--) {
+			final int bucket = in.readVInt();
+			latencies[bucket] = in.readVLong();
+		}
+	}
+
+	@Override
+	public synchronized void writeTo(final StreamOutput out) throws IOException {
+		out.writeOptionalString(index);
+		out.writeOptionalString(fields);
+		out.writeVLong(requests);
+		out.writeVLong(timeInNanos);
+		out.writeVLong(termsEnumerated);
+		out.writeVLong(cacheHits);
+		out.writeVLong(cacheMisses);
+		out.writeVLong(bytesReturned);
+		// most buckets are empty, only the others are sent
+		int used = 0;
+		for (long count : latencies) {
+			used += count > 0 ? 1 : 0;
+		}
+		out.writeVInt(used);
+		for (int i = 0; i < BUCKETS; i++) {
+			if (latencies[i] > 0) {
+				out.writeVInt(i);
+				out.writeVLong(latencies[i]);
+			}
+		}
+	}
+
+	static final class Fields {
+		static final XContentBuilderString REQUESTS = new XContentBuilderString("requests");
+		static final XContentBuilderString TIME_IN_MILLIS = new XContentBuilderString("time_in_millis");
+		static final XContentBuilderString LATENCY_IN_MILLIS = new XContentBuilderString("latency_in_millis");
+		static final XContentBuilderString TERMS_ENUMERATED = new XContentBuilderString("terms_enumerated");
+		static final XContentBuilderString CACHE = new XContentBuilderString("cache");
+		static final XContentBuilderString HITS = new XContentBuilderString("hits");
+		static final XContentBuilderString MISSES = new XContentBuilderString("misses");
+		static final XContentBuilderString BYTES_RETURNED = new XContentBuilderString("bytes_returned");
+	}
+
+	/**
+	 * Writes the counts as fields of the current object.
+	 */
+	@Override
+	public synchronized XContentBuilder toXContent(final XContentBuilder builder, final Params params) throws IOException {
+		builder.field(Fields.REQUESTS, requests);
+		builder.field(Fields.TIME_IN_MILLIS, TimeUnit.NANOSECONDS.toMillis(timeInNanos));
+		builder.startObject(Fields.LATENCY_IN_MILLIS);
+		for (double percentile : PERCENTILES) {
+			builder.field(Double.toString(percentile), percentileInMillis(percentile));
+		}
+		builder.endObject();
+		builder.field(Fields.TERMS_ENUMERATED, termsEnumerated);
+		builder.startObject(Fields.CACHE);
+		builder.field(Fields.HITS, cacheHits);
+		builder.field(Fields.MISSES, cacheMisses);
+		builder.endObject();
+		builder.field(Fields.BYTES_RETURNED, bytesReturned);
+		return builder;
+	}
+}
@@ -0,0 +1,358 @@
+/* Copyright 2013 Endgame, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.search.facet.termlist;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.lucene.util.automaton.CompiledAutomaton;
+
+/**
+ * TermListOptions
+ *
+ * What a term list facet asks for, once parsed and resolved against the shard (the
+ * compiled automaton, the fields with sidecar indexes, the deadline). Built by
+ * {@link TermListFacetParser} and read by the executor, the shard action and the facet,
+ * so no option travels as one more positional argument.
+ *
+ * Immutable, use a {@link Builder}. Unset options take the defaults of a request which
+ * leaves them out.
+ */
+public final class TermListOptions {
+
+	private final List<String> fields;
+	private final String search;
+	private final boolean prefix;
+	private final boolean caseInsensitive;
+	private final boolean sort;
+	private final boolean orderByCount;
+	private final boolean popularity;
+	private final boolean docCount;
+	private final boolean queryScoped;
+	private final boolean parallel;
+	private final boolean profile;
+	private final boolean globalOrdinals;
+	private final int maxPerShard;
+	private final int size;
+	private final String after;
+	private final CompiledAutomaton automaton;
+	private final String automatonKey;
+	private final long timeoutMillis;
+	private final Set<String> suffixIndexFields;
+	private final Set<String> lowercaseIndexFields;
+	private final boolean compactStream;
+
+	private TermListOptions(final Builder builder) {
+		this.fields = builder.fields;
+		this.search = builder.search;
+		this.prefix = builder.prefix;
+		this.caseInsensitive = builder.caseInsensitive;
+		this.sort = builder.sort;
+		this.orderByCount = builder.orderByCount;
+		this.popularity = builder.popularity;
+		this.docCount = builder.docCount;
+		this.queryScoped = builder.queryScoped;
+		this.parallel = builder.parallel;
+		this.profile = builder.profile;
+		this.globalOrdinals = builder.globalOrdinals;
+		this.maxPerShard = builder.maxPerShard;
+		this.size = builder.size;
+		this.after = builder.after;
+		this.automaton = builder.automaton;
+		this.automatonKey = builder.automatonKey;
+		this.timeoutMillis = builder.timeoutMillis;
+		this.suffixIndexFields = builder.suffixIndexFields;
+		this.lowercaseIndexFields = builder.lowercaseIndexFields;
+		this.compactStream = builder.compactStream;
+	}
+
+	/**
+	 * @return the fields whose terms are listed
+	 */
+	public List<String> fields() {
+		return fields;
+	}
+
+	/**
+	 * @return the text the terms have to contain (or start with, or be near), null for every term
+	 */
+	public String search() {
+		return search;
+	}
+
+	/**
+	 * @return do the terms have to start with the search
+	 */
+	public boolean prefix() {
+		return prefix;
+	}
+
+	/**
+	 * @return do the search, regex or wildcard match in any case
+	 */
+	public boolean caseInsensitive() {
+		return caseInsensitive;
+	}
+
+	/**
+	 * @return are the terms listed in term order
+	 */
+	public boolean sort() {
+		return sort;
+	}
+
+	/**
+	 * @return are the most frequent terms listed first
+	 */
+	public boolean orderByCount() {
+		return orderByCount;
+	}
+
+	/**
+	 * @return are the most frequent prefix matches read from the popularity indexes
+	 */
+	public boolean popularity() {
+		return popularity;
+	}
+
+	/**
+	 * @return are the doc counts of the terms returned
+	 */
+	public boolean docCount() {
+		return docCount;
+	}
+
+	/**
+	 * @return are only the terms of the docs matching the query listed
+	 */
+	public boolean queryScoped() {
+		return queryScoped;
+	}
+
+	/**
+	 * @return are the segments enumerated on the term list pool
+	 */
+	public boolean parallel() {
+		return parallel;
+	}
+
+	/**
+	 * @return does each shard report what it did
+	 */
+	public boolean profile() {
+		return profile;
+	}
+
+	/**
+	 * @return are the terms matched in the shard wide tables
+	 */
+	public boolean globalOrdinals() {
+		return globalOrdinals;
+	}
+
+	/**
+	 * @return the most terms a shard lists
+	 */
+	public int maxPerShard() {
+		return maxPerShard;
+	}
+
+	/**
+	 * @return the most entries of the reduced facet, 0 for no limit
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the term a page starts after, null for the first page
+	 */
+	public String after() {
+		return after;
+	}
+
+	/**
+	 * @return the compiled regex, wildcard or fuzzy automaton, null for the other searches
+	 */
+	public CompiledAutomaton automaton() {
+		return automaton;
+	}
+
+	/**
+	 * @return identifies the automaton in cache keys, null without one
+	 */
+	public String automatonKey() {
+		return automatonKey;
+	}
+
+	/**
+	 * @return how long a shard may enumerate before returning what it found, -1 for no limit
+	 */
+	public long timeoutMillis() {
+		return timeoutMillis;
+	}
+
+	/**
+	 * @return the fields searched through their suffix indexes
+	 */
+	public Set<String> suffixIndexFields() {
+		return suffixIndexFields;
+	}
+
+	/**
+	 * @return the fields searched through their lowercase indexes
+	 */
+	public Set<String> lowercaseIndexFields() {
+		return lowercaseIndexFields;
+	}
+
+	/**
+	 * @return is the facet sent in the compact stream, which nodes running older versions cannot read
+	 */
+	public boolean compactStream() {
+		return compactStream;
+	}
+
+	public static final class Builder {
+		private List<String> fields = Collections.emptyList();
+		private String search;
+		private boolean prefix;
+		private boolean caseInsensitive = true;
+		private boolean sort = true;
+		private boolean orderByCount;
+		private boolean popularity;
+		private boolean docCount;
+		private boolean queryScoped;
+		private boolean parallel;
+		private boolean profile;
+		private boolean globalOrdinals;
+		private int maxPerShard = 100;
+		private int size;
+		private String after;
+		private CompiledAutomaton automaton;
+		private String automatonKey;
+		private long timeoutMillis = -1;
+		private Set<String> suffixIndexFields = Collections.emptySet();
+		private Set<String> lowercaseIndexFields = Collections.emptySet();
+		private boolean compactStream;
+
+		public Builder fields(final List<String> fields) {
+			this.fields = Collections.unmodifiableList(fields);
+			return this;
+		}
+
+		public Builder search(final String search) {
+			this.search = search;
+			return this;
+		}
+
+		public Builder prefix(final boolean prefix) {
+			this.prefix = prefix;
+			return this;
+		}
+
+		public Builder caseInsensitive(final boolean caseInsensitive) {
+			this.caseInsensitive = caseInsensitive;
+			return this;
+		}
+
+		public Builder sort(final boolean sort) {
+			this.sort = sort;
+			return this;
+		}
+
+		public Builder orderByCount(final boolean orderByCount) {
+			this.orderByCount = orderByCount;
+			return this;
+		}
+
+		public Builder popularity(final boolean popularity) {
+			this.popularity = popularity;
+			return this;
+		}
+
+		public Builder docCount(final boolean docCount) {
+			this.docCount = docCount;
+			return this;
+		}
+
+		public Builder queryScoped(final boolean queryScoped) {
+			this.queryScoped = queryScoped;
+			return this;
+		}
+
+		public Builder parallel(final boolean parallel) {
+			this.parallel = parallel;
+			return this;
+		}
+
+		public Builder profile(final boolean profile) {
+			this.profile = profile;
+			return this;
+		}
+
+		public Builder globalOrdinals(final boolean globalOrdinals) {
+			this.globalOrdinals = globalOrdinals;
+			return this;
+		}
+
+		public Builder maxPerShard(final int maxPerShard) {
+			this.maxPerShard = maxPerShard;
+			return this;
+		}
+
+		public Builder size(final int size) {
+			this.size = size;
+			return this;
+		}
+
+		public Builder after(final String after) {
+			this.after = after;
+			return this;
+		}
+
+		public Builder automaton(final CompiledAutomaton automaton, final String automatonKey) {
+			this.automaton = automaton;
+			this.automatonKey = automatonKey;
+			return this;
+		}
+
+		public Builder timeoutMillis(final long timeoutMillis) {
+			this.timeoutMillis = timeoutMillis;
+			return this;
+		}
+
+		public Builder suffixIndexFields(final Set<String> suffixIndexFields) {
+			this.suffixIndexFields = Collections.unmodifiableSet(suffixIndexFields);
+			return this;
+		}
+
+		public Builder lowercaseIndexFields(final Set<String> lowercaseIndexFields) {
+			this.lowercaseIndexFields = Collections.unmodifiableSet(lowercaseIndexFields);
+			return this;
+		}
+
+		public Builder compactStream(final boolean compactStream) {
+			this.compactStream = compactStream;
+			return this;
+		}
+
+		public TermListOptions build() {
+			return new TermListOptions(this);
+		}
+	}
+}
@@ -0,0 +1,442 @@
+/* Copyright 2013 Endgame, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.search.facet.termlist;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.lucene.util.automaton.Automaton;
+import org.apache.lucene.util.automaton.BasicAutomata;
+import org.apache.lucene.util.automaton.BasicOperations;
+
+/**
+ * TermListPattern
+ *
+ * The parse tree of a regex or wildcard pattern of a request. Regexes follow the syntax of
+ * Lucene's {@link org.apache.lucene.util.automaton.RegExp} with every optional feature but
+ * named automata; wildcards are chars where * matches any chars, ? a single char and \
+ * escapes the next char.
+ *
+ * Parsing does no automaton work, {@link #toAutomaton} then builds the tree as a
+ * nondeterministic automaton within a state budget (see {@link BoundedAutomata}).
+ */
+final class TermListPattern {
+
+	enum Kind {
+		UNION, CONCATENATION, INTERSECTION, OPTIONAL, REPEAT, REPEAT_MIN, REPEAT_MINMAX, COMPLEMENT,
+		CHAR_CLASS, ANY_CHAR, EMPTY, STRING, ANY_STRING, INTERVAL
+	}
+
+	private final Kind kind;
+	private final List<TermListPattern> children;	// the operands, in pattern order
+	private final String string;					// the chars of a string
+	private final int[] ranges;						// the first and last code point of each range of a char class
+	private final boolean negated;					// does the char class match the chars outside its ranges
+	private final int min;							// the least repeats, or the lower bound of an interval
+	private final int max;							// the most repeats, or the upper bound of an interval
+	private final int digits;						// the digits of the numbers of an interval, 0 for any
+
+	private TermListPattern(final Kind kind, final List<TermListPattern> children, final String string, final int[] ranges, final boolean negated,
+			final int min, final int max, final int digits) {
+		this.kind = kind;
+		this.children = children;
+		this.string = string;
+		this.ranges = ranges;
+		this.negated = negated;
+		this.min = min;
+		this.max = max;
+		this.digits = digits;
+	}
+
+	private static TermListPattern node(final Kind kind, final TermListPattern... children) {
+		final List<TermListPattern> list = new ArrayList<TermListPattern>(children.length);
+		for (TermListPattern child : children) {
+			// nested unions and concatenations are flattened, so long ones stay shallow
+			if (child.kind == kind && (kind == Kind.UNION || kind == Kind.CONCATENATION)) {
+				list.addAll(child.children);
+			} else {
+				list.add(child);
+			}
+		}
+		return new TermListPattern(kind, list, null, null, false, 0, 0, 0);
+	}
+
+	private static TermListPattern repeat(final Kind kind, final TermListPattern child, final int min, final int max) {
+		return new TermListPattern(kind, Collections.singletonList(child), null, null, false, min, max, 0);
+	}
+
+	private static TermListPattern leaf(final Kind kind) {
+		return new TermListPattern(kind, Collections.<TermListPattern>emptyList(), null, null, false, 0, 0, 0);
+	}
+
+	private static TermListPattern string(final String string) {
+		return new TermListPattern(Kind.STRING, Collections.<TermListPattern>emptyList(), string, null, false, 0, 0, 0);
+	}
+
+	private static TermListPattern chars(final int[] ranges, final boolean negated) {
+		return new TermListPattern(Kind.CHAR_CLASS, Collections.<TermListPattern>emptyList(), null, ranges, negated, 0, 0, 0);
+	}
+
+	private static TermListPattern interval(final int min, final int max, final int digits) {
+		return new TermListPattern(Kind.INTERVAL, Collections.<TermListPattern>emptyList(), null, null, false, min, max, digits);
+	}
+
+	/**
+	 * @param pattern a regular expression, Lucene's syntax with every optional feature but named automata
+	 * @throws IllegalArgumentException when the pattern is invalid
+	 */
+	static TermListPattern regex(final String pattern) {
+		return new RegexParser(pattern).parse();
+	}
+
+	/**
+	 * @param pattern a wildcard pattern, * matches any chars, ? a single char and \ escapes the next char
+	 */
+	static TermListPattern wildcard(final String pattern) {
+		final List<TermListPattern> parts = new ArrayList<TermListPattern>();
+		final StringBuilder chars = new StringBuilder();
+		for (int i = 0; i < pattern.length();) {
+			int c = pattern.codePointAt(i);
+			i += Character.charCount(c);
+			if (c == '*' || c == '?') {
+				if (chars.length() > 0) {
+					parts.add(string(chars.toString()));
+					chars.setLength(0);
+				}
+				parts.add(leaf(c == '*' ? Kind.ANY_STRING : Kind.ANY_CHAR));
+				continue;
+			}
+			if (c == '\\' && i < pattern.length()) {
+				c = pattern.codePointAt(i);		// a trailing \ stands for itself
+				i += Character.charCount(c);
+			}
+			chars.appendCodePoint(c);
+		}
+		if (chars.length() > 0 || parts.isEmpty()) {
+			parts.add(string(chars.toString()));
+		}
+		return parts.size() == 1 ? parts.get(0) : node(Kind.CONCATENATION, parts.toArray(new TermListPattern[parts.size()]));
+	}
+
+	/**
+	 * The minimal deterministic automaton of the pattern. Every operand is built as a
+	 * nondeterministic automaton and checked against maxStates, only complements have
+	 * to be determinized on the way.
+	 *
+	 * @param caseInsensitive fold the case of the chars, strings and ranges of the pattern,
+	 *            before they are complemented or intersected so [^a] rejects A as well
+	 * @param maxStates the most states of the automaton, and of every automaton built along the way
+	 * @throws IllegalArgumentException when more than maxStates states would be needed
+	 */
+	Automaton toAutomaton(final boolean caseInsensitive, final int maxStates) {
+		return BoundedAutomata.minimize(BoundedAutomata.determinize(nfa(caseInsensitive, maxStates), maxStates));
+	}
+
+	private Automaton nfa(final boolean caseInsensitive, final int maxStates) {
+		final Automaton a;
+		switch (kind) {
+		case UNION:
+		case CONCATENATION: {
+			final List<Automaton> list = new ArrayList<Automaton>(children.size());
+			for (TermListPattern child : children) {
+				list.add(child.nfa(caseInsensitive, maxStates));
+			}
+			a = kind == Kind.UNION ? BasicOperations.union(list) : BasicOperations.concatenate(list);
+			break;
+		}
+		case INTERSECTION: {
+			final Automaton a1 = children.get(0).nfa(caseInsensitive, maxStates);
+			final Automaton a2 = children.get(1).nfa(caseInsensitive, maxStates);
+			BoundedAutomata.checkStates((long) a1.getNumberOfStates() * a2.getNumberOfStates(), maxStates);
+			a = BasicOperations.intersection(a1, a2);
+			break;
+		}
+		case OPTIONAL:
+			a = BasicOperations.optional(children.get(0).nfa(caseInsensitive, maxStates));
+			break;
+		case REPEAT:
+			a = BasicOperations.repeat(children.get(0).nfa(caseInsensitive, maxStates));
+			break;
+		case REPEAT_MIN: {
+			final Automaton sub = children.get(0).nfa(caseInsensitive, maxStates);
+			BoundedAutomata.checkStates((long) sub.getNumberOfStates() * (min + 1), maxStates);
+			a = BasicOperations.repeat(sub, min);
+			break;
+		}
+		case REPEAT_MINMAX: {
+			final Automaton sub = children.get(0).nfa(caseInsensitive, maxStates);
+			BoundedAutomata.checkStates((long) sub.getNumberOfStates() * Math.max(max, 1), maxStates);
+			a = BasicOperations.repeat(sub, min, max);
+			break;
+		}
+		case COMPLEMENT:
+			a = complement(children.get(0).nfa(caseInsensitive, maxStates), maxStates);
+			break;
+		case CHAR_CLASS: {
+			final List<Automaton> list = new ArrayList<Automaton>(ranges.length / 2);
+			for (int i = 0; i < ranges.length; i += 2) {
+				list.add(BasicAutomata.makeCharRange(ranges[i], ranges[i + 1]));
+			}
+			final Automaton chars = fold(BasicOperations.union(list), caseInsensitive);
+			// a negated class is any single char outside the folded ranges
+			a = negated ? BasicOperations.intersection(BasicAutomata.makeAnyChar(), complement(chars, maxStates)) : chars;
+			break;
+		}
+		case ANY_CHAR:
+			a = BasicAutomata.makeAnyChar();
+			break;
+		case EMPTY:
+			a = BasicAutomata.makeEmpty();
+			break;
+		case STRING:
+			a = fold(BasicAutomata.makeString(string), caseInsensitive);
+			break;
+		case ANY_STRING:
+			a = BasicAutomata.makeAnyString();
+			break;
+		case INTERVAL:
+			a = BasicAutomata.makeInterval(min, max, digits);
+			break;
+		default:
+			throw new IllegalStateException("unknown pattern node [" + kind + "]");
+		}
+		BoundedAutomata.checkStates(a.getNumberOfStates(), maxStates);
+		return a;
+	}
+
+	/**
+	 * Only a deterministic automaton can be complemented.
+	 */
+	private static Automaton complement(final Automaton a, final int maxStates) {
+		return BoundedAutomata.minimize(BasicOperations.complement(BoundedAutomata.determinize(a, maxStates)));
+	}
+
+	private static Automaton fold(final Automaton a, final boolean caseInsensitive) {
+		return caseInsensitive ? BoundedAutomata.foldCase(a) : a;
+	}
+
+	/**
+	 * Recursive descent over the regex grammar, from the loosest operator to the tightest:
+	 * union |, intersection &amp;, concatenation, repeats ? * + {n} {n,} {n,m}, complement ~,
+	 * char classes [...] [^...] and the simple expressions . # @ "..." (...) &lt;n-m&gt; and chars.
+	 */
+	private static final class RegexParser {
+		private final String pattern;
+		private int pos;
+
+		RegexParser(final String pattern) {
+			this.pattern = pattern;
+		}
+
+		TermListPattern parse() {
+			if (pattern.isEmpty()) {
+				return string("");
+			}
+			final TermListPattern e = parseUnion();
+			if (pos < pattern.length()) {
+				throw new IllegalArgumentException("end-of-string expected at position " + pos);
+			}
+			return e;
+		}
+
+		private TermListPattern parseUnion() {
+			final List<TermListPattern> parts = new ArrayList<TermListPattern>();
+			parts.add(parseIntersection());
+			while (match('|')) {
+				parts.add(parseIntersection());
+			}
+			return parts.size() == 1 ? parts.get(0) : node(Kind.UNION, parts.toArray(new TermListPattern[parts.size()]));
+		}
+
+		private TermListPattern parseIntersection() {
+			final TermListPattern e = parseConcatenation();
+			// right associative, like Lucene
+			return match('&') ? node(Kind.INTERSECTION, e, parseIntersection()) : e;
+		}
+
+		private TermListPattern parseConcatenation() {
+			final List<TermListPattern> parts = new ArrayList<TermListPattern>();
+			parts.add(parseRepeat());
+			while (more() && !peek(")|&")) {
+				parts.add(parseRepeat());
+			}
+			return parts.size() == 1 ? parts.get(0) : node(Kind.CONCATENATION, parts.toArray(new TermListPattern[parts.size()]));
+		}
+
+		private TermListPattern parseRepeat() {
+			TermListPattern e = parseComplement();
+			while (peek("?*+{")) {
+				if (match('?')) {
+					e = repeat(Kind.OPTIONAL, e, 0, 0);
+				} else if (match('*')) {
+					e = repeat(Kind.REPEAT, e, 0, 0);
+				} else if (match('+')) {
+					e = repeat(Kind.REPEAT_MIN, e, 1, 0);
+				} else if (match('{')) {
+					final int n = parseInt();
+					int m = n;
+					if (match(',')) {
+						m = peek("0123456789") ? parseInt() : -1;
+					}
+					if (!match('}')) {
+						throw new IllegalArgumentException("expected '}' at position " + pos);
+					}
+					e = m == -1 ? repeat(Kind.REPEAT_MIN, e, n, 0) : repeat(Kind.REPEAT_MINMAX, e, n, m);
+				}
+			}
+			return e;
+		}
+
+		private TermListPattern parseComplement() {
+			return match('~') ? node(Kind.COMPLEMENT, parseComplement()) : parseCharClass();
+		}
+
+		private TermListPattern parseCharClass() {
+			if (!match('[')) {
+				return parseSimple();
+			}
+			final boolean negated = match('^');
+			final List<Integer> ranges = new ArrayList<Integer>();
+			do {
+				final int from = parseChar();
+				final int to = match('-') ? parseChar() : from;
+				if (from > to) {
+					throw new IllegalArgumentException("invalid range: from (" + from + ") cannot be > to (" + to + ") at position " + pos);
+				}
+				ranges.add(from);
+				ranges.add(to);
+			} while (more() && !peek("]"));
+			if (!match(']')) {
+				throw new IllegalArgumentException("expected ']' at position " + pos);
+			}
+			final int[] array = new int[ranges.size()];
+			for (int i = 0; i < array.length; i++) {
+				array[i] = ranges.get(i);
+			}
+			return chars(array, negated);
+		}
+
+		private TermListPattern parseSimple() {
+			if (match('.')) {
+				return leaf(Kind.ANY_CHAR);
+			} else if (match('#')) {
+				return leaf(Kind.EMPTY);
+			} else if (match('@')) {
+				return leaf(Kind.ANY_STRING);
+			} else if (match('"')) {
+				final int start = pos;
+				while (more() && !peek("\"")) {
+					next();
+				}
+				if (!match('"')) {
+					throw new IllegalArgumentException("expected '\"' at position " + pos);
+				}
+				return string(pattern.substring(start, pos - 1));
+			} else if (match('(')) {
+				if (match(')')) {
+					return string("");
+				}
+				final TermListPattern e = parseUnion();
+				if (!match(')')) {
+					throw new IllegalArgumentException("expected ')' at position " + pos);
+				}
+				return e;
+			} else if (match('<')) {
+				final int start = pos;
+				while (more() && !peek(">")) {
+					next();
+				}
+				if (!match('>')) {
+					throw new IllegalArgumentException("expected '>' at position " + pos);
+				}
+				return parseInterval(pattern.substring(start, pos - 1));
+			}
+			final int c = parseChar();
+			return chars(new int[] { c, c }, false);
+		}
+
+		private TermListPattern parseInterval(final String s) {
+			final int i = s.indexOf('-');
+			if (i == -1) {
+				throw new IllegalArgumentException("named automata are not supported, <" + s + "> at position " + (pos - 1));
+			}
+			try {
+				if (i == 0 || i == s.length() - 1 || i != s.lastIndexOf('-')) {
+					throw new NumberFormatException();
+				}
+				final String smin = s.substring(0, i);
+				final String smax = s.substring(i + 1);
+				int imin = Integer.parseInt(smin);
+				int imax = Integer.parseInt(smax);
+				final int digits = smin.length() == smax.length() ? smin.length() : 0;
+				if (imin > imax) {
+					final int t = imin;
+					imin = imax;
+					imax = t;
+				}
+				return interval(imin, imax, digits);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("interval syntax error at position " + (pos - 1));
+			}
+		}
+
+		private int parseInt() {
+			final int start = pos;
+			while (peek("0123456789")) {
+				next();
+			}
+			if (start == pos) {
+				throw new IllegalArgumentException("integer expected at position " + pos);
+			}
+			try {
+				return Integer.parseInt(pattern.substring(start, pos));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("integer too large at position " + start);
+			}
+		}
+
+		private int parseChar() {
+			match('\\');
+			return next();
+		}
+
+		private boolean more() {
+			return pos < pattern.length();
+		}
+
+		private boolean peek(final String chars) {
+			return more() && chars.indexOf(pattern.codePointAt(pos)) != -1;
+		}
+
+		private boolean match(final int c) {
+			if (more() && pattern.codePointAt(pos) == c) {
+				pos += Character.charCount(c);
+				return true;
+			}
+			return false;
+		}
+
+		private int next() {
+			if (!more()) {
+				throw new IllegalArgumentException("unexpected end-of-string");
+			}
+			final int c = pattern.codePointAt(pos);
+			pos += Character.charCount(c);
+			return c;
+		}
+	}
+}
@@ -0,0 +1,146 @@
+/* Copyright 2013 Endgame, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.search.facet.termlist;
+
+import java.io.IOException;
+
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Streamable;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentBuilderString;
+
+/**
+ * TermListProfile
+ *
+ * What a shard did to build its term list, returned when the facet asks for a
+ * profile. The counters tell whether time went into visiting many segments and
+ * fields, reading terms that did not match, or matching more terms than the list takes.
+ */
+public class TermListProfile implements Streamable, ToXContent {
+
+	private String shard;
+	private int segments;
+	private int fields;
+	private long termsEnumerated;
+	private long termsMatched;
+	private boolean earlyStop;
+	private long timeInNanos;
+
+	/**
+	 * @param shard the shard, as [node][index][shard]
+	 * @param segments the segments visited
+	 * @param fields the segment fields visited, one per segment and field
+	 * @param termsEnumerated the terms read from term dictionaries, cached lists, suffix indexes or field data ordinals
+	 * @param termsMatched the terms matching the search (and the query when query scoped) offered to the list
+	 * @param earlyStop did a limit or the deadline stop the enumeration before every matching term was read
+	 * @param timeInNanos the time spent collecting and building the list
+	 */
+	public TermListProfile(final String shard, final int segments, final int fields, final long termsEnumerated, final long termsMatched,
+			final boolean earlyStop, final long timeInNanos) {
+		this.shard = shard;
+		this.segments = segments;
+		this.fields = fields;
+		this.termsEnumerated = termsEnumerated;
+		this.termsMatched = termsMatched;
+		this.earlyStop = earlyStop;
+		this.timeInNanos = timeInNanos;
+	}
+
+	private TermListProfile() {
+	}
+
+	public static TermListProfile readProfile(final StreamInput in) throws IOException {
+		final TermListProfile profile = new TermListProfile();
+		profile.readFrom(in);
+		return profile;
+	}
+
+	public String shard() {
+		return shard;
+	}
+
+	public int segments() {
+		return segments;
+	}
+
+	public int fields() {
+		return fields;
+	}
+
+	public long termsEnumerated() {
+		return termsEnumerated;
+	}
+
+	public long termsMatched() {
+		return termsMatched;
+	}
+
+	public boolean earlyStop() {
+		return earlyStop;
+	}
+
+	public long timeInNanos() {
+		return timeInNanos;
+	}
+
+	@Override
+	public void readFrom(final StreamInput in) throws IOException {
+		shard = in.readString();
+		segments = in.readVInt();
+		fields = in.readVInt();
+		termsEnumerated = in.readVLong();
+		termsMatched = in.readVLong();
+		earlyStop = in.readBoolean();
+		timeInNanos = in.readVLong();
+	}
+
+	@Override
+	public void writeTo(final StreamOutput out) throws IOException {
+		out.writeString(shard);
+		out.writeVInt(segments);
+		out.writeVInt(fields);
+		out.writeVLong(termsEnumerated);
+		out.writeVLong(termsMatched);
+		out.writeBoolean(earlyStop);
+		out.writeVLong(timeInNanos);
+	}
+
+	static final class Fields {
+		static final XContentBuilderString SHARD = new XContentBuilderString("shard");
+		static final XContentBuilderString SEGMENTS = new XContentBuilderString("segments");
+		static final XContentBuilderString FIELDS = new XContentBuilderString("fields");
+		static final XContentBuilderString TERMS_ENUMERATED = new XContentBuilderString("terms_enumerated");
+		static final XContentBuilderString TERMS_MATCHED = new XContentBuilderString("terms_matched");
+		static final XContentBuilderString EARLY_STOP = new XContentBuilderString("early_stop");
+		static final XContentBuilderString TIME_IN_NANOS = new XContentBuilderString("time_in_nanos");
+	}
+
+	@Override
+	public XContentBuilder toXContent(final XContentBuilder builder, final Params params) throws IOException {
+		builder.startObject();
+		builder.field(Fields.SHARD, shard);
+		builder.field(Fields.SEGMENTS, segments);
+		builder.field(Fields.FIELDS, fields);
+		builder.field(Fields.TERMS_ENUMERATED, termsEnumerated);
+		builder.field(Fields.TERMS_MATCHED, termsMatched);
+		builder.field(Fields.EARLY_STOP, earlyStop);
+		builder.field(Fields.TIME_IN_NANOS, timeInNanos);
+		builder.endObject();
+		return builder;
+	}
+}
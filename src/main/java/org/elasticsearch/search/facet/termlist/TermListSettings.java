@@ -0,0 +1,54 @@
+/* Copyright 2013 Endgame, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.search.facet.termlist;
+
+import org.elasticsearch.ElasticSearchParseException;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.monitor.jvm.JvmInfo;
+
+/**
+ * TermListSettings
+ *
+ * Reads the memory settings of the term list caches and breaker.
+ */
+final class TermListSettings {
+
+	private TermListSettings() {
+	}
+
+	/**
+	 * Like the Settings#getAsMemory of later Elasticsearch versions.
+	 *
+	 * @param settings the node settings
+	 * @param key the setting, in bytes (like 512mb) or as a percentage of the heap (like 10%)
+	 * @param defaultValue used when the setting is missing
+	 * @return the memory the setting stands for
+	 * @throws ElasticSearchParseException when the value is neither
+	 */
+	static ByteSizeValue getAsMemory(final Settings settings, final String key, final String defaultValue) {
+		final String value = settings.get(key, defaultValue).trim();
+		if (!value.endsWith("%")) {
+			return ByteSizeValue.parseBytesSizeValue(value);
+		}
+		try {
+			final double percent = Double.parseDouble(value.substring(0, value.length() - 1));
+			return new ByteSizeValue((long) ((percent / 100) * JvmInfo.jvmInfo().getMem().getHeapMax().bytes()));
+		} catch (NumberFormatException e) {
+			throw new ElasticSearchParseException("failed to parse [" + key + "] value [" + value + "] as a percentage of the heap", e);
+		}
+	}
+}
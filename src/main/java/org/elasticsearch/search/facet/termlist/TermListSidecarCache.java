@@ -0,0 +1,310 @@
+/* Copyright 2013 Endgame, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.search.facet.termlist;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.SegmentReader;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.ElasticSearchException;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.cache.RemovalListener;
+import org.elasticsearch.common.cache.RemovalNotification;
+import org.elasticsearch.common.cache.Weigher;
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+import org.elasticsearch.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * TermListSidecarCache
+ *
+ * Node level cache of the in memory structures built lazily over a segment's field
+ * to speed up term matching (see {@link SuffixIndex}, {@link LowercasePrefixIndex} and
+ * {@link PopularityIndex}), or over a field of a whole shard (see {@link GlobalOrdinals}).
+ * Each structure is built once, by the first request needing it, and is released when its
+ * segment or reader closes, when one of the segments of a shard's table closes, or when the
+ * memory it accounts for no longer fits in {@link #CACHE_SIZE}.
+ */
+public class TermListSidecarCache extends AbstractComponent implements SegmentReader.CoreClosedListener, IndexReader.ReaderClosedListener {
+
+	/** Memory available to the sidecar structures, in bytes or as a percentage of the heap. */
+	public static final String CACHE_SIZE = "termlist.sidecar.size";
+
+	/**
+	 * A structure built over the terms of a segment's field.
+	 */
+	public interface Sidecar {
+
+		/**
+		 * @return the heap used by the structure
+		 */
+		long ramBytesUsed();
+	}
+
+	/** Number of leading terms whose length is taken as the average when estimating the size of a structure. */
+	private static final int ESTIMATE_SAMPLE = 256;
+
+	private final long sizeInBytes;
+	private final AtomicLong usedBytes = new AtomicLong();
+	private final Cache<Key, Sidecar> cache;
+	private final ConcurrentMap<Object, Boolean> seenReaders = ConcurrentCollections.newConcurrentMap();
+
+	@Inject
+	public TermListSidecarCache(final Settings settings) {
+		super(settings);
+
+		this.sizeInBytes = TermListSettings.getAsMemory(settings, CACHE_SIZE, "10%").bytes();
+
+		// a single segment, else the weight limit is split and a structure could only use part of the memory
+		this.cache = CacheBuilder.newBuilder()
+				.concurrencyLevel(1)
+				.maximumWeight(Math.max(sizeInBytes, 1))
+				.weigher(new Weigher<Key, Sidecar>() {
+					@Override
+					public int weigh(Key key, Sidecar sidecar) {
+						return (int) Math.min(sidecar.ramBytesUsed(), Integer.MAX_VALUE);
+					}
+				})
+				.removalListener(new RemovalListener<Key, Sidecar>() {
+					@Override
+					public void onRemoval(RemovalNotification<Key, Sidecar> notification) {
+						usedBytes.addAndGet(-notification.getValue().ramBytesUsed());
+					}
+				})
+				.build();
+
+		logger.debug("using [{}] of the heap for term list sidecar structures", new ByteSizeValue(sizeInBytes));
+	}
+
+	/**
+	 * Estimates the UTF-8 bytes of all the terms of a field from their number and the
+	 * average length of the first ones, without enumerating them all. The structures
+	 * estimate their heap from it before they are built.
+	 *
+	 * @return the estimated bytes, -1 when the number of terms is unknown
+	 */
+	static long estimateTermBytes(final Terms terms) throws IOException {
+		final long numTerms = terms.size();
+		if (numTerms < 0) {
+			return -1;
+		}
+
+		final TermsEnum te = terms.iterator(null);
+		long sampled = 0;
+		long sampledBytes = 0;
+		BytesRef term;
+		while (sampled < ESTIMATE_SAMPLE && (term = te.next()) != null) {
+			sampled++;
+			sampledBytes += term.length;
+		}
+		return sampled == 0 ? 0 : sampledBytes * numTerms / sampled;
+	}
+
+	/**
+	 * @return can structures be kept for the reader, a segment or a shard's top level reader
+	 */
+	public boolean canCache(final IndexReader reader) {
+		return sizeInBytes > 0 && (reader instanceof SegmentReader || reader instanceof DirectoryReader);
+	}
+
+	/**
+	 * Returns the structure of the given type over the segment's (or reader's) field, building
+	 * it first if needed. Concurrent requests for the same structure wait for a single build.
+	 *
+	 * @return the structure, or null if the cache is disabled or cannot be told when the reader closes
+	 */
+	public <T extends Sidecar> T get(final IndexReader reader, final String field, final Class<T> type, final Callable<T> builder) throws IOException {
+		return get(reader, field, type, -1, builder);
+	}
+
+	/**
+	 * Like {@link #get(IndexReader, String, Class, Callable)}, for structures whose size can be
+	 * estimated before they are built. A structure larger than the whole cache would be evicted as
+	 * soon as it is built, and built again by every request, so it is not built at all.
+	 *
+	 * @param estimatedBytes the estimated heap of the structure, -1 if unknown
+	 * @return the structure, or null if the cache is disabled, cannot be told when the reader closes
+	 *         or the structure would not fit
+	 */
+	public <T extends Sidecar> T get(final IndexReader reader, final String field, final Class<T> type, final long estimatedBytes, final Callable<T> builder)
+			throws IOException {
+		if (!canCache(reader)) {
+			return null;
+		}
+		if (estimatedBytes > sizeInBytes) {
+			logger.trace("not building {} for field [{}], about [{}] does not fit in [{}]", type.getSimpleName(), field, new ByteSizeValue(estimatedBytes),
+					new ByteSizeValue(sizeInBytes));
+			return null;
+		}
+
+		final Key key = new Key(reader.getCoreCacheKey(), field, type);
+		if (seenReaders.putIfAbsent(key.readerKey, Boolean.TRUE) == null) {
+			if (reader instanceof SegmentReader) {
+				((SegmentReader) reader).addCoreClosedListener(this);
+			} else {
+				reader.addReaderClosedListener(this);		// a refresh opens a new reader, the old one closes once released
+			}
+		}
+
+		return get(key, field, type, builder);
+	}
+
+	private <T extends Sidecar> T get(final Key key, final String field, final Class<T> type, final Callable<T> builder) throws IOException {
+		try {
+			return type.cast(cache.get(key, new Callable<Sidecar>() {
+				@Override
+				public Sidecar call() throws Exception {
+					final T sidecar = builder.call();
+					usedBytes.addAndGet(sidecar.ramBytesUsed());
+					return sidecar;
+				}
+			}));
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new ElasticSearchException("failed to build " + type.getSimpleName() + " for field [" + field + "]", e.getCause());
+		} catch (UncheckedExecutionException e) {
+			throw new ElasticSearchException("failed to build " + type.getSimpleName() + " for field [" + field + "]", e.getCause());
+		}
+	}
+
+	/**
+	 * Returns the global ordinals of a shard's field for the given reader of the shard. A shard
+	 * keeps one table per field: the reader it was built for uses it, a newer reader which only
+	 * added segments extends it, and any other newer reader builds it again. Concurrent requests
+	 * for the same table wait for a single build.
+	 *
+	 * @param shardKey identifies the shard
+	 * @param reader a reader of the shard
+	 * @return the table, or null if the cache is disabled, the table would not fit, or the
+	 *         reader is older than the shard's table
+	 */
+	public GlobalOrdinals globalOrdinals(final Object shardKey, final IndexReader reader, final String field) throws IOException {
+		if (sizeInBytes <= 0 || !(reader instanceof DirectoryReader)) {
+			return null;
+		}
+		final DirectoryReader directoryReader = (DirectoryReader) reader;
+		final Key key = new Key(shardKey, field, GlobalOrdinals.class);
+
+		final GlobalOrdinals current = (GlobalOrdinals) cache.getIfPresent(key);
+		if (current != null) {
+			if (current.covers(reader)) {
+				return current;
+			}
+			if (directoryReader.getVersion() <= current.version()) {
+				return null;		// an in flight request on an older reader, the table follows the newest one
+			}
+			cache.asMap().remove(key, current);
+		}
+
+		final long estimatedBytes = GlobalOrdinals.estimateBytes(directoryReader, field, current);
+		if (estimatedBytes > sizeInBytes) {
+			logger.trace("not building global ordinals for field [{}], about [{}] does not fit in [{}]", field, new ByteSizeValue(estimatedBytes),
+					new ByteSizeValue(sizeInBytes));
+			return null;
+		}
+
+		// a table is dropped as soon as one of its segments closes, no later reader can use it
+		for (AtomicReaderContext leaf : reader.leaves()) {
+			if (leaf.reader() instanceof SegmentReader && seenReaders.putIfAbsent(leaf.reader().getCoreCacheKey(), Boolean.TRUE) == null) {
+				((SegmentReader) leaf.reader()).addCoreClosedListener(this);
+			}
+		}
+
+		final GlobalOrdinals table = get(key, field, GlobalOrdinals.class, new Callable<GlobalOrdinals>() {
+			@Override
+			public GlobalOrdinals call() throws IOException {
+				return GlobalOrdinals.build(directoryReader, field, current);
+			}
+		});
+		return table.covers(reader) ? table : null;		// another reader's request may have built it
+	}
+
+	/**
+	 * @return the heap used by the cached structures
+	 */
+	public long usedBytes() {
+		return usedBytes.get();
+	}
+
+	/**
+	 * @return the memory the structures may use, 0 when they are disabled
+	 */
+	public long sizeInBytes() {
+		return sizeInBytes;
+	}
+
+	@Override
+	public void onClose(final IndexReader reader) {
+		onClose(reader.getCoreCacheKey());
+	}
+
+	@Override
+	public void onClose(final Object ownerCoreCacheKey) {
+		seenReaders.remove(ownerCoreCacheKey);
+		for (Map.Entry<Key, Sidecar> entry : cache.asMap().entrySet()) {
+			final Sidecar sidecar = entry.getValue();
+			if (entry.getKey().readerKey == ownerCoreCacheKey || (sidecar instanceof GlobalOrdinals && ((GlobalOrdinals) sidecar).holds(ownerCoreCacheKey))) {
+				cache.invalidate(entry.getKey());
+			}
+		}
+	}
+
+	public void clear() {
+		cache.invalidateAll();
+	}
+
+	private static final class Key {
+		private final Object readerKey;
+		private final String field;
+		private final Class<?> type;
+
+		Key(final Object readerKey, final String field, final Class<?> type) {
+			this.readerKey = readerKey;
+			this.field = field;
+			this.type = type;
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			final Key other = (Key) o;
+			return readerKey == other.readerKey && field.equals(other.field) && type == other.type;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * (31 * System.identityHashCode(readerKey) + field.hashCode()) + type.hashCode();
+		}
+	}
+}
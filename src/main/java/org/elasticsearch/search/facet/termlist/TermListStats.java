@@ -0,0 +1,128 @@
+/* Copyright 2013 Endgame, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.search.facet.termlist;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.indices.IndicesLifecycle;
+
+/**
+ * TermListStats
+ *
+ * Node level statistics of the term lists built by the shards of this node, per
+ * index and facet fields (see {@link TermListFieldStats}), and the term list slow
+ * log. A list taking longer than {@link #SLOWLOG_WARN} or {@link #SLOWLOG_INFO} is
+ * logged with its shard and parameters to the termlist.slowlog logger.
+ *
+ * The statistics of an index are dropped once it no longer has shards on the node.
+ */
+public class TermListStats extends AbstractComponent {
+
+	/** Lists taking at least this long are logged at warn level, -1 to never log them. */
+	public static final String SLOWLOG_WARN = "termlist.slowlog.threshold.warn";
+	/** Lists taking at least this long are logged at info level, -1 to never log them. */
+	public static final String SLOWLOG_INFO = "termlist.slowlog.threshold.info";
+
+	private final long warnNanos;
+	private final long infoNanos;
+	private final ESLogger slowLog;
+	private final ConcurrentMap<String, TermListFieldStats> stats = ConcurrentCollections.newConcurrentMap();
+
+	@Inject
+	public TermListStats(final Settings settings, final IndicesLifecycle indicesLifecycle) {
+		super(settings);
+		this.warnNanos = settings.getAsTime(SLOWLOG_WARN, TimeValue.timeValueNanos(-1)).nanos();
+		this.infoNanos = settings.getAsTime(SLOWLOG_INFO, TimeValue.timeValueNanos(-1)).nanos();
+		this.slowLog = Loggers.getLogger("termlist.slowlog", settings);
+
+		indicesLifecycle.addListener(new IndicesLifecycle.Listener() {
+			@Override
+			public void afterIndexClosed(Index index) {
+				clear(index.name());
+			}
+		});
+
+		logger.debug("using slow log thresholds warn [{}], info [{}]", TimeValue.timeValueNanos(warnNanos), TimeValue.timeValueNanos(infoNanos));
+	}
+
+	/**
+	 * Counts the list built by a shard, and logs it when slow.
+	 *
+	 * @param shard the shard, as [node][index][shard]
+	 * @param index the index of the shard
+	 * @param fields the fields of the facet, comma separated
+	 * @param nanos the time spent building the list
+	 * @param source describes the facet parameters, only turned into a String when logged
+	 */
+	public void record(final String shard, final String index, final String fields, final long nanos, final long termsEnumerated, final long cacheHits,
+			final long cacheMisses, final long bytesReturned, final Object source) {
+		final String key = index + '\u0000' + fields;
+		TermListFieldStats fieldStats = stats.get(key);
+		if (fieldStats == null) {
+			final TermListFieldStats created = new TermListFieldStats(index, fields);
+			fieldStats = stats.putIfAbsent(key, created);
+			if (fieldStats == null) {
+				fieldStats = created;
+			}
+		}
+		fieldStats.record(nanos, termsEnumerated, cacheHits, cacheMisses, bytesReturned);
+
+		if (warnNanos >= 0 && nanos >= warnNanos) {
+			slowLog.warn("{} took[{}], took_millis[{}], terms_enumerated[{}], source[{}]", shard, TimeValue.timeValueNanos(nanos),
+					TimeUnit.NANOSECONDS.toMillis(nanos), termsEnumerated, source);
+		} else if (infoNanos >= 0 && nanos >= infoNanos) {
+			slowLog.info("{} took[{}], took_millis[{}], terms_enumerated[{}], source[{}]", shard, TimeValue.timeValueNanos(nanos),
+					TimeUnit.NANOSECONDS.toMillis(nanos), termsEnumerated, source);
+		}
+	}
+
+	/**
+	 * @return a copy of the statistics of every index and fields lists were built for
+	 */
+	public List<TermListFieldStats> stats() {
+		final List<TermListFieldStats> copies = new ArrayList<TermListFieldStats>(stats.size());
+		for (TermListFieldStats fieldStats : stats.values()) {
+			copies.add(fieldStats.copy());
+		}
+		return copies;
+	}
+
+	/**
+	 * Forgets the statistics of an index.
+	 */
+	public void clear(final String index) {
+		for (TermListFieldStats fieldStats : stats.values()) {
+			if (fieldStats.index().equals(index)) {
+				stats.remove(index + '\u0000' + fieldStats.fields());
+			}
+		}
+	}
+
+	public void clear() {
+		stats.clear();
+	}
+}
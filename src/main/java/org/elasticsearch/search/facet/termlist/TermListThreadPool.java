@@ -0,0 +1,84 @@
+/* Copyright 2013 Endgame, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.search.facet.termlist;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.ElasticSearchException;
+import org.elasticsearch.common.component.AbstractLifecycleComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+
+/**
+ * TermListThreadPool
+ *
+ * Node level pool running the segment enumerations of parallel term list facets.
+ * It is bounded in threads and queued tasks, a task which does not fit runs on the
+ * search thread which submitted it.
+ */
+public class TermListThreadPool extends AbstractLifecycleComponent<TermListThreadPool> {
+
+	/** Number of threads, defaults to the number of processors. */
+	public static final String POOL_SIZE = "termlist.parallel.size";
+
+	/** Number of tasks waiting for a thread before tasks run on the search thread. */
+	public static final String QUEUE_SIZE = "termlist.parallel.queue_size";
+
+	private final int size;
+	private final int queueSize;
+	private volatile ExecutorService executor;
+
+	@Inject
+	public TermListThreadPool(final Settings settings) {
+		super(settings);
+		this.size = settings.getAsInt(POOL_SIZE, EsExecutors.boundedNumberOfProcessors(settings));
+		this.queueSize = settings.getAsInt(QUEUE_SIZE, 1000);
+	}
+
+	/**
+	 * @return the pool, null when the node is not started
+	 */
+	public ExecutorService executor() {
+		return executor;
+	}
+
+	@Override
+	protected void doStart() throws ElasticSearchException {
+		logger.debug("starting term list pool with [{}] threads and a queue of [{}]", size, queueSize);
+		executor = EsExecutors.newFixed(size, queueSize, EsExecutors.daemonThreadFactory(settings, "termlist"));
+	}
+
+	@Override
+	protected void doStop() throws ElasticSearchException {
+		final ExecutorService current = executor;
+		executor = null;
+		if (current != null) {
+			current.shutdown();
+			try {
+				current.awaitTermination(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			current.shutdownNow();
+		}
+	}
+
+	@Override
+	protected void doClose() throws ElasticSearchException {
+	}
+}
@@ -0,0 +1,289 @@
+/* Copyright 2013 Endgame, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.search.facet.termlist;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.io.stream.BytesStreamInput;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.search.facet.Facet;
+
+/**
+ * InternalTermListFacetTest
+ * 
+ * Reducing shard facets without a cluster.
+ */
+public class InternalTermListFacetTest extends TestCase {
+
+	/**
+	 * testMergeSorted
+	 * sorted shard lists are merged in order, without duplicates
+	 */
+	public void testMergeSorted() {
+		InternalTermListFacet reduced = reduce(true, 0,
+				new String[] { "alt", "disney", "walt" },
+				new String[] {},
+				new String[] { "altibox", "disney", "zebra" },
+				new String[] { "walt" });
+		
+		assertEquals(Arrays.asList("alt", "altibox", "disney", "walt", "zebra"), reduced.entries());
+	}
+	
+	/**
+	 * testMergeSortedStopsAtSize
+	 * only the size smallest terms are kept
+	 */
+	public void testMergeSortedStopsAtSize() {
+		InternalTermListFacet reduced = reduce(true, 3,
+				new String[] { "b", "d", "f" },
+				new String[] { "a", "b", "c", "e" });
+		
+		assertEquals(Arrays.asList("a", "b", "c"), reduced.entries());
+	}
+	
+	/**
+	 * testUnsortedStopsAtSize
+	 */
+	public void testUnsortedStopsAtSize() {
+		InternalTermListFacet reduced = reduce(false, 2,
+				new String[] { "f", "d", "b" },
+				new String[] { "b", "a" });
+		
+		assertEquals(2, reduced.entries().size());
+		assertEquals(2, new HashSet<Object>(reduced.entries()).size());
+		
+		reduced = reduce(false, 0, new String[] { "f", "d", "b" }, new String[] { "b", "a" });
+		assertEquals(new HashSet<Object>(Arrays.asList("a", "b", "d", "f")), new HashSet<Object>(reduced.entries()));
+	}
+	
+	/**
+	 * testStreamRoundTrip
+	 * front coded entries, including multi byte chars split by a shared prefix, read back as sent
+	 * 
+	 * @throws Exception
+	 */
+	public void testStreamRoundTrip() throws Exception {
+		String[] entries = { "", "walt disney", "walt disney theme parks", "walts", "\u00e4rzte", "\u00e4\u00e5", "\u6771\u4eac" };
+		InternalTermListFacet read = roundTrip(new InternalTermListFacet("facet", entries, null, options(true, false, 5), false, false, null));
+		
+		assertEquals("facet", read.getName());
+		assertEquals(Arrays.asList((Object[]) entries), read.entries());
+		
+		// the reduce knows the shard lists are sorted and how many entries to keep
+		assertEquals(Arrays.asList("", "walt disney", "walt disney theme parks", "walts", "\u00e4rzte"), 
+				((InternalTermListFacet) read.myReduce("facet", Arrays.<Facet>asList(read))).entries());
+	}
+	
+	/**
+	 * testCompressedStreamRoundTrip
+	 * large lists are compressed
+	 * 
+	 * @throws Exception
+	 */
+	public void testCompressedStreamRoundTrip() throws Exception {
+		String[] entries = new String[20000];
+		int length = 0;
+		for (int i = 0; i < entries.length; i++) {
+			entries[i] = (i % 2 == 0 ? "walt disney theme parks " : "walts plumbing ") + (i % 100);
+			length += entries[i].length();
+		}
+		assertTrue(length > InternalTermListFacet.COMPRESS_THRESHOLD);
+		
+		InternalTermListFacet facet = new InternalTermListFacet("facet", entries, null, options(false, false, 0), false, false, null);
+		BytesStreamOutput out = new BytesStreamOutput();
+		facet.writeTo(out);
+		assertTrue(out.size() < length / 4);
+		
+		InternalTermListFacet read = InternalTermListFacet.readTermListFacet(new BytesStreamInput(out.bytes()));
+		assertEquals(Arrays.asList((Object[]) entries), read.entries());
+	}
+	
+	/**
+	 * testLegacyStream
+	 * shard facets from nodes running an older plugin are still read, and reduced as unsorted
+	 * 
+	 * @throws Exception
+	 */
+	public void testLegacyStream() throws Exception {
+		BytesStreamOutput out = new BytesStreamOutput();
+		out.writeString("facet");
+		out.writeVInt(2);
+		out.writeString("walts");
+		out.writeString("alt");
+		
+		InternalTermListFacet legacy = InternalTermListFacet.readLegacyTermListFacet(new BytesStreamInput(out.bytes()));
+		assertEquals(Arrays.asList("walts", "alt"), legacy.entries());
+		
+		InternalTermListFacet current = new InternalTermListFacet("facet", new String[] { "alt", "disney" }, null, options(true, false, 0), false, false, null);
+		assertEquals(Arrays.asList("alt", "disney", "walts"), 
+				((InternalTermListFacet) current.myReduce("facet", Arrays.<Facet>asList(current, legacy))).entries());
+	}
+	
+	/**
+	 * testLegacyStreamByDefault
+	 * until the compact stream is turned on facets are written in the legacy stream, which older nodes read
+	 * 
+	 * @throws Exception
+	 */
+	public void testLegacyStreamByDefault() throws Exception {
+		InternalTermListFacet facet = new InternalTermListFacet("facet", new String[] { "alt", "walts" }, null,
+				new TermListOptions.Builder().build(), true, false, null);
+		assertEquals(TermListFacet.TYPE, facet.streamType().toUtf8());
+		BytesStreamOutput out = new BytesStreamOutput();
+		facet.writeTo(out);
+		InternalTermListFacet read = InternalTermListFacet.readLegacyTermListFacet(new BytesStreamInput(out.bytes()));
+		assertEquals(Arrays.asList("alt", "walts"), read.entries());
+		assertEquals(TermListFacet.TYPE, read.streamType().toUtf8());
+		
+		// the _termlist action is only known to nodes running this version, it always uses the compact stream
+		out = new BytesStreamOutput();
+		facet.writeCompactTo(out);
+		read = InternalTermListFacet.readTermListFacet(new BytesStreamInput(out.bytes()));
+		assertTrue(read.truncated());
+		assertEquals(TermListFacet.TYPE + "_v2", read.streamType().toUtf8());
+	}
+	
+	/**
+	 * testCounts
+	 * counts are summed across shards, whichever way the lists are reduced
+	 * 
+	 * @throws Exception
+	 */
+	public void testCounts() throws Exception {
+		List<Facet> facets = new ArrayList<Facet>();
+		facets.add(roundTrip(new InternalTermListFacet("facet", new String[] { "alt", "disney" }, new long[] { 1, 5 }, options(true, false, 0), false, false, null)));
+		facets.add(roundTrip(new InternalTermListFacet("facet", new String[] { "disney", "walt" }, new long[] { 2, 4 }, options(true, false, 0), false, false, null)));
+		
+		InternalTermListFacet merged = (InternalTermListFacet) ((InternalTermListFacet) facets.get(0)).myReduce("facet", facets);
+		assertEquals(Arrays.asList("alt", "disney", "walt"), merged.entries());
+		assertEquals(Arrays.asList(1L, 7L, 4L), merged.counts());
+		
+		facets.clear();
+		facets.add(new InternalTermListFacet("facet", new String[] { "disney", "alt" }, new long[] { 5, 1 }, options(true, true, 2), false, false, null));
+		facets.add(new InternalTermListFacet("facet", new String[] { "walt", "disney", "alt" }, new long[] { 4, 2, 1 }, options(true, true, 2), false, false, null));
+		
+		InternalTermListFacet byCount = (InternalTermListFacet) ((InternalTermListFacet) facets.get(0)).myReduce("facet", facets);
+		assertEquals(Arrays.asList("disney", "walt"), byCount.entries());
+		assertEquals(Arrays.asList(7L, 4L), byCount.counts());
+	}
+	
+	/**
+	 * testTruncated
+	 * a list cut at size, or holding a truncated shard list, is reported as truncated, and timed out shards as timed out
+	 * 
+	 * @throws Exception
+	 */
+	public void testTruncated() throws Exception {
+		assertFalse(reduce(true, 3, new String[] { "a", "b" }, new String[] { "b", "c" }).truncated());
+		assertTrue(reduce(true, 2, new String[] { "a", "b" }, new String[] { "b", "c" }).truncated());
+		assertFalse(reduce(false, 3, new String[] { "b", "a" }, new String[] { "c", "b" }).truncated());
+		assertTrue(reduce(false, 2, new String[] { "b", "a" }, new String[] { "c", "b" }).truncated());
+		
+		List<Facet> facets = new ArrayList<Facet>();
+		facets.add(roundTrip(new InternalTermListFacet("facet", new String[] { "alt" }, null, options(true, false, 0), true, false, null)));
+		facets.add(roundTrip(new InternalTermListFacet("facet", new String[] { "walt" }, null, options(true, false, 0), false, false, null)));
+		assertTrue(((InternalTermListFacet) facets.get(0)).truncated());
+		assertFalse(((InternalTermListFacet) facets.get(1)).truncated());
+		
+		InternalTermListFacet merged = (InternalTermListFacet) ((InternalTermListFacet) facets.get(0)).myReduce("facet", facets);
+		assertEquals(Arrays.asList("alt", "walt"), merged.entries());
+		assertTrue(merged.truncated());
+		assertFalse(merged.timedOut());
+		
+		facets.set(1, roundTrip(new InternalTermListFacet("facet", new String[] { "walt" }, null, options(true, false, 0), false, true, null)));
+		assertTrue(((InternalTermListFacet) facets.get(1)).timedOut());
+		merged = (InternalTermListFacet) ((InternalTermListFacet) facets.get(0)).myReduce("facet", facets);
+		assertTrue(merged.timedOut());
+	}
+	
+	public void testProfile() throws Exception {
+		List<Facet> facets = new ArrayList<Facet>();
+		facets.add(roundTrip(new InternalTermListFacet("facet", new String[] { "alt" }, null, options(true, false, 0), false, false,
+				Collections.singletonList(new TermListProfile("[node][index][0]", 3, 6, 120, 1, false, 5000)))));
+		facets.add(roundTrip(new InternalTermListFacet("facet", new String[] { "walt" }, null, options(true, false, 0), true, false,
+				Collections.singletonList(new TermListProfile("[node][index][1]", 2, 4, 80, 1, true, 7000)))));
+		
+		TermListProfile profile = ((InternalTermListFacet) facets.get(0)).profile().get(0);
+		assertEquals("[node][index][0]", profile.shard());
+		assertEquals(3, profile.segments());
+		assertEquals(6, profile.fields());
+		assertEquals(120, profile.termsEnumerated());
+		assertEquals(1, profile.termsMatched());
+		assertFalse(profile.earlyStop());
+		assertEquals(5000, profile.timeInNanos());
+		
+		InternalTermListFacet merged = (InternalTermListFacet) ((InternalTermListFacet) facets.get(0)).myReduce("facet", facets);
+		assertEquals(Arrays.asList("alt", "walt"), merged.entries());
+		assertEquals(2, merged.profile().size());
+		assertEquals("[node][index][1]", merged.profile().get(1).shard());
+		assertTrue(merged.profile().get(1).earlyStop());
+		
+		// without a profile the facet is written in the previous format, nodes not upgraded yet still read it
+		assertTrue(roundTrip(new InternalTermListFacet("facet", new String[] { "alt" }, null, options(true, false, 0), false, false, null)).profile().isEmpty());
+	}
+	
+	/**
+	 * testTermOrder
+	 * strings are ordered by code point, like the UTF-8 terms of the dictionary and the after cursor
+	 */
+	public void testTermOrder() {
+		final String[] chars = { "a", "z", "\u00e9", "\u4eac", "\ud7ff", "\ue000", "\uff21", "\uffff", "\ud800\udc00", "\ud83d\ude00", "\udbff\udfff" };
+		final Random random = new Random(0);
+		for (int i = 0; i < 10000; i++) {
+			final String a = randomString(random, chars);
+			final String b = randomString(random, chars);
+			assertEquals(a + " : " + b, Integer.signum(new BytesRef(a).compareTo(new BytesRef(b))), Integer.signum(InternalTermListFacet.TERM_ORDER.compare(a, b)));
+		}
+		
+		// a surrogate pair sorts before U+FFE0 as a String, after it by code point
+		assertEquals(Arrays.asList("plum", "\uffe0", "\ud801\udc00"), reduce(true, 0, new String[] { "plum", "\ud801\udc00" }, new String[] { "\uffe0" }).entries());
+		assertEquals(Arrays.asList("plum", "\uffe0"), reduce(true, 2, new String[] { "\ud801\udc00" }, new String[] { "plum", "\uffe0" }).entries());
+	}
+	
+	private static String randomString(final Random random, final String[] chars) {
+		final StringBuilder builder = new StringBuilder();
+		for (int i = random.nextInt(4); i >= 0; i--) {
+			builder.append(chars[random.nextInt(chars.length)]);
+		}
+		return builder.toString();
+	}
+	
+	private InternalTermListFacet roundTrip(InternalTermListFacet facet) throws Exception {
+		BytesStreamOutput out = new BytesStreamOutput();
+		facet.writeTo(out);
+		return InternalTermListFacet.readTermListFacet(new BytesStreamInput(out.bytes()));
+	}
+	
+	private static TermListOptions options(boolean sort, boolean orderByCount, int size) {
+		return new TermListOptions.Builder().sort(sort).orderByCount(orderByCount).size(size).compactStream(true).build();
+	}
+	
+	private InternalTermListFacet reduce(boolean sort, int size, String[]... shards) {
+		List<Facet> facets = new ArrayList<Facet>();
+		for (String[] shard : shards) {
+			facets.add(new InternalTermListFacet("facet", shard, null, options(sort, false, size), false, false, null));
+		}
+		return (InternalTermListFacet) ((InternalTermListFacet) facets.get(0)).myReduce("facet", facets);
+	}
+}
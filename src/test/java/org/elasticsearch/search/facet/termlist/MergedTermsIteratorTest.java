@@ -0,0 +1,93 @@
+/* Copyright 2013 Endgame, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.search.facet.termlist;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * MergedTermsIteratorTest
+ * 
+ * The merged terms have to be the sorted distinct terms of the subs, with summed doc frequencies.
+ */
+public class MergedTermsIteratorTest extends TestCase {
+
+	public void testMergesDistinctTerms() throws Exception {
+		final List<DocFreqIterator> subs = new ArrayList<DocFreqIterator>();
+		subs.add(sub(new String[] { "apple", "cherry", "plum" }, new int[] { 1, 2, 3 }));
+		subs.add(sub(new String[] {}, new int[] {}));
+		subs.add(sub(new String[] { "banana", "cherry", "\u00e9clair" }, new int[] { 4, 5, 6 }));
+		subs.add(sub(new String[] { "cherry" }, new int[] { 7 }));
+		
+		final MergedTermsIterator it = new MergedTermsIterator(subs);
+		assertNext(it, "apple", 1);
+		assertNext(it, "banana", 4);
+		assertNext(it, "cherry", 14);
+		assertNext(it, "plum", 3);
+		assertNext(it, "\u00e9clair", 6);
+		assertNull(it.next());
+		assertNull(it.next());
+	}
+	
+	public void testRandomSubs() throws Exception {
+		final Random random = new Random(0);
+		for (int iter = 0; iter < 50; iter++) {
+			final TreeMap<String, Integer> expected = new TreeMap<String, Integer>();
+			final List<DocFreqIterator> subs = new ArrayList<DocFreqIterator>();
+			
+			for (int s = random.nextInt(6); s > 0; s--) {
+				final TreeMap<String, Integer> terms = new TreeMap<String, Integer>();
+				for (int t = random.nextInt(30); t > 0; t--) {
+					terms.put(Integer.toString(random.nextInt(100), 36), 1 + random.nextInt(10));
+				}
+				final int[] docFreqs = new int[terms.size()];
+				int upto = 0;
+				for (String term : terms.keySet()) {
+					docFreqs[upto++] = terms.get(term);
+					expected.put(term, (expected.containsKey(term) ? expected.get(term) : 0) + terms.get(term));
+				}
+				subs.add(sub(terms.keySet().toArray(new String[terms.size()]), docFreqs));
+			}
+			
+			final MergedTermsIterator it = new MergedTermsIterator(subs);
+			for (String term : expected.keySet()) {
+				assertNext(it, term, expected.get(term));
+			}
+			assertNull(it.next());
+		}
+	}
+	
+	private static DocFreqIterator sub(final String[] terms, final int[] docFreqs) {
+		final BytesRef[] bytes = new BytesRef[terms.length];
+		for (int i = 0; i < terms.length; i++) {
+			bytes[i] = new BytesRef(terms[i]);
+		}
+		return DocFreqIterator.of(bytes, docFreqs);
+	}
+	
+	private static void assertNext(final MergedTermsIterator it, final String term, final int docFreq) throws Exception {
+		final BytesRef next = it.next();
+		assertNotNull(next);
+		assertEquals(term, next.utf8ToString());
+		assertEquals(docFreq, it.docFreq());
+	}
+}
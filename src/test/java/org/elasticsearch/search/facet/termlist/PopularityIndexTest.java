@@ -0,0 +1,155 @@
+/* Copyright 2013 Endgame, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.search.facet.termlist;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.Version;
+
+/**
+ * PopularityIndexTest
+ * 
+ * The top terms of a prefix have to be its most frequent matches, ties in term order.
+ */
+public class PopularityIndexTest extends TestCase {
+
+	public void testTopByDocFreq() throws Exception {
+		final Map<String, Integer> terms = new TreeMap<String, Integer>();
+		terms.put("apple", 3);
+		terms.put("apricot", 5);
+		terms.put("Apex", 4);
+		terms.put("banana", 9);
+		terms.put("APRIL", 2);
+		terms.put("ape", 5);
+		final PopularityIndex index = index(terms);
+		
+		assertTop(index.top("ap", false, 3), "ape", 5, "apricot", 5, "apple", 3);
+		assertTop(index.top("AP", true, 4), "ape", 5, "apricot", 5, "Apex", 4, "apple", 3);
+		assertTop(index.top(null, false, 1), "banana", 9);
+		assertTop(index.top("zz", true, 5));
+		assertTop(index.top("apex", false, 5));
+	}
+	
+	public void testLongPrefix() throws Exception {
+		// only the leading characters get case variants, the tail is checked on each candidate
+		final Map<String, Integer> terms = new TreeMap<String, Integer>();
+		terms.put("abcdefghijx", 1);
+		terms.put("ABCDEFGHIJY", 2);
+		terms.put("abcdefghzz", 7);
+		final PopularityIndex index = index(terms);
+		
+		assertTop(index.top("abcdefghij", true, 2), "ABCDEFGHIJY", 2, "abcdefghijx", 1);
+	}
+	
+	public void testRandomTerms() throws Exception {
+		final Random random = new Random(0);
+		final String letters = "aAbBc";
+		for (int iter = 0; iter < 20; iter++) {
+			final Map<String, Integer> terms = new TreeMap<String, Integer>();
+			for (int t = 1 + random.nextInt(40); t > 0; t--) {
+				terms.put(randomString(random, letters, 1 + random.nextInt(4)), 1 + random.nextInt(5));
+			}
+			final PopularityIndex index = index(terms);
+			
+			for (int q = 0; q < 10; q++) {
+				final String prefix = randomString(random, letters, random.nextInt(3));
+				final boolean caseInsensitive = random.nextBoolean();
+				final int n = 1 + random.nextInt(8);
+				
+				final List<String> expected = new ArrayList<String>();
+				for (String term : terms.keySet()) {
+					if (caseInsensitive ? term.toLowerCase().startsWith(prefix.toLowerCase()) : term.startsWith(prefix)) {
+						expected.add(term);
+					}
+				}
+				Collections.sort(expected, new Comparator<String>() {
+					@Override
+					public int compare(String a, String b) {
+						final int cmp = terms.get(b).compareTo(terms.get(a));
+						return cmp != 0 ? cmp : new BytesRef(a).compareTo(new BytesRef(b));
+					}
+				});
+				
+				final DocFreqIterator it = index.top(prefix, caseInsensitive, n);
+				for (String term : expected.subList(0, Math.min(n, expected.size()))) {
+					assertEquals(new BytesRef(term), it.next());
+					assertEquals(terms.get(term).intValue(), it.docFreq());
+				}
+				assertNull(it.next());
+			}
+		}
+	}
+	
+	private static String randomString(final Random random, final String letters, final int length) {
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < length; i++) {
+			sb.append(letters.charAt(random.nextInt(letters.length())));
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * @return the index of a single segment holding each term in as many docs as its doc frequency
+	 */
+	private static PopularityIndex index(final Map<String, Integer> terms) throws IOException {
+		final RAMDirectory dir = new RAMDirectory();
+		final IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(Version.LUCENE_45, new KeywordAnalyzer()));
+		for (Map.Entry<String, Integer> term : terms.entrySet()) {
+			for (int i = 0; i < term.getValue(); i++) {
+				final Document doc = new Document();
+				doc.add(new StringField("field", term.getKey(), Field.Store.NO));
+				writer.addDocument(doc);
+			}
+		}
+		writer.forceMerge(1);
+		writer.close();
+		
+		final DirectoryReader reader = DirectoryReader.open(dir);
+		try {
+			final AtomicReader segment = reader.leaves().get(0).reader();
+			return PopularityIndex.build(segment.terms("field").iterator(null));
+		} finally {
+			reader.close();
+		}
+	}
+	
+	private static void assertTop(final DocFreqIterator it, final Object... termsAndDocFreqs) throws IOException {
+		for (int i = 0; i < termsAndDocFreqs.length; i += 2) {
+			assertEquals(new BytesRef((String) termsAndDocFreqs[i]), it.next());
+			assertEquals(termsAndDocFreqs[i + 1], it.docFreq());
+		}
+		assertNull(it.next());
+	}
+}
@@ -0,0 +1,78 @@
+/* Copyright 2013 Endgame, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.search.facet.termlist;
+
+import junit.framework.TestCase;
+
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.settings.ImmutableSettings;
+
+/**
+ * TermBytesHashTest
+ * 
+ * The hash has to list distinct terms in code point order, and give back to the breaker every byte it reserved.
+ */
+public class TermBytesHashTest extends TestCase {
+
+	public void testDistinctSortedTerms() throws Exception {
+		final TermListCircuitBreaker breaker = breaker("1mb");
+		final TermBytesHash hash = new TermBytesHash(breaker, "test", true);
+		assertTrue(hash.add(new BytesRef("plum"), 1));
+		assertTrue(hash.add(new BytesRef("\uffe0"), 2));
+		assertTrue(hash.add(new BytesRef("\ud801\udc00"), 3));		// a surrogate pair, sorts after U+FFE0 by code point like the term dictionary
+		assertTrue(hash.add(new BytesRef("apple"), 4));
+		assertFalse(hash.add(new BytesRef("plum"), 5));
+		assertTrue(hash.addToExisting(new BytesRef("apple"), 6));
+		assertFalse(hash.addToExisting(new BytesRef("cherry"), 7));
+		assertEquals(4, hash.size());
+		assertTrue(breaker.used() > 0);
+		assertEquals(breaker.used(), hash.ramBytesUsed());
+
+		final int[] ids = hash.ids(true);
+		assertEquals(4, ids.length);
+		final String[] terms = { "apple", "plum", "\uffe0", "\ud801\udc00" };
+		final long[] counts = { 10, 6, 2, 3 };
+		for (int i = 0; i < ids.length; i++) {
+			assertEquals(terms[i], hash.string(ids[i]));
+			assertEquals(counts[i], hash.count(ids[i]));
+		}
+
+		assertTrue(hash.release());
+		assertFalse(hash.release());
+		assertEquals(0, breaker.used());
+	}
+
+	public void testBreaks() throws Exception {
+		final TermListCircuitBreaker breaker = breaker("64kb");
+		final TermBytesHash hash = new TermBytesHash(breaker, "test", false);
+		try {
+			for (int i = 0; i < 100000; i++) {
+				hash.add(new BytesRef("term" + i), 0);
+			}
+			fail("the breaker should have tripped");
+		} catch (TermListCircuitBreakingException e) {
+			assertTrue(e.getMessage().contains("[test]"));
+		}
+		assertEquals(1, breaker.trippedCount());
+		assertTrue(breaker.used() <= breaker.limit());
+		hash.release();
+		assertEquals(0, breaker.used());
+	}
+
+	private static TermListCircuitBreaker breaker(final String limit) {
+		return new TermListCircuitBreaker(ImmutableSettings.settingsBuilder().put(TermListCircuitBreaker.LIMIT, limit).build());
+	}
+}
@@ -0,0 +1,111 @@
+/* Copyright 2013 Endgame, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.search.facet.termlist;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * TermBytesMatcherTest
+ * 
+ * The byte level matcher has to agree with matching on Strings lowercased a code point at a time.
+ */
+public class TermBytesMatcherTest extends TestCase {
+	private static final String[] TERMS = {
+		"walt disney", "Walt Disney Theme Parks", "WALTS PLUMBING", "altibox",
+		"\u00c4rzte ohne Grenzen", "\u00e4rzte", "cr\u00e8me br\u00fbl\u00e9e", "CR\u00c8ME", "\u0141\u00f3d\u017a", "\u0142\u00d3d\u0179",
+		"\u03a3\u03af\u03c3\u03c5\u03c6\u03bf\u03c2", "\u03a3\u038a\u03a3\u03a5\u03a6\u039f\u03a3", "\u041c\u043e\u0441\u043a\u0432\u0430", "\u041c\u041e\u0421\u041a\u0412\u0410", "\u6771\u4eac tower", "\uff21\uff22\uff23", "", "a"
+	};
+	
+	private static final String[] SEARCHES = {
+		"alt", "ALT", "disney t", "\u00e4rz", "\u00c4RZ", "cr\u00e8me", "\u00c8ME B", "\u0142\u00f3", "\u0141\u00d3D\u0179", "\u03c3\u03af\u03c3", "\u03a3\u038a\u03a3", "\u043c\u043e\u0441\u043a", "\u043a\u0432\u0430", "\u4eac T", "\uff41\uff42", "", "z"
+	};
+
+	/**
+	 * testAgreesWithStrings
+	 */
+	public void testAgreesWithStrings() {
+		for (String search : SEARCHES) {
+			for (boolean prefix : new boolean[] { true, false }) {
+				for (boolean caseInsensitive : new boolean[] { true, false }) {
+					TermBytesMatcher matcher = new TermBytesMatcher(search, prefix, caseInsensitive);
+					for (String term : TERMS) {
+						assertEquals(search + " : " + term + " : " + prefix + " : " + caseInsensitive, 
+								expected(term, search, prefix, caseInsensitive), 
+								matcher.matches(new BytesRef(term)));
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * testLowerCase
+	 * no final sigma, no dotted i of two chars and no default locale, like the case folded automata
+	 */
+	public void testLowerCase() {
+		assertEquals("\u03c3\u03af\u03c3\u03c5\u03c6\u03bf\u03c3", TermBytesMatcher.lowerCase("\u03a3\u038a\u03a3\u03a5\u03a6\u039f\u03a3"));
+		assertEquals("i", TermBytesMatcher.lowerCase("\u0130"));
+		assertEquals("\ud801\udc28x", TermBytesMatcher.lowerCase("\ud801\udc00X"));
+		assertTrue(new TermBytesMatcher("\u03c3\u03af\u03c3", false, true).matches(new BytesRef("\u03a3\u038a\u03a3")));
+	}
+	
+	/**
+	 * testRandomAscii
+	 * horspool shifts against String.contains
+	 */
+	public void testRandomAscii() {
+		Random random = new Random(0);
+		for (int i = 0; i < 1000; i++) {
+			String term = randomString(random, random.nextInt(20));
+			String search = randomString(random, 1 + random.nextInt(3));
+			TermBytesMatcher matcher = new TermBytesMatcher(search, false, true);
+			assertEquals(term + " : " + search, expected(term, search, false, true), matcher.matches(new BytesRef(term)));
+		}
+	}
+	
+	/**
+	 * testOffsetTerm
+	 * terms coming from the dictionary rarely start at offset 0
+	 */
+	public void testOffsetTerm() {
+		BytesRef term = new BytesRef("xxALTIBOXxx");
+		term.offset = 2;
+		term.length = 7;
+		assertTrue(new TermBytesMatcher("altibox", true, true).matches(term));
+		assertFalse(new TermBytesMatcher("boxx", false, true).matches(term));
+		assertFalse(new TermBytesMatcher("xal", false, true).matches(term));
+	}
+	
+	private static boolean expected(String term, String search, boolean prefix, boolean caseInsensitive) {
+		if (caseInsensitive) {
+			term = TermBytesMatcher.lowerCase(term);
+			search = TermBytesMatcher.lowerCase(search);
+		}
+		return prefix ? term.startsWith(search) : term.contains(search);
+	}
+	
+	private static String randomString(Random random, int length) {
+		char[] chars = new char[length];
+		for (int i = 0; i < length; i++) {
+			chars[i] = (char) ((random.nextBoolean() ? 'a' : 'A') + random.nextInt(3));
+		}
+		return new String(chars);
+	}
+}
@@ -0,0 +1,177 @@
+/* Copyright 2013 Endgame, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.search.facet.termlist;
+
+import junit.framework.TestCase;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.WildcardQuery;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.automaton.Automaton;
+import org.apache.lucene.util.automaton.BasicOperations;
+import org.apache.lucene.util.automaton.CompiledAutomaton;
+import org.apache.lucene.util.automaton.RegExp;
+import org.elasticsearch.common.settings.ImmutableSettings;
+
+/**
+ * TermListAutomataTest
+ * 
+ * The automata have to accept exactly the terms the facet parameters describe.
+ */
+public class TermListAutomataTest extends TestCase {
+
+	private static final int MAX_STATES = 10000;
+
+	public void testFuzzy() {
+		assertTrue(fuzzy("dsiney", 1, true, 0, false, false, "disney"));
+		assertFalse(fuzzy("dsiney", 1, false, 0, false, false, "disney"));
+		assertTrue(fuzzy("dsiney", 2, false, 0, false, false, "disney"));
+		assertTrue(fuzzy("disny", 1, true, 0, false, false, "disney"));
+		assertFalse(fuzzy("dsiney", 1, true, 2, false, false, "disney"));
+		assertTrue(fuzzy("disnex", 1, true, 3, false, false, "disney"));
+		assertFalse(fuzzy("dsiney", 1, true, 0, false, false, "disney world"));
+		assertTrue(fuzzy("dsiney", 1, true, 0, true, false, "disney world"));
+		assertFalse(fuzzy("DSINEY", 1, true, 0, false, false, "disney"));
+		assertTrue(fuzzy("DSINEY", 1, true, 0, false, true, "Disney"));
+		assertTrue(fuzzy("\u00e4rzte", 1, true, 0, false, true, "\u00c4RZTEN"));
+	}
+
+	public void testRegex() {
+		assertTrue(matches(TermListAutomata.regex("[a-c]lt.*", false, MAX_STATES), "altibox"));
+		assertTrue(matches(TermListAutomata.regex("[a-c]lt.*", false, MAX_STATES), "clt"));
+		assertFalse(matches(TermListAutomata.regex("[a-c]lt.*", false, MAX_STATES), "walt"));
+		assertFalse(matches(TermListAutomata.regex("[a-c]lt.*", false, MAX_STATES), "ALTIBOX"));
+		assertTrue(matches(TermListAutomata.regex("[a-c]lt.*", true, MAX_STATES), "ALTIBOX"));
+	}
+
+	public void testCaseInsensitiveComplement() {
+		final Automaton notA = TermListAutomata.regex("[^a]", true, MAX_STATES);
+		assertFalse(matches(notA, "a"));
+		assertFalse(matches(notA, "A"));
+		assertTrue(matches(notA, "b"));
+		assertTrue(matches(notA, "B"));
+		final Automaton notAlt = TermListAutomata.regex("~(alt.*)&[a-zA-Z]+", true, MAX_STATES);
+		assertFalse(matches(notAlt, "altibox"));
+		assertFalse(matches(notAlt, "ALTIBOX"));
+		assertTrue(matches(notAlt, "Walt"));
+	}
+	
+	public void testWildcard() {
+		assertTrue(matches(TermListAutomata.wildcard("alt*corp", false, MAX_STATES), "alt corp"));
+		assertTrue(matches(TermListAutomata.wildcard("alt*corp", false, MAX_STATES), "altcorp"));
+		assertFalse(matches(TermListAutomata.wildcard("alt*corp", false, MAX_STATES), "alt corporation"));
+		assertTrue(matches(TermListAutomata.wildcard("w?lt", false, MAX_STATES), "walt"));
+		assertFalse(matches(TermListAutomata.wildcard("w?lt", false, MAX_STATES), "wlt"));
+		assertTrue(matches(TermListAutomata.wildcard("ALT*", true, MAX_STATES), "altibox"));
+	}
+	
+	public void testAutomatonCacheLimits() {
+		TermListAutomatonCache cache = new TermListAutomatonCache(ImmutableSettings.settingsBuilder()
+				.put(TermListAutomatonCache.MAX_STATES, 20).put(TermListAutomatonCache.MAX_PATTERN_LENGTH, 30).build());
+		
+		CompiledAutomaton first = cache.get("regex:alt.*", "alt.*", regex("alt.*"));
+		assertSame(first, cache.get("regex:alt.*", "alt.*", regex("alt.*")));
+		assertEquals(1, cache.size());
+		
+		try {
+			cache.get("regex:long", "[a-z]{0,25}", regex("[a-z]{0,25}"));
+			fail("too many states");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			cache.get("regex:longer", "abcdefghijklmnopqrstuvwxyz012345", regex("abcdefghijklmnopqrstuvwxyz012345"));
+			fail("too long");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			cache.get("regex:broken", "[a-", regex("[a-"));
+			fail("invalid");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		assertEquals(1, cache.size());
+	}
+	
+	public void testStateBudget() {
+		// the deterministic automaton of (a|b)*a(a|b){n} needs 2^(n+1) states, Lucene would build them all first
+		final long start = System.nanoTime();
+		for (String pattern : new String[] { "(a|b)*a(a|b){40}", "(a|aa)*b.*a.{40}", "~((a|b)*a(a|b){40})", "(.*a.{30})&(.*b.{20})" }) {
+			try {
+				TermListAutomata.regex(pattern, false, MAX_STATES);
+				fail("too many states for " + pattern);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+		try {
+			TermListAutomata.wildcard("*a????????????????????????????????????????", false, 1000);
+			fail("too many states");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		assertTrue("took " + (System.nanoTime() - start) / 1000000 + "ms", System.nanoTime() - start < 10000000000L);
+
+		// within budget the automata are minimal and match like Lucene's own
+		assertEquals(2 << 8, TermListAutomata.regex("(a|b)*a(a|b){8}", false, MAX_STATES).getNumberOfStates());
+		assertTrue(matches(TermListAutomata.regex("(a|b)*a(a|b){8}", false, MAX_STATES), "bbbabbbbbbbb"));
+		assertFalse(matches(TermListAutomata.regex("(a|b)*a(a|b){8}", false, MAX_STATES), "abbbbbbbbb"));
+		assertTrue(matches(TermListAutomata.regex("~(a.*)&[a-z]+", false, MAX_STATES), "bat"));
+		assertFalse(matches(TermListAutomata.regex("~(a.*)&[a-z]+", false, MAX_STATES), "abba"));
+		assertTrue(matches(TermListAutomata.regex("<1-120>x?", false, MAX_STATES), "99x"));
+		assertFalse(matches(TermListAutomata.regex("<1-120>x?", false, MAX_STATES), "121"));
+	}
+
+	public void testSameLanguageAsLucene() {
+		// the patterns are parsed by our own parser, their languages are those of Lucene's RegExp and WildcardQuery
+		for (String pattern : new String[] { "", "()", "alt", "[a-c]lt.*", "[^a-c]+x?", "a|b|cd", "(ab)*c{2,4}d{3}e{2,}", "~(a.*)&[a-z]+",
+				"\\.\\[", "\"a.b\"c", "@&~(.*z)", "#|x", "<1-120>", "<007-42>x", "(a|b)*a(a|b){3}", "x&y|z", "[a-c\\]\\-]+", "\ud83d\ude00+" }) {
+			assertTrue(pattern, BasicOperations.sameLanguage(new RegExp(pattern, RegExp.ALL).toAutomaton(), TermListAutomata.regex(pattern, false, MAX_STATES)));
+		}
+		for (String pattern : new String[] { "", "alt*corp", "w?lt", "*", "a\\*b", "a\\?", "trailing\\", "\\\\x" }) {
+			assertTrue(pattern, BasicOperations.sameLanguage(WildcardQuery.toAutomaton(new Term("", pattern)), TermListAutomata.wildcard(pattern, false, MAX_STATES)));
+		}
+		
+		for (String pattern : new String[] { "[a-", "(a", "a)", "a{2", "a{,3}", "\"abc", "<1-2", "<1-x>", "<name>", "a|", "[c-a]" }) {
+			try {
+				TermListAutomata.regex(pattern, false, MAX_STATES);
+				fail("invalid " + pattern);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	private static TermListAutomatonCache.Builder regex(final String pattern) {
+		return new TermListAutomatonCache.Builder() {
+			@Override
+			public Automaton build(final int maxStates) {
+				return TermListAutomata.regex(pattern, false, maxStates);
+			}
+		};
+	}
+	
+	private static boolean matches(Automaton automaton, String term) {
+		return TermListAutomata.run(new CompiledAutomaton(automaton, null, true), new BytesRef(term));
+	}
+	
+	private static boolean fuzzy(String search, int distance, boolean transpositions, int prefixLength, boolean prefix, boolean caseInsensitive, String term) {
+		final CompiledAutomaton automaton = new CompiledAutomaton(
+				TermListAutomata.fuzzy(search, distance, transpositions, prefixLength, prefix, caseInsensitive, MAX_STATES), null, true);
+		return TermListAutomata.run(automaton, new BytesRef(term));
+	}
+}
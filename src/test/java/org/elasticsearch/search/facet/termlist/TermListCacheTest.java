@@ -0,0 +1,87 @@
+/* Copyright 2013 Endgame, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.search.facet.termlist;
+
+import junit.framework.TestCase;
+
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.Version;
+import org.elasticsearch.ElasticSearchParseException;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.monitor.jvm.JvmInfo;
+
+/**
+ * TermListCacheTest
+ * 
+ * The lists of a segment are dropped when it closes, the memory settings take bytes or a share of the heap.
+ */
+public class TermListCacheTest extends TestCase {
+
+	public void testDroppedWithTheirSegment() throws Exception {
+		final RAMDirectory dir = new RAMDirectory();
+		final IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(Version.LUCENE_45, new KeywordAnalyzer()));
+		for (String term : new String[] { "apple", "banana" }) {
+			final Document doc = new Document();
+			doc.add(new StringField("field", term, Field.Store.NO));
+			writer.addDocument(doc);
+			writer.commit();		// a segment per term
+		}
+		writer.close();
+		
+		final TermListCache cache = new TermListCache(ImmutableSettings.settingsBuilder().put(TermListCache.CACHE_SIZE, "1mb").build());
+		final DirectoryReader reader = DirectoryReader.open(dir);
+		assertEquals(2, reader.leaves().size());
+		final AtomicReader first = reader.leaves().get(0).reader();
+		final AtomicReader second = reader.leaves().get(1).reader();
+		cache.put(first, key(first, "a"), new TermListCache.Entry(new BytesRef[] { new BytesRef("apple") }, new int[] { 1 }));
+		cache.put(first, key(first, "p"), new TermListCache.Entry(new BytesRef[] { new BytesRef("apple") }, new int[] { 1 }));
+		cache.put(second, key(second, "b"), new TermListCache.Entry(new BytesRef[] { new BytesRef("banana") }, new int[] { 1 }));
+		assertEquals(3, cache.size());
+		
+		cache.onClose(first.getCoreCacheKey());
+		assertEquals(1, cache.size());
+		assertNotNull(cache.get(key(second, "b")));
+		
+		reader.close();
+		assertEquals(0, cache.size());
+	}
+	
+	public void testMemorySettings() {
+		final long heap = JvmInfo.jvmInfo().getMem().getHeapMax().bytes();
+		assertEquals(heap / 10, TermListSettings.getAsMemory(ImmutableSettings.EMPTY, "size", "10%").bytes(), 1);
+		assertEquals(heap / 4, TermListSettings.getAsMemory(ImmutableSettings.settingsBuilder().put("size", "25%").build(), "size", "10%").bytes(), 1);
+		assertEquals(512 * 1024, TermListSettings.getAsMemory(ImmutableSettings.settingsBuilder().put("size", "512kb").build(), "size", "10%").bytes());
+		try {
+			TermListSettings.getAsMemory(ImmutableSettings.settingsBuilder().put("size", "ten%").build(), "size", "10%");
+			fail("not a percentage");
+		} catch (ElasticSearchParseException e) {
+			// expected
+		}
+	}
+	
+	private static TermListCache.Key key(final AtomicReader reader, final String search) {
+		return new TermListCache.Key(reader, "field", search, true, false, 100, null, null, true);
+	}
+}
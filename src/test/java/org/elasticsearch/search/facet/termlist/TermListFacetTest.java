@@ -19,7 +19,9 @@ import static org.elasticsearch.node.NodeBuilder.nodeBuilder;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -41,6 +43,13 @@ import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.action.termlist.TermListAction;
+import org.elasticsearch.action.termlist.TermListRequest;
+import org.elasticsearch.action.termlist.TermListResponse;
+import org.elasticsearch.action.termlist.stats.TermListNodeStats;
+import org.elasticsearch.action.termlist.stats.TermListStatsAction;
+import org.elasticsearch.action.termlist.stats.TermListStatsRequest;
+import org.elasticsearch.action.termlist.stats.TermListStatsResponse;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.client.transport.TransportClient;
 import org.elasticsearch.common.settings.ImmutableSettings;
@@ -48,7 +57,10 @@ import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.transport.InetSocketTransportAddress;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.node.Node;
+import org.elasticsearch.node.internal.InternalNode;
+import org.elasticsearch.search.facet.FacetBuilders;
 
 /**
  * TermListFacetTest
@@ -111,7 +123,8 @@ public class TermListFacetTest extends TestCase {
 					.put("path.data", "target")
 					.put("refresh_interval", -1)
 					.put("node.name", "chicken_1")
-					.put("index.cache.field.type", "soft").build();
+					.put("index.cache.field.type", "soft")
+					.put(TermListFacetParser.COMPACT_STREAM, true).build();
 	
 			node = nodeBuilder().local(true).settings(settings).clusterName("TermListFacetTest").node();
 			node.start();
@@ -128,7 +141,8 @@ public class TermListFacetTest extends TestCase {
 					.put("path.data", "target")
 					.put("refresh_interval", -1)
 					.put("node.name", "chicken_2")
-					.put("index.cache.field.type", "soft").build();
+					.put("index.cache.field.type", "soft")
+					.put(TermListFacetParser.COMPACT_STREAM, true).build();
 	
 			node_two = nodeBuilder().local(true).settings(settings_two).clusterName("TermListFacetTest").node();
 			node_two.start();			
@@ -296,6 +310,223 @@ public class TermListFacetTest extends TestCase {
 	
 	}
 	
+	/**
+	 * testSortedShardLimitKeepsFirstTerms
+	 * a truncated sorted list holds the alphabetically first terms of all fields
+	 * 
+	 * @throws Exception
+	 */
+	public void testSortedShardLimitKeepsFirstTerms() throws Exception {
+		runStandardPutsAndFlush(index);
+		SearchResponse response = this.getTermList(index, testFields_nameAndChildName, null, 10, false, true, true);
+		
+		List<String> expected = new ArrayList<String>(uniqAllText);
+		Collections.sort(expected);
+		expected = expected.subList(0, Math.min(10, expected.size()));
+		
+		assertEquals(expected, ((TermListFacet) response.getFacets().facet(facetName)).entries());
+	}
+	
+	/**
+	 * testShardSizeTruncation
+	 * a list cut by shard_size or size says so, a complete one does not
+	 * 
+	 * @throws Exception
+	 */
+	public void testShardSizeTruncation() throws Exception {
+		runStandardPutsAndFlush(index);
+		
+		TermListFacet full = termList(new TermListFacetBuilder(facetName).fields(testFields_name).maxPerShard(10000));
+		assertEquals(uniqParentText.size(), full.entries().size());
+		assertFalse(full.truncated());
+		
+		TermListFacet cut = termList(new TermListFacetBuilder(facetName).fields(testFields_name).shardSize(5));
+		assertEquals(5, cut.entries().size());
+		assertTrue(cut.truncated());
+		
+		// the shards default to size terms each, the merged list is still the smallest terms
+		List<String> expected = new ArrayList<String>(uniqParentText);
+		Collections.sort(expected);
+		TermListFacet sized = termList(new TermListFacetBuilder(facetName).fields(testFields_name).size(5));
+		assertEquals(expected.subList(0, 5), sized.entries());
+		assertTrue(sized.truncated());
+		
+		TermListFacet unsorted = termList(new TermListFacetBuilder(facetName).fields(testFields_name).sort(false).size(uniqParentText.size()));
+		assertEquals(uniqParentText, new HashSet<Object>(unsorted.entries()));
+		assertFalse(unsorted.truncated());
+	}
+	
+	/**
+	 * testMaxTimePerShard
+	 * a shard out of time returns what it found so far and says so
+	 * 
+	 * @throws Exception
+	 */
+	public void testMaxTimePerShard() throws Exception {
+		runStandardPutsAndFlush(index);
+		
+		TermListFacet full = termList(new TermListFacetBuilder(facetName).fields(testFields_nameAndChildName).maxPerShard(10000).maxTimePerShard("1m"));
+		assertEquals(uniqAllText.size(), full.entries().size());
+		assertFalse(full.timedOut());
+		
+		for (boolean sort : new boolean[] { true, false }) {
+			TermListFacet partial = termList(new TermListFacetBuilder(facetName).fields(testFields_nameAndChildName).maxPerShard(10000).sort(sort)
+					.maxTimePerShard("0ms"));
+			assertTrue(partial.timedOut());
+			assertTrue(partial.entries().size() < uniqAllText.size());
+		}
+		
+		// the partial lists were not cached
+		TermListFacet again = termList(new TermListFacetBuilder(facetName).fields(testFields_nameAndChildName).maxPerShard(10000));
+		assertEquals(uniqAllText.size(), again.entries().size());
+		assertFalse(again.timedOut());
+	}
+	
+	/**
+	 * testProfile
+	 * the profile counts the segments, fields and terms each shard went through
+	 * 
+	 * @throws Exception
+	 */
+	public void testProfile() throws Exception {
+		runStandardPutsAndFlush(index);
+		
+		TermListFacet plain = termList(new TermListFacetBuilder(facetName).fields(testFields_nameAndChildName).maxPerShard(10000));
+		assertTrue(plain.profile().isEmpty());
+		
+		for (boolean sort : new boolean[] { true, false }) {
+			TermListFacet full = termList(new TermListFacetBuilder(facetName).fields(testFields_nameAndChildName).maxPerShard(10000).sort(sort)
+					.profile(true));
+			assertEquals(uniqAllText.size(), full.entries().size());
+			assertEquals(numberOfShards, full.profile().size());
+			TermListProfile profile = full.profile().get(0);
+			assertTrue(profile.shard().contains(index));
+			assertTrue(profile.segments() > 0);
+			assertEquals(profile.segments() * testFields_nameAndChildName.size(), profile.fields());
+			assertTrue(profile.termsEnumerated() >= uniqAllText.size());
+			assertTrue(profile.termsMatched() >= uniqAllText.size());
+			assertFalse(profile.earlyStop());
+			assertTrue(profile.timeInNanos() > 0);
+			
+			TermListFacet cut = termList(new TermListFacetBuilder(facetName).fields(testFields_nameAndChildName).maxPerShard(1).sort(sort)
+					.profile(true));
+			assertTrue(cut.profile().get(0).earlyStop());
+		}
+	}
+	
+	/**
+	 * testStats
+	 * every shard list is counted in the node stats of its index and fields
+	 * 
+	 * @throws Exception
+	 */
+	public void testStats() throws Exception {
+		runStandardPutsAndFlush(index);
+		
+		for (int i = 0; i < 3; i++) {
+			termList(new TermListFacetBuilder(facetName).fields(testFields_nameAndChildName).maxPerShard(10000));
+		}
+		
+		TermListStatsResponse response = client().execute(TermListStatsAction.INSTANCE, new TermListStatsRequest()).actionGet();
+		assertEquals(2, response.getNodes().length);
+		long requests = 0;
+		long termsEnumerated = 0;
+		for (TermListNodeStats node : response) {
+			assertTrue(node.sidecarSizeInBytes() > 0);
+			assertTrue(node.sidecarUsedBytes() >= 0 && node.sidecarUsedBytes() <= node.sidecarSizeInBytes());
+			assertTrue(node.breakerLimitBytes() > 0);
+			assertEquals(0, node.breakerUsedBytes());		// every finished request released its terms
+			assertTrue(node.breakerTrippedCount() >= 0);
+			for (TermListFieldStats stats : node.stats()) {
+				if (index.equals(stats.index()) && "name,child.name".equals(stats.fields())) {
+					requests += stats.requests();
+					termsEnumerated += stats.termsEnumerated();
+					assertTrue(stats.bytesReturned() > 0);
+					assertTrue(stats.percentileInMillis(99) > 0);
+				}
+			}
+		}
+		assertEquals(3 * numberOfShards, requests);
+		assertTrue(termsEnumerated >= 3 * uniqAllText.size());
+	}
+	
+	private TermListFacet termList(TermListFacetBuilder custom_facet) {
+		SearchResponse response = client().prepareSearch(index)
+			.setSearchType(SearchType.COUNT)
+			.addFacet(custom_facet)
+			.execute().actionGet();
+		return response.getFacets().facet(facetName);
+	}
+	
+	/**
+	 * testFuzzy
+	 * a misspelled search finds the term, and only terms within the edit distance
+	 * 
+	 * @throws Exception
+	 */
+	public void testFuzzy() throws Exception {
+		runStandardPutsAndFlush(index);
+		
+		final String term = parentRandomStrings.get(0).toLowerCase();
+		final String misspelled = term.substring(0, term.length() - 1) + (term.endsWith("z") ? "y" : "z");
+		List<? extends Object> entries = termList(new TermListFacetBuilder(facetName).fields(testFields_name).maxPerShard(10000)
+				.search(misspelled).fuzzy(1).fuzzyTranspositions(false)).entries();
+		
+		assertTrue(entries.contains(term));
+		for (Object entry : entries) {
+			assertTrue(entry + " is too far from " + misspelled, editDistance(misspelled, (String) entry) <= 1);
+		}
+	}
+	
+	/**
+	 * testRegexAndWildcard
+	 * pattern matches find the same terms as matching each term client side
+	 * 
+	 * @throws Exception
+	 */
+	public void testRegexAndWildcard() throws Exception {
+		runStandardPutsAndFlush(index);
+		
+		final Set<String> expected = new HashSet<String>();
+		for (String s : uniqParentText) {
+			final String lower = s.toLowerCase();
+			if (lower.matches("[a-c].*e.*")) {
+				expected.add(lower);
+			}
+		}
+		assertEquals(expected, new HashSet<Object>(termList(new TermListFacetBuilder(facetName).fields(testFields_name).maxPerShard(10000)
+				.regex("[a-c].*e.*")).entries()));
+		
+		final Set<String> wildcardExpected = new HashSet<String>();
+		for (String s : uniqParentText) {
+			final String lower = s.toLowerCase();
+			if (lower.startsWith("a") && lower.indexOf('e') > 0) {
+				wildcardExpected.add(lower);
+			}
+		}
+		assertEquals(wildcardExpected, new HashSet<Object>(termList(new TermListFacetBuilder(facetName).fields(testFields_name).maxPerShard(10000)
+				.wildcard("A*e*")).entries()));
+	}
+	
+	private static int editDistance(String a, String b) {
+		int[] previous = new int[b.length() + 1];
+		int[] current = new int[b.length() + 1];
+		for (int j = 0; j <= b.length(); j++) {
+			previous[j] = j;
+		}
+		for (int i = 1; i <= a.length(); i++) {
+			current[0] = i;
+			for (int j = 1; j <= b.length(); j++) {
+				final int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+				current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+			}
+			final int[] tmp = previous;
+			previous = current;
+			current = tmp;
+		}
+		return previous[b.length()];
+	}
+	
 	/****
 	 * Test the optional search parameters, prefix and case insensitive
 	 */
@@ -317,6 +548,32 @@ public class TermListFacetTest extends TestCase {
 		checkPrefixSearchResults(response, parentRandomStrings, "a");
 	}
 
+	/**
+	 * testSearchWithPrefixFindsAllMatches
+	 * case insensitive prefix search seeks per case variant, it should still find every match
+	 *
+	 * @throws Exception
+	 */
+	public void testSearchWithPrefixFindsAllMatches() throws Exception {
+		runStandardPutsAndFlush(index);
+		SearchResponse response = this.getTermList(index, testFields_name, "A", 10000, true, true, true);
+
+		// did the number of hits from es match the number we put in?
+		//
+		assertEquals(numOfElements, countAll(index));
+		assertEquals(numOfElements, response.getHits().getTotalHits());
+
+		checkPrefixSearchResults(response, parentRandomStrings, "a");
+
+		int expected = 0;
+		for (String s : uniqParentText) {
+			if (s.startsWith("a")) {
+				expected++;
+			}
+		}
+		assertEquals(expected, ((TermListFacet) response.getFacets().facet(facetName)).entries().size());
+	}
+
 	/**
 	 * testSearch
 	 * 
@@ -334,6 +591,32 @@ public class TermListFacetTest extends TestCase {
 		checkContainsSearchResults(response, parentRandomStrings, "z");
 	}
 
+	/**
+	 * testSearchFindsAllMatches
+	 * case insensitive substring search runs as an automaton, it should still find every match
+	 *
+	 * @throws Exception
+	 */
+	public void testSearchFindsAllMatches() throws Exception {
+		runStandardPutsAndFlush(index);
+		SearchResponse response = this.getTermList(index, testFields_name, "E", 10000, false, true, true);
+
+		// did the number of hits from es match the number we put in?
+		//
+		assertEquals(numOfElements, countAll(index));
+		assertEquals(numOfElements, response.getHits().getTotalHits());
+
+		checkContainsSearchResults(response, parentRandomStrings, "e");
+
+		int expected = 0;
+		for (String s : uniqParentText) {
+			if (s.contains("e")) {
+				expected++;
+			}
+		}
+		assertEquals(expected, ((TermListFacet) response.getFacets().facet(facetName)).entries().size());
+	}
+
 	/**
 	 * testSearchWithCaseSensitive
 	 * 
@@ -485,6 +768,474 @@ public class TermListFacetTest extends TestCase {
 	    assertEquals(copy, entries);
 	}
 	
+	/**
+	 * testCachedTermList
+	 * a repeated request is answered from the segment cache with the same terms
+	 * 
+	 * @throws Exception
+	 */
+	public void testCachedTermList() throws Exception {
+		runStandardPutsAndFlush(index);
+		SearchResponse first = this.getTermList(index, testFields_nameAndChildName, "a", 10000, false, true, true);
+		long cached = cacheSize();
+		SearchResponse second = this.getTermList(index, testFields_nameAndChildName, "A", 10000, false, true, true);
+		
+		assertTrue(cached > 0);
+		assertEquals(cached, cacheSize());
+		assertEquals(((TermListFacet) first.getFacets().facet(facetName)).entries(), 
+				((TermListFacet) second.getFacets().facet(facetName)).entries());
+	}
+	
+	/**
+	 * testSearchWithSuffixIndex
+	 * substring searches answered by the segment suffix indexes find the same terms
+	 * 
+	 * @throws Exception
+	 */
+	public void testSearchWithSuffixIndex() throws Exception {
+		runStandardPutsAndFlush(index_mixed);
+		checkSuffixIndexResults("E", true);
+		checkSuffixIndexResults("C", false);
+		
+		assertTrue(((InternalNode) node).injector().getInstance(TermListSidecarCache.class).usedBytes() 
+				+ ((InternalNode) node_two).injector().getInstance(TermListSidecarCache.class).usedBytes() > 0);
+	}
+	
+	private void checkSuffixIndexResults(String search, boolean caseInsensitive) {
+		final Set<String> expected = new HashSet<String>();
+		for (String s : parentRandomStrings) {
+			if (caseInsensitive ? s.toLowerCase().contains(search.toLowerCase()) : s.contains(search)) {
+				expected.add(s);
+			}
+		}
+		
+		TermListFacetBuilder custom_facet = new TermListFacetBuilder(facetName).fields(testFields_name).maxPerShard(10000)
+				.search(search).caseInsensitive(caseInsensitive).suffixIndex(true);
+		SearchResponse response = client().prepareSearch(index_mixed)
+			.setSearchType(SearchType.COUNT)
+			.addFacet(custom_facet)
+			.execute().actionGet();
+		
+		List<? extends Object> entries = ((TermListFacet) response.getFacets().facet(facetName)).entries();
+		assertEquals(expected, new HashSet<Object>(entries));
+	}
+
+	/**
+	 * testPrefixWithLowercaseIndex
+	 * case insensitive prefix searches answered by the segment lowercase indexes find the
+	 * mixed case terms in any case, with their doc counts
+	 *
+	 * @throws Exception
+	 */
+	public void testPrefixWithLowercaseIndex() throws Exception {
+		runStandardPutsAndFlush(index_mixed);
+		checkLowercaseIndexResults("e");
+		checkLowercaseIndexResults("C");
+
+		assertTrue(((InternalNode) node).injector().getInstance(TermListSidecarCache.class).usedBytes()
+				+ ((InternalNode) node_two).injector().getInstance(TermListSidecarCache.class).usedBytes() > 0);
+	}
+
+	private void checkLowercaseIndexResults(String search) {
+		final Map<String, Long> expected = new HashMap<String, Long>();
+		for (String s : parentRandomStrings) {
+			if (s.toLowerCase().startsWith(search.toLowerCase())) {
+				expected.put(s, expected.containsKey(s) ? expected.get(s) + 1 : 1L);
+			}
+		}
+
+		TermListFacetBuilder custom_facet = new TermListFacetBuilder(facetName).fields(testFields_name).maxPerShard(10000)
+				.search(search).prefix(true).caseInsensitive(true).docCount(true).lowercaseIndex(true);
+		SearchResponse response = client().prepareSearch(index_mixed)
+			.setSearchType(SearchType.COUNT)
+			.addFacet(custom_facet)
+			.execute().actionGet();
+
+		TermListFacet facet = response.getFacets().facet(facetName);
+		final Map<Object, Long> actual = new HashMap<Object, Long>();
+		for (int i = 0; i < facet.entries().size(); i++) {
+			actual.put(facet.entries().get(i), facet.counts().get(i));
+		}
+		assertEquals(expected, actual);
+	}
+
+	/**
+	 * testOrderByCount
+	 * the most frequent terms come first, with the number of docs holding them
+	 * 
+	 * @throws Exception
+	 */
+	public void testOrderByCount() throws Exception {
+		runStandardPutsAndFlush(index);
+		
+		final Map<String, Long> frequencies = new HashMap<String, Long>();
+		for (String s : parentRandomStrings) {
+			frequencies.put(s, frequencies.containsKey(s) ? frequencies.get(s) + 1 : 1L);
+		}
+		List<Map.Entry<String, Long>> expected = new ArrayList<Map.Entry<String, Long>>(frequencies.entrySet());
+		Collections.sort(expected, new Comparator<Map.Entry<String, Long>>() {
+			@Override
+			public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b) {
+				int cmp = b.getValue().compareTo(a.getValue());
+				return cmp != 0 ? cmp : a.getKey().compareTo(b.getKey());
+			}
+		});
+		expected = expected.subList(0, 5);
+		
+		TermListFacetBuilder custom_facet = new TermListFacetBuilder(facetName).fields(testFields_name).maxPerShard(10000).order("count").size(5);
+		SearchResponse response = client().prepareSearch(index)
+			.setSearchType(SearchType.COUNT)
+			.addFacet(custom_facet)
+			.execute().actionGet();
+		
+		TermListFacet facet = response.getFacets().facet(facetName);
+		assertEquals(5, facet.entries().size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).getKey(), facet.entries().get(i));
+			assertEquals(expected.get(i).getValue(), facet.counts().get(i));
+		}
+	}
+	
+	/**
+	 * testOrderByCountBeyondShardSize
+	 * the most frequent term is listed even when it sorts after max_per_shard other matches
+	 *
+	 * @throws Exception
+	 */
+	public void testOrderByCountBeyondShardSize() throws Exception {
+		final String[] names = { "aaa", "aab", "aac", "zzz", "zzz", "zzz", "aab" };
+		for (int i = 0; i < names.length; i++) {
+			// every doc is refreshed on its own, the counts of zzz are spread over segments
+			client().prepareIndex(index, "test_type", "count" + i).setRefresh(true).setSource("name", names[i]).execute().actionGet();
+		}
+
+		TermListFacet facet = termList(new TermListFacetBuilder(facetName).fields(testFields_name).order("count").maxPerShard(2).size(2));
+		assertEquals(Arrays.asList("zzz", "aab"), facet.entries());
+		assertEquals(Arrays.asList(3L, 2L), facet.counts());
+		assertTrue(facet.truncated());
+	}
+
+	/**
+	 * testUnsortedCountsAcrossSegments
+	 * a term listed from an earlier segment collects the count of a later one where it sorts
+	 * after max_per_shard other terms, the same with and without the term list cache
+	 *
+	 * @throws Exception
+	 */
+	public void testUnsortedCountsAcrossSegments() throws Exception {
+		final String[][] segments = { { "zzz" }, { "aaa", "aab", "zzz" } };
+		int id = 0;
+		for (String[] names : segments) {
+			for (String name : names) {
+				client().prepareIndex(index, "test_type", "segment" + id++).setSource("name", name).execute().actionGet();
+			}
+			client().admin().indices().refresh(new RefreshRequest(index)).actionGet();
+		}
+
+		final long cached = cacheSize();
+		for (int i = 0; i < 2; i++) {
+			TermListFacet facet = termList(new TermListFacetBuilder(facetName).fields(testFields_name).sort(false).docCount(true).maxPerShard(2));
+			assertEquals(2, facet.entries().size());
+			assertEquals(2L, (long) facet.counts().get(facet.entries().indexOf("zzz")));
+			assertTrue(facet.truncated());
+		}
+		assertEquals(cached, cacheSize());		// the lists of the segments were not cached
+	}
+
+	/**
+	 * testRankByPopularity
+	 * the popularity indexes return the most frequent prefix matches in any case, with their counts
+	 *
+	 * @throws Exception
+	 */
+	public void testRankByPopularity() throws Exception {
+		runStandardPutsAndFlush(index_mixed);
+
+		final Map<String, Long> frequencies = new HashMap<String, Long>();
+		for (String s : parentRandomStrings) {
+			if (s.toLowerCase().startsWith("c")) {
+				frequencies.put(s, frequencies.containsKey(s) ? frequencies.get(s) + 1 : 1L);
+			}
+		}
+		List<Map.Entry<String, Long>> expected = new ArrayList<Map.Entry<String, Long>>(frequencies.entrySet());
+		Collections.sort(expected, new Comparator<Map.Entry<String, Long>>() {
+			@Override
+			public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b) {
+				int cmp = b.getValue().compareTo(a.getValue());
+				return cmp != 0 ? cmp : a.getKey().compareTo(b.getKey());
+			}
+		});
+		expected = expected.subList(0, Math.min(3, expected.size()));
+
+		TermListFacetBuilder custom_facet = new TermListFacetBuilder(facetName).fields(testFields_name).maxPerShard(10000)
+				.search("C").prefix(true).caseInsensitive(true).rank("popularity").size(3);
+		SearchResponse response = client().prepareSearch(index_mixed)
+			.setSearchType(SearchType.COUNT)
+			.addFacet(custom_facet)
+			.execute().actionGet();
+
+		TermListFacet facet = response.getFacets().facet(facetName);
+		assertEquals(expected.size(), facet.entries().size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).getKey(), facet.entries().get(i));
+			assertEquals(expected.get(i).getValue(), facet.counts().get(i));
+		}
+
+		assertTrue(((InternalNode) node).injector().getInstance(TermListSidecarCache.class).usedBytes()
+				+ ((InternalNode) node_two).injector().getInstance(TermListSidecarCache.class).usedBytes() > 0);
+	}
+
+	/**
+	 * testPaging
+	 * following the cursors pages through every matching term exactly once, in order
+	 * 
+	 * @throws Exception
+	 */
+	public void testPaging() throws Exception {
+		runStandardPutsAndFlush(index);
+		checkPages(null, false, false);
+		checkPages("a", false, false);
+		checkPages("a", false, true);
+		checkPages("A", true, false);
+		checkPages("a", true, false);
+	}
+	
+	private void checkPages(String search, boolean prefix, boolean suffixIndex) {
+		final List<String> expected = new ArrayList<String>();
+		for (String s : uniqAllText) {
+			final String lower = s.toLowerCase();
+			if (search == null || (prefix ? lower.startsWith(search.toLowerCase()) : lower.contains(search.toLowerCase()))) {
+				expected.add(s);
+			}
+		}
+		Collections.sort(expected);
+		
+		final List<Object> paged = new ArrayList<Object>();
+		String after = null;
+		do {
+			TermListFacetBuilder custom_facet = new TermListFacetBuilder(facetName).fields(testFields_nameAndChildName)
+					.search(search).prefix(prefix).suffixIndex(suffixIndex).size(7).after(after);
+			SearchResponse response = client().prepareSearch(index)
+				.setSearchType(SearchType.COUNT)
+				.addFacet(custom_facet)
+				.execute().actionGet();
+			
+			TermListFacet facet = response.getFacets().facet(facetName);
+			assertTrue(facet.entries().size() <= 7);
+			paged.addAll(facet.entries());
+			after = facet.next();
+		} while (after != null);
+		
+		assertEquals(expected, paged);
+	}
+	
+	/**
+	 * testParallel
+	 * segments enumerated on the term list pool give the same lists as the search thread
+	 * 
+	 * @throws Exception
+	 */
+	public void testParallel() throws Exception {
+		runStandardPutsAndFlush(index);
+		checkParallelResults(new TermListFacetBuilder(facetName).fields(testFields_nameAndChildName).maxPerShard(10000));
+		checkParallelResults(new TermListFacetBuilder(facetName).fields(testFields_nameAndChildName).maxPerShard(10000).search("a"));
+		checkParallelResults(new TermListFacetBuilder(facetName).fields(testFields_nameAndChildName).maxPerShard(10000).search("a").prefix(true));
+		checkParallelResults(new TermListFacetBuilder(facetName).fields(testFields_nameAndChildName).size(7).after("b"));
+		checkParallelResults(new TermListFacetBuilder(facetName).fields(testFields_name).maxPerShard(10000).order("count").size(5));
+		
+		// a truncated list is still full
+		TermListFacetBuilder custom_facet = new TermListFacetBuilder(facetName).fields(testFields_nameAndChildName).maxPerShard(10).sort(false).parallel(true);
+		SearchResponse response = client().prepareSearch(index)
+			.setSearchType(SearchType.COUNT)
+			.addFacet(custom_facet)
+			.execute().actionGet();
+		List<? extends Object> entries = ((TermListFacet) response.getFacets().facet(facetName)).entries();
+		assertEquals(Math.min(10, uniqAllText.size()), entries.size());
+		assertEquals(entries.size(), new HashSet<Object>(entries).size());
+		// the terms the tasks shared were reserved on the breaker and given back
+		assertEquals(0, ((InternalNode) node).injector().getInstance(TermListCircuitBreaker.class).used());
+		assertEquals(0, ((InternalNode) node_two).injector().getInstance(TermListCircuitBreaker.class).used());
+	}
+	
+	private void checkParallelResults(TermListFacetBuilder custom_facet) {
+		SearchResponse sequential = client().prepareSearch(index)
+			.setSearchType(SearchType.COUNT)
+			.addFacet(custom_facet)
+			.execute().actionGet();
+		SearchResponse parallel = client().prepareSearch(index)
+			.setSearchType(SearchType.COUNT)
+			.addFacet(custom_facet.parallel(true))
+			.execute().actionGet();
+		
+		TermListFacet expected = sequential.getFacets().facet(facetName);
+		TermListFacet actual = parallel.getFacets().facet(facetName);
+		assertEquals(expected.entries(), actual.entries());
+		assertEquals(expected.counts(), actual.counts());
+		assertEquals(expected.next(), actual.next());
+	}
+	
+	private long cacheSize() {
+		return ((InternalNode) node).injector().getInstance(TermListCache.class).size() 
+				+ ((InternalNode) node_two).injector().getInstance(TermListCache.class).size();
+	}
+	
+	/**
+	 * testQueryScoped
+	 * only terms of the docs matching the query are listed
+	 * 
+	 * @throws Exception
+	 */
+	public void testQueryScoped() throws Exception {
+		runStandardPutsAndFlush(index);
+		checkQueryScopedResults();
+	}
+	
+	/**
+	 * testFieldDataOrdinals
+	 * once field data is loaded the terms are searched in its ordinals, the lists stay the same
+	 * 
+	 * @throws Exception
+	 */
+	public void testFieldDataOrdinals() throws Exception {
+		runStandardPutsAndFlush(index);
+		final List<TermListFacetBuilder> facets = new ArrayList<TermListFacetBuilder>();
+		facets.add(new TermListFacetBuilder(facetName).fields(testFields_nameAndChildName).search("A").prefix(true));
+		facets.add(new TermListFacetBuilder(facetName).fields(testFields_nameAndChildName).search("a").prefix(true).caseInsensitive(false).docCount(true));
+		facets.add(new TermListFacetBuilder(facetName).fields(testFields_nameAndChildName).search("e").docCount(true));
+		facets.add(new TermListFacetBuilder(facetName).fields(testFields_name).regex("[a-m].*"));
+		facets.add(new TermListFacetBuilder(facetName).fields(testFields_name).order("count").size(5));
+		
+		final List<TermListFacet> expected = new ArrayList<TermListFacet>();
+		for (TermListFacetBuilder facet : facets) {
+			expected.add(termList(facet.maxPerShard(10000)));
+		}
+		
+		client().prepareSearch(index).setSearchType(SearchType.COUNT)
+			.addFacet(FacetBuilders.termsFacet("load_field_data").fields("name", "child.name"))
+			.execute().actionGet();
+		
+		for (int i = 0; i < facets.size(); i++) {
+			// another limit, so the term list cache misses
+			final TermListFacet facet = termList(facets.get(i).maxPerShard(9999));
+			assertEquals(expected.get(i).entries(), facet.entries());
+			assertEquals(expected.get(i).counts(), facet.counts());
+		}
+		assertFalse(expected.get(0).entries().isEmpty());
+
+		// a list cached without doc frequencies must not lend its zeros to a counted one
+		termList(facets.get(0).maxPerShard(9998));
+		final TermListFacet counted = termList(facets.get(0).docCount(true));
+		assertEquals(expected.get(0).entries(), counted.entries());
+		for (Long count : counted.counts()) {
+			assertTrue(count > 0);
+		}
+	}
+	
+	/**
+	 * testGlobalOrdinals
+	 * matching in the shard wide tables lists the same terms as matching in every segment
+	 * 
+	 * @throws Exception
+	 */
+	public void testGlobalOrdinals() throws Exception {
+		runStandardPutsAndFlush(index);
+		final String name = parentRandomStrings.get(0);
+		final List<TermListFacetBuilder> facets = new ArrayList<TermListFacetBuilder>();
+		facets.add(new TermListFacetBuilder(facetName).fields(testFields_nameAndChildName).search("A").prefix(true));
+		facets.add(new TermListFacetBuilder(facetName).fields(testFields_nameAndChildName).search("e").docCount(true));
+		facets.add(new TermListFacetBuilder(facetName).fields(testFields_nameAndChildName).size(7).after(uniqAllText.iterator().next()));
+		facets.add(new TermListFacetBuilder(facetName).fields(testFields_name).wildcard("*a*"));
+		facets.add(new TermListFacetBuilder(facetName).fields(testFields_nameAndChildName).queryScoped(true).docCount(true));
+		facets.add(new TermListFacetBuilder(facetName).fields(testFields_nameAndChildName).queryScoped(true).search("a"));
+		
+		for (int loaded = 0; loaded < 2; loaded++) {
+			for (TermListFacetBuilder facet : facets) {
+				final TermListFacet expected = termList(facet.maxPerShard(10000).globalOrdinals(false), name);
+				final TermListFacet global = termList(facet.maxPerShard(9999).globalOrdinals(true), name);
+				assertEquals(expected.entries(), global.entries());
+				assertEquals(expected.counts(), global.counts());
+				assertEquals(expected.next(), global.next());
+			}
+			
+			// query scoped lists then come from the field data ordinals
+			client().prepareSearch(index).setSearchType(SearchType.COUNT)
+				.addFacet(FacetBuilders.termsFacet("load_field_data").fields("name", "child.name"))
+				.execute().actionGet();
+		}
+	}
+	
+	private TermListFacet termList(TermListFacetBuilder custom_facet, String name) {
+		SearchResponse response = client().prepareSearch(index)
+			.setSearchType(SearchType.COUNT)
+			.setQuery(QueryBuilders.termQuery("name", name))
+			.addFacet(custom_facet)
+			.execute().actionGet();
+		return response.getFacets().facet(facetName);
+	}
+	
+	/**
+	 * testTermListAction
+	 * the _termlist action lists the same terms as the facet, without a search
+	 * 
+	 * @throws Exception
+	 */
+	public void testTermListAction() throws Exception {
+		runStandardPutsAndFlush(index);
+		TermListFacetBuilder custom_facet = new TermListFacetBuilder(facetName).fields(testFields_nameAndChildName).search("a").prefix(true).maxPerShard(10000);
+		
+		TermListResponse response = client().execute(TermListAction.INSTANCE, new TermListRequest(index).source(custom_facet)).actionGet();
+		assertEquals(numberOfShards, response.getSuccessfulShards());
+		assertEquals(0, response.getFailedShards());
+		assertEquals(termList(custom_facet).entries(), response.getTermList().entries());
+		assertFalse(response.getTermList().entries().isEmpty());
+		
+		// there is no query to scope the list to
+		response = client().execute(TermListAction.INSTANCE, new TermListRequest(index).source(custom_facet.queryScoped(true))).actionGet();
+		assertEquals(numberOfShards, response.getFailedShards());
+		assertTrue(response.getTermList().entries().isEmpty());
+	}
+	
+	/**
+	 * testQueryScopedWithFieldData
+	 * same as testQueryScoped, but the field data ordinals are used since a terms facet loaded them
+	 * 
+	 * @throws Exception
+	 */
+	public void testQueryScopedWithFieldData() throws Exception {
+		runStandardPutsAndFlush(index);
+		client().prepareSearch(index).setSearchType(SearchType.COUNT)
+			.addFacet(FacetBuilders.termsFacet("load_field_data").fields("name", "child.name"))
+			.execute().actionGet();
+		
+		checkQueryScopedResults();
+	}
+	
+	/**
+	 * checkQueryScopedResults
+	 * query for the docs of one parent name and check we only get the terms of those docs
+	 */
+	private void checkQueryScopedResults()
+	{
+		final String name = parentRandomStrings.get(0);
+		final Set<String> expected = new HashSet<String>();
+		for (int i = 0; i < parentRandomStrings.size(); i++) {
+			if (parentRandomStrings.get(i).equals(name)) {
+				expected.add(parentRandomStrings.get(i));
+				expected.add(childRandomStrings.get(i));
+			}
+		}
+		
+		TermListFacetBuilder custom_facet = new TermListFacetBuilder(facetName).fields(testFields_nameAndChildName).maxPerShard(10000).queryScoped(true);
+		SearchResponse response = client().prepareSearch(index)
+			.setSearchType(SearchType.COUNT)
+			.setQuery(QueryBuilders.termQuery("name", name))
+			.addFacet(custom_facet)
+			.execute().actionGet();
+		
+		List<? extends Object> entries = ((TermListFacet) response.getFacets().facet(facetName)).entries();
+		assertEquals(expected, new HashSet<Object>(entries));
+	}
+	
 	/**
 	 * checkContainsSearchResults
 	 * 
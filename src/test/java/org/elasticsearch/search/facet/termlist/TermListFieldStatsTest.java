@@ -0,0 +1,73 @@
+/* Copyright 2013 Endgame, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.search.facet.termlist;
+
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.elasticsearch.common.io.stream.BytesStreamInput;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+
+/**
+ * TermListFieldStatsTest
+ * 
+ * The percentiles have to bound the recorded latencies from above by at most a bucket, and survive streaming and adding up.
+ */
+public class TermListFieldStatsTest extends TestCase {
+
+	public void testPercentiles() throws Exception {
+		final TermListFieldStats stats = new TermListFieldStats("index", "name");
+		assertEquals(0.0, stats.percentileInMillis(50));
+		
+		for (int millis = 1; millis <= 100; millis++) {
+			stats.record(TimeUnit.MILLISECONDS.toNanos(millis), 10, 1, 0, 100);
+		}
+		assertEquals(100, stats.requests());
+		assertEquals(1000, stats.termsEnumerated());
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(5050), stats.timeInNanos());
+		assertBound(50, stats.percentileInMillis(50));
+		assertBound(90, stats.percentileInMillis(90));
+		assertBound(100, stats.percentileInMillis(100));
+		
+		final BytesStreamOutput out = new BytesStreamOutput();
+		stats.writeTo(out);
+		final TermListFieldStats read = TermListFieldStats.readFieldStats(new BytesStreamInput(out.bytes()));
+		assertEquals("index", read.index());
+		assertEquals("name", read.fields());
+		assertEquals(100, read.cacheHits());
+		assertEquals(10000, read.bytesReturned());
+		assertEquals(stats.percentileInMillis(90), read.percentileInMillis(90));
+		
+		// a node's total adds up the histograms of its fields
+		final TermListFieldStats slow = new TermListFieldStats("index", "other");
+		for (int i = 0; i < 100; i++) {
+			slow.record(TimeUnit.SECONDS.toNanos(10), 0, 0, 1, 0);
+		}
+		final TermListFieldStats total = new TermListFieldStats(null, null);
+		total.add(read);
+		total.add(slow);
+		assertEquals(200, total.requests());
+		assertEquals(100, total.cacheMisses());
+		assertBound(100, total.percentileInMillis(50));
+		assertBound(10000, total.percentileInMillis(51));
+	}
+	
+	private static void assertBound(double expectedMillis, double percentileMillis) {
+		assertTrue(percentileMillis + " is below " + expectedMillis, percentileMillis >= expectedMillis);
+		assertTrue(percentileMillis + " is too far above " + expectedMillis, percentileMillis <= expectedMillis * Math.pow(2, 0.25));
+	}
+}
@@ -0,0 +1,211 @@
+/* Copyright 2013 Endgame, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.search.facet.termlist;
+
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+import junit.framework.TestCase;
+
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.Version;
+import org.elasticsearch.common.settings.ImmutableSettings;
+
+/**
+ * TermListSidecarCacheTest
+ * 
+ * Structures which cannot fit in the sidecar memory are never built, the global ordinals
+ * of a shard follow its newest reader.
+ */
+public class TermListSidecarCacheTest extends TestCase {
+
+	public void testSuffixIndexBudget() throws Exception {
+		final RAMDirectory dir = new RAMDirectory();
+		final IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(Version.LUCENE_45, new KeywordAnalyzer()));
+		for (int i = 0; i < 2000; i++) {
+			final Document doc = new Document();
+			doc.add(new StringField("field", "Term " + i, Field.Store.NO));
+			writer.addDocument(doc);
+		}
+		writer.forceMerge(1);
+		writer.close();
+		
+		final DirectoryReader reader = DirectoryReader.open(dir);
+		try {
+			final AtomicReader segment = reader.leaves().get(0).reader();
+			final Terms terms = segment.terms("field");
+			final long estimate = SuffixIndex.estimateBytes(terms);
+			final Callable<SuffixIndex> builder = new Callable<SuffixIndex>() {
+				@Override
+				public SuffixIndex call() throws Exception {
+					return SuffixIndex.build(terms.iterator(null));
+				}
+			};
+			final long actual = builder.call().ramBytesUsed();
+			assertTrue("estimated " + estimate + " for " + actual, estimate >= actual / 2 && estimate <= actual * 2);
+			
+			final TermListSidecarCache small = new TermListSidecarCache(ImmutableSettings.settingsBuilder()
+					.put(TermListSidecarCache.CACHE_SIZE, (estimate - 1) + "b").build());
+			assertNull(small.get(segment, "field", SuffixIndex.class, estimate, new Callable<SuffixIndex>() {
+				@Override
+				public SuffixIndex call() {
+					throw new AssertionError("an index larger than the cache must not be built");
+				}
+			}));
+			assertEquals(0, small.usedBytes());
+			
+			final TermListSidecarCache large = new TermListSidecarCache(ImmutableSettings.settingsBuilder()
+					.put(TermListSidecarCache.CACHE_SIZE, (2 * actual) + "b").build());
+			final SuffixIndex index = large.get(segment, "field", SuffixIndex.class, estimate, builder);
+			assertNotNull(index);
+			assertSame(index, large.get(segment, "field", SuffixIndex.class, estimate, builder));
+			assertEquals(actual, large.usedBytes());
+		} finally {
+			reader.close();
+		}
+	}
+	
+	public void testPopularityIndexEstimate() throws Exception {
+		final RAMDirectory dir = new RAMDirectory();
+		final IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(Version.LUCENE_45, new KeywordAnalyzer()));
+		final Random random = new Random(0);
+		for (int i = 0; i < 2000; i++) {
+			final Document doc = new Document();
+			doc.add(new StringField("field", Integer.toString(random.nextInt(1 << 30), Character.MAX_RADIX) + " term " + (i % 500), Field.Store.NO));
+			writer.addDocument(doc);
+		}
+		writer.forceMerge(1);
+		writer.close();
+		
+		final DirectoryReader reader = DirectoryReader.open(dir);
+		try {
+			final Terms terms = reader.leaves().get(0).reader().terms("field");
+			final long estimate = PopularityIndex.estimateBytes(terms);
+			final long actual = PopularityIndex.build(terms.iterator(null)).ramBytesUsed();
+			// shared prefixes only make the FST smaller, an index within its estimate is never evicted as it is built
+			assertTrue("estimated " + estimate + " for " + actual, estimate >= actual && estimate <= actual * 4);
+		} finally {
+			reader.close();
+		}
+	}
+	
+	public void testLowercasePrefixIndexEstimate() throws Exception {
+		final RAMDirectory dir = new RAMDirectory();
+		final IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(Version.LUCENE_45, new KeywordAnalyzer()));
+		for (int i = 0; i < 2000; i++) {
+			final Document doc = new Document();
+			doc.add(new StringField("field", (i % 2 == 0 ? "Term " : "term ") + i, Field.Store.NO));
+			writer.addDocument(doc);
+		}
+		writer.forceMerge(1);
+		writer.close();
+		
+		final DirectoryReader reader = DirectoryReader.open(dir);
+		try {
+			final Terms terms = reader.leaves().get(0).reader().terms("field");
+			final long estimate = LowercasePrefixIndex.estimateBytes(terms);
+			final long actual = LowercasePrefixIndex.build(terms.iterator(null)).ramBytesUsed();
+			assertTrue("estimated " + estimate + " for " + actual, estimate >= actual / 2 && estimate <= actual * 2);
+		} finally {
+			reader.close();
+		}
+	}
+	
+	public void testGlobalOrdinalsFollowTheNewestReader() throws Exception {
+		final RAMDirectory dir = new RAMDirectory();
+		final IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(Version.LUCENE_45, new KeywordAnalyzer()));
+		add(writer, "apple", "banana", "cherry");
+		final Object shard = new Object();
+		final TermListSidecarCache cache = new TermListSidecarCache(ImmutableSettings.settingsBuilder().put(TermListSidecarCache.CACHE_SIZE, "1mb").build());
+		
+		final DirectoryReader first = DirectoryReader.open(writer, true);
+		final GlobalOrdinals firstTable = cache.globalOrdinals(shard, first, "field");
+		assertSame(firstTable, cache.globalOrdinals(shard, first, "field"));
+		assertTable(firstTable, first);
+		
+		// a refresh adding a segment extends the table
+		add(writer, "banana", "date");
+		final DirectoryReader second = DirectoryReader.openIfChanged(first, writer, true);
+		assertEquals(2, second.leaves().size());
+		final GlobalOrdinals secondTable = cache.globalOrdinals(shard, second, "field");
+		assertNotSame(firstTable, secondTable);
+		assertEquals(4, secondTable.size());
+		assertEquals(2, secondTable.docFreq(secondTable.ord(new BytesRef("banana"))));
+		assertTable(secondTable, second);
+		
+		// requests still running on the older reader match in its segments
+		assertNull(cache.globalOrdinals(shard, first, "field"));
+		assertSame(secondTable, cache.globalOrdinals(shard, second, "field"));
+		
+		// the table is dropped with the segments merged away
+		writer.forceMerge(1);
+		final DirectoryReader merged = DirectoryReader.openIfChanged(second, writer, true);
+		first.close();
+		second.close();
+		assertEquals(0, cache.usedBytes());
+		final GlobalOrdinals mergedTable = cache.globalOrdinals(shard, merged, "field");
+		assertEquals(4, mergedTable.size());
+		assertTable(mergedTable, merged);
+		
+		final TermListSidecarCache small = new TermListSidecarCache(ImmutableSettings.settingsBuilder().put(TermListSidecarCache.CACHE_SIZE, "10b").build());
+		assertNull(small.globalOrdinals(shard, merged, "field"));
+		
+		merged.close();
+		writer.close();
+	}
+	
+	private static void add(final IndexWriter writer, final String... terms) throws Exception {
+		for (String term : terms) {
+			final Document doc = new Document();
+			doc.add(new StringField("field", term, Field.Store.NO));
+			writer.addDocument(doc);
+		}
+	}
+	
+	/**
+	 * The table has to hold the terms of the reader with their doc frequencies and postings.
+	 */
+	private static void assertTable(final GlobalOrdinals table, final DirectoryReader reader) throws Exception {
+		final TermsEnum expected = MultiFields.getTerms(reader, "field").iterator(null);
+		final TermsEnum actual = table.terms(reader).iterator(null);
+		BytesRef term;
+		while ((term = expected.next()) != null) {
+			assertEquals(term, actual.next());
+			assertEquals(expected.docFreq(), actual.docFreq());
+			final DocsEnum expectedDocs = expected.docs(null, null);
+			final DocsEnum actualDocs = actual.docs(null, null);
+			for (int doc = expectedDocs.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = expectedDocs.nextDoc()) {
+				assertEquals(doc, actualDocs.nextDoc());
+			}
+			assertEquals(DocIdSetIterator.NO_MORE_DOCS, actualDocs.nextDoc());
+		}
+		assertNull(actual.next());
+	}
+}